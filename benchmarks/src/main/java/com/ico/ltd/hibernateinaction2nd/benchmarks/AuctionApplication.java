@@ -0,0 +1,97 @@
+package com.ico.ltd.hibernateinaction2nd.benchmarks;
+
+import com.ico.ltd.hibernateinaction2nd.HibernateInAction2ndApplication;
+import org.hibernate.SessionFactory;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * The application context of the mapping module against its in-memory H2 database, started
+ * once per benchmark trial. SQL logging is switched off, it would dominate the measurements.
+ */
+@State(Scope.Benchmark)
+public class AuctionApplication {
+
+    private ConfigurableApplicationContext context;
+
+    private EntityManagerFactory entityManagerFactory;
+
+    private TransactionTemplate transactionTemplate;
+
+    private EntityManager entityManager;
+
+    @Setup
+    public void start() {
+        start(new String[0]);
+    }
+
+    /**
+     * Starts the application with additional properties, for benchmarks comparing configurations.
+     * They're passed like command line arguments and override <code>application.properties</code>.
+     */
+    public void start(String... properties) {
+        start(WebApplicationType.NONE, properties);
+    }
+
+    public void start(WebApplicationType webApplicationType, String... properties) {
+        String[] args = Stream.concat(
+                Stream.of(
+                        "spring.main.banner-mode=off",
+                        "spring.jpa.show-sql=false",
+                        "spring.jpa.properties.hibernate.format_sql=false",
+                        "spring.jpa.properties.hibernate.use_sql_comments=false",
+                        "spring.jpa.properties.hibernate.generate_statistics=false",
+                        // benchmarks start their runs themselves
+                        "auction.close.interval-ms=0",
+                        "logging.level.root=warn"
+                ),
+                Stream.of(properties))
+                .map(property -> "--" + property)
+                .toArray(String[]::new);
+        context = new SpringApplicationBuilder(HibernateInAction2ndApplication.class)
+                .web(webApplicationType)
+                .run(args);
+        entityManagerFactory = context.getBean(EntityManagerFactory.class);
+        transactionTemplate = context.getBean(TransactionTemplate.class);
+        entityManager = context.getBean(EntityManager.class);
+    }
+
+    @TearDown
+    public void stop() {
+        context.close();
+    }
+
+    public <T> T getBean(Class<T> type) {
+        return context.getBean(type);
+    }
+
+    /**
+     * The port of the embedded web server, for applications started with a random <code>server.port</code>.
+     */
+    public int getLocalPort() {
+        return context.getEnvironment().getRequiredProperty("local.server.port", Integer.class);
+    }
+
+    public SessionFactory getSessionFactory() {
+        return entityManagerFactory.unwrap(SessionFactory.class);
+    }
+
+    /**
+     * Runs the callback in a new transaction. The entity manager is the one bound to the
+     * transaction, so every call gets a new persistence context and a single connection.
+     */
+    public <T> T inTransaction(Function<EntityManager, T> callback) {
+        return transactionTemplate.execute(status -> callback.apply(entityManager));
+    }
+}
@@ -0,0 +1,94 @@
+package com.ico.ltd.hibernateinaction2nd.benchmarks;
+
+import com.ico.ltd.hibernateinaction2nd.service.AuctionCloseService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Closing a backlog of expired auctions with {@link AuctionCloseService}: 1M expired items of
+ * all auction types with two bids each, inserted with SQL. Every iteration reopens them and
+ * closes them in one run; divide the item count by the time per run for items per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class AuctionCloseBenchmark {
+
+    // far above the identifiers of the sequences, which start at 1000
+    private static final long FIRST_ITEM_ID = 10_000_000;
+
+    private static final long FIRST_BID_ID = 20_000_000;
+
+    @Param({"1000000"})
+    public int items;
+
+    @Param({"1", "4"})
+    public int partitions;
+
+    private final AuctionApplication application = new AuctionApplication();
+
+    private AuctionCloseService auctionCloseService;
+
+    @Setup
+    public void setUp() {
+        application.start("auction.close.partitions=" + partitions);
+        auctionCloseService = application.getBean(AuctionCloseService.class);
+        application.inTransaction(em -> em.createNativeQuery(
+                "insert into ITEM (ID, VERSION, NAME, DESCRIPTION, AUCTION_END, AUCTION_TYPE, " +
+                        "WEIGHT_GRAMS, BID_COUNT, BID_SUM, CLOSED) " +
+                        "select X, 0, 'Expired item ' || X, 'An item of the auction close benchmark', " +
+                        "dateadd('DAY', -1, current_timestamp), " +
+                        "case mod(X, 3) when 0 then 'HIGHEST_BID' when 1 then 'LOWEST_BID' else 'FIXED_PRICE' end, " +
+                        "0, 2, 0, false " +
+                        "from system_range(:first, :last)")
+                .setParameter("first", FIRST_ITEM_ID)
+                .setParameter("last", FIRST_ITEM_ID + items - 1)
+                .executeUpdate());
+        application.inTransaction(em -> em.createNativeQuery(
+                "insert into BID (ID, ITEM_ID, AMOUNT) " +
+                        "select X, :firstItem + mod(X, :items), 1 + mod(X * 7919, 1000) " +
+                        "from system_range(:first, :last)")
+                .setParameter("firstItem", FIRST_ITEM_ID)
+                .setParameter("items", items)
+                .setParameter("first", FIRST_BID_ID)
+                .setParameter("last", FIRST_BID_ID + 2L * items - 1)
+                .executeUpdate());
+    }
+
+    @Setup(Level.Iteration)
+    public void reopen() {
+        application.inTransaction(em -> em.createNativeQuery(
+                "update ITEM set CLOSED = false, WINNING_BID_ID = null where CLOSED = true")
+                .executeUpdate());
+    }
+
+    @TearDown
+    public void tearDown() {
+        application.stop();
+    }
+
+    @Benchmark
+    public long closeExpired() {
+        long closed = auctionCloseService.closeExpired();
+        if (closed != items) {
+            throw new IllegalStateException("Closed " + closed + " of " + items + " auctions");
+        }
+        return closed;
+    }
+}
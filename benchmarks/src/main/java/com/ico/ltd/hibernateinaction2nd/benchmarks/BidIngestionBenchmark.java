@@ -0,0 +1,78 @@
+package com.ico.ltd.hibernateinaction2nd.benchmarks;
+
+import com.ico.ltd.hibernateinaction2nd.domain.Item;
+import com.ico.ltd.hibernateinaction2nd.service.BidIngestionService;
+import com.ico.ltd.hibernateinaction2nd.service.IncomingBid;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Storing a burst of a million bids: one transaction per bid through
+ * <code>Item#placeBid()</code>, against the chunked and batched {@link BidIngestionService}.
+ * <code>Item#addBid()</code> would load the bids of the item in every transaction, a million
+ * bids on 100 items wouldn't finish. A single shot takes minutes, hence the few iterations;
+ * the bids of all of them stay in the in-memory database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class BidIngestionBenchmark {
+
+    private static final int ITEMS = 100;
+
+    @Param({"1000000"})
+    public int bids;
+
+    private List<IncomingBid> incoming;
+
+    @Setup
+    public void setUp(AuctionApplication application) {
+        List<Long> itemIds = application.inTransaction(em -> {
+            List<Long> ids = new ArrayList<>(ITEMS);
+            for (int i = 0; i < ITEMS; i++) {
+                Item item = new Item("Ingestion item " + i, "An item of the ingestion benchmark");
+                em.persist(item);
+                ids.add(item.getId());
+            }
+            return ids;
+        });
+        incoming = new ArrayList<>(bids);
+        for (int i = 0; i < bids; i++) {
+            incoming.add(new IncomingBid(itemIds.get(i % ITEMS), BigDecimal.valueOf(1 + i % 1000)));
+        }
+    }
+
+    @Benchmark
+    public long perEntity(AuctionApplication application) {
+        long count = 0;
+        for (IncomingBid bid : incoming) {
+            count += application.inTransaction(em -> {
+                em.persist(em.find(Item.class, bid.getItemId()).placeBid(bid.getAmount()));
+                return 1;
+            });
+        }
+        return count;
+    }
+
+    @Benchmark
+    public long batched(AuctionApplication application) {
+        return application.getBean(BidIngestionService.class).ingest(incoming.stream());
+    }
+}
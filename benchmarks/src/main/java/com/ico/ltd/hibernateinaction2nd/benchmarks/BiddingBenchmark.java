@@ -0,0 +1,76 @@
+package com.ico.ltd.hibernateinaction2nd.benchmarks;
+
+import com.ico.ltd.hibernateinaction2nd.domain.Bid;
+import com.ico.ltd.hibernateinaction2nd.domain.Item;
+import com.ico.ltd.hibernateinaction2nd.service.BidService;
+import com.ico.ltd.hibernateinaction2nd.service.InvalidBidException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.dao.ConcurrencyFailureException;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 64 bidders placing bids through the {@link BidService} on one hot item or spread over many
+ * items, with optimistic retries or striped locks. Throughput is bids per second, the sample
+ * mode reports the latency percentiles including p99. Amounts grow, so most bids are valid;
+ * a bid that was outbid while waiting counts as an operation too.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(64)
+@Fork(1)
+public class BiddingBenchmark {
+
+    @Param({"OPTIMISTIC", "STRIPED"})
+    public BidService.ConcurrencyMode mode;
+
+    @Param({"1", "1000"})
+    public int items;
+
+    private final AtomicLong amounts = new AtomicLong(1);
+
+    private BidService bidService;
+
+    private Long[] itemIds;
+
+    @Setup
+    public void setUp(AuctionApplication application) {
+        itemIds = application.inTransaction(em -> {
+            Long[] ids = new Long[items];
+            for (int i = 0; i < items; i++) {
+                Item item = new Item("Bidding item " + i, "An item of the bidding benchmark");
+                em.persist(item);
+                ids[i] = item.getId();
+            }
+            return ids;
+        });
+        bidService = application.getBean(BidService.class);
+    }
+
+    @Benchmark
+    public Bid placeBid() {
+        Long itemId = itemIds[ThreadLocalRandom.current().nextInt(itemIds.length)];
+        try {
+            return bidService.placeBid(itemId, BigDecimal.valueOf(amounts.incrementAndGet()), mode);
+        } catch (InvalidBidException | ConcurrencyFailureException ex) {
+            return null;
+        }
+    }
+}
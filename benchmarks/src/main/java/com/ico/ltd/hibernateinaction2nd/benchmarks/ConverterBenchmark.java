@@ -0,0 +1,77 @@
+package com.ico.ltd.hibernateinaction2nd.benchmarks;
+
+import com.ico.ltd.hibernateinaction2nd.domain.GermanZipcode;
+import com.ico.ltd.hibernateinaction2nd.domain.MonetaryAmount;
+import com.ico.ltd.hibernateinaction2nd.domain.Zipcode;
+import com.ico.ltd.hibernateinaction2nd.domain.converters.MonetaryAmountConverter;
+import com.ico.ltd.hibernateinaction2nd.domain.converters.ZipcodeConverter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.Currency;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The JPA attribute converters of the domain model and the <code>String</code> form of
+ * {@link MonetaryAmount} they rely on.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConverterBenchmark {
+
+    private final MonetaryAmountConverter monetaryAmountConverter = new MonetaryAmountConverter();
+
+    private final ZipcodeConverter zipcodeConverter = new ZipcodeConverter();
+
+    private final MonetaryAmount amount = new MonetaryAmount(new BigDecimal("123.45"), Currency.getInstance("USD"));
+
+    private final String amountColumn = "123.45 USD";
+
+    private final Zipcode zipcode = new GermanZipcode("12345");
+
+    private final String germanZipcodeColumn = "12345";
+
+    private final String swissZipcodeColumn = "8001";
+
+    @Benchmark
+    public MonetaryAmount monetaryAmountFromString() {
+        return MonetaryAmount.fromString(amountColumn);
+    }
+
+    @Benchmark
+    public String monetaryAmountToDatabaseColumn() {
+        return monetaryAmountConverter.convertToDatabaseColumn(amount);
+    }
+
+    @Benchmark
+    public MonetaryAmount monetaryAmountToEntityAttribute() {
+        return monetaryAmountConverter.convertToEntityAttribute(amountColumn);
+    }
+
+    @Benchmark
+    public String zipcodeToDatabaseColumn() {
+        return zipcodeConverter.convertToDatabaseColumn(zipcode);
+    }
+
+    @Benchmark
+    public Zipcode germanZipcodeToEntityAttribute() {
+        return zipcodeConverter.convertToEntityAttribute(germanZipcodeColumn);
+    }
+
+    @Benchmark
+    public Zipcode swissZipcodeToEntityAttribute() {
+        return zipcodeConverter.convertToEntityAttribute(swissZipcodeColumn);
+    }
+}
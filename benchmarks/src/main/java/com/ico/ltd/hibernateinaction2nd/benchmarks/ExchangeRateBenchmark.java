@@ -0,0 +1,66 @@
+package com.ico.ltd.hibernateinaction2nd.benchmarks;
+
+import com.ico.ltd.hibernateinaction2nd.domain.converters.ExchangeRateTable;
+import com.ico.ltd.hibernateinaction2nd.domain.converters.ExchangeRates;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrent rate lookups in the {@link ExchangeRateTable}, as done by every
+ * <code>MonetaryAmountUserType#nullSafeSet()</code>. With a refresh interval of 1 ms the
+ * background refresh swaps the snapshot under the readers all the time, with 0 it never does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class ExchangeRateBenchmark {
+
+    @Param({"0", "1"})
+    public long refreshIntervalMillis;
+
+    private final Currency usd = Currency.getInstance("USD");
+
+    private final Currency eur = Currency.getInstance("EUR");
+
+    private ExchangeRateTable table;
+
+    @Setup
+    public void setUp() {
+        Map<String, BigDecimal> rates = new HashMap<>();
+        rates.put("USD/EUR", new BigDecimal("0.92"));
+        rates.put("EUR/USD", new BigDecimal("1.09"));
+        table = new ExchangeRateTable(() -> ExchangeRates.of(rates), refreshIntervalMillis);
+        table.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        table.close();
+    }
+
+    @Benchmark
+    public BigDecimal rate() {
+        return table.rate(usd, eur);
+    }
+}
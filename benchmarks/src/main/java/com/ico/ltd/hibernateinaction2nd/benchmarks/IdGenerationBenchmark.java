@@ -0,0 +1,85 @@
+package com.ico.ltd.hibernateinaction2nd.benchmarks;
+
+import com.ico.ltd.hibernateinaction2nd.domain.Address;
+import com.ico.ltd.hibernateinaction2nd.domain.City;
+import com.ico.ltd.hibernateinaction2nd.domain.GermanZipcode;
+import com.ico.ltd.hibernateinaction2nd.domain.User;
+import com.ico.ltd.hibernateinaction2nd.domain.generators.IdBlockAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Insert throughput of 16 concurrent writers, one <code>User</code> per transaction, with the
+ * identifier generation of <code>ID_GENERATOR</code> configured as:
+ * <ul>
+ * <li><code>sequence</code>: a sequence call per insert, as before blocks were allocated,</li>
+ * <li><code>pooled-lo</code>: Hibernate's optimizer, blocks of 50 handed out under a lock,</li>
+ * <li><code>block</code>: the lock-free {@link IdBlockAllocator}, blocks of 50.</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(16)
+@Fork(1)
+public class IdGenerationBenchmark {
+
+    @Param({"sequence", "pooled-lo", "block"})
+    public String generation;
+
+    private final AuctionApplication application = new AuctionApplication();
+
+    @Setup
+    public void setUp() {
+        String optimizer;
+        int incrementSize;
+        switch (generation) {
+            case "sequence":
+                optimizer = "none";
+                incrementSize = 1;
+                break;
+            case "pooled-lo":
+                optimizer = "pooled-lo";
+                incrementSize = 50;
+                break;
+            default:
+                optimizer = IdBlockAllocator.class.getName();
+                incrementSize = 50;
+        }
+        application.start(
+                "spring.jpa.properties.auction.id.User.optimizer=" + optimizer,
+                "spring.jpa.properties.auction.id.User.increment_size=" + incrementSize);
+    }
+
+    @TearDown
+    public void tearDown() {
+        application.stop();
+    }
+
+    @Benchmark
+    public Long persistUser() {
+        return application.inTransaction(em -> {
+            User user = new User();
+            user.setHomeAddress(new Address("Unter den Linden 1",
+                    new City("Berlin", "Germany", new GermanZipcode("10117"))));
+            user.setBillingAddress(user.getHomeAddress());
+            em.persist(user);
+            return user.getId();
+        });
+    }
+}
@@ -0,0 +1,95 @@
+package com.ico.ltd.hibernateinaction2nd.benchmarks;
+
+import com.ico.ltd.hibernateinaction2nd.config.VirtualThreads;
+import com.ico.ltd.hibernateinaction2nd.domain.Item;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test of <code>GET /items</code>: 256 concurrent clients against Tomcat with 64 platform
+ * threads, or with a virtual thread per request and the connection semaphore. Throughput is
+ * requests per second, the sample mode reports tail latencies. The virtual thread variant
+ * fails on a JDK without virtual threads rather than measure platform threads again under
+ * its name.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(256)
+@Fork(1)
+public class ItemListingLoadBenchmark {
+
+    private static final int ITEMS = 10_000;
+
+    @Param({"false", "true"})
+    public boolean virtualThreads;
+
+    private final AuctionApplication application = new AuctionApplication();
+
+    private HttpClient client;
+
+    private String baseUri;
+
+    @Setup
+    public void setUp() {
+        if (virtualThreads) {
+            ExecutorService executor = VirtualThreads.newVirtualThreadPerTaskExecutor();
+            if (executor == null) {
+                throw new IllegalStateException("This JDK has no virtual threads");
+            }
+            executor.shutdown();
+        }
+        application.start(WebApplicationType.SERVLET,
+                "server.port=0",
+                "server.tomcat.max-threads=64",
+                "auction.virtual-threads.enabled=" + virtualThreads);
+        application.inTransaction(em -> {
+            for (int i = 0; i < ITEMS; i++) {
+                em.persist(new Item("Listed item " + i, "An item of the listing load test"));
+            }
+            return null;
+        });
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        baseUri = "http://localhost:" + application.getLocalPort() + "/items?max=20&first=";
+    }
+
+    @TearDown
+    public void tearDown() {
+        application.stop();
+    }
+
+    @Benchmark
+    public String listItems() throws IOException, InterruptedException {
+        int first = ThreadLocalRandom.current().nextInt(ITEMS / 20) * 20;
+        HttpResponse<String> response = client.send(
+                HttpRequest.newBuilder(URI.create(baseUri + first)).GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("GET /items returned " + response.statusCode());
+        }
+        return response.body();
+    }
+}
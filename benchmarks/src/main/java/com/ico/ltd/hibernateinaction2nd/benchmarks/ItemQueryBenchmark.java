@@ -0,0 +1,124 @@
+package com.ico.ltd.hibernateinaction2nd.benchmarks;
+
+import com.ico.ltd.hibernateinaction2nd.domain.Item;
+import com.ico.ltd.hibernateinaction2nd.service.BidIngestionService;
+import com.ico.ltd.hibernateinaction2nd.service.IncomingBid;
+import com.ico.ltd.hibernateinaction2nd.service.ItemListingService;
+import com.ico.ltd.hibernateinaction2nd.service.ItemListingView;
+import org.hibernate.jpa.QueryHints;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+/**
+ * Loading a page of up to all 10 000 items with their bid information:
+ * <ul>
+ * <li><code>entities</code> and <code>projection</code> compare the listing page as managed
+ * <code>Item</code> instances and as <code>ItemListingView</code> DTOs,</li>
+ * <li><code>averageFromStatistics</code> reads the average bid from the <code>BidStatistics</code>
+ * columns of the items, <code>averageFromSubquery</code> computes it with the correlated
+ * subquery the former <code>averageBidAmount</code> formula added to every item load.</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ItemQueryBenchmark {
+
+    private static final int ITEMS = 10_000;
+
+    private static final int BIDS_PER_ITEM = 20;
+
+    @Param({"100", "1000", "10000"})
+    public int pageSize;
+
+    private ItemListingService listingService;
+
+    private Long firstItemId;
+
+    @Setup
+    public void setUp(AuctionApplication application) {
+        List<Long> itemIds = application.inTransaction(em -> {
+            List<Long> ids = new ArrayList<>(ITEMS);
+            for (int i = 0; i < ITEMS; i++) {
+                Item item = new Item("Listed item " + i, "An item of the query benchmark");
+                em.persist(item);
+                ids.add(item.getId());
+            }
+            return ids;
+        });
+        firstItemId = itemIds.get(0);
+        application.getBean(BidIngestionService.class).ingest(
+                LongStream.range(0, (long) ITEMS * BIDS_PER_ITEM).mapToObj(i -> new IncomingBid(
+                        itemIds.get((int) (i % ITEMS)), BigDecimal.valueOf(10 + i % 500))));
+        listingService = application.getBean(ItemListingService.class);
+    }
+
+    @Benchmark
+    public List<Item> entities() {
+        return listingService.findListingItems(0, pageSize);
+    }
+
+    @Benchmark
+    public List<ItemListingView> projection() {
+        return listingService.findListing(0, pageSize);
+    }
+
+    @Benchmark
+    public BigDecimal averageFromStatistics(AuctionApplication application) {
+        return application.inTransaction(em -> {
+            List<Item> items = em.createQuery(
+                    "select i from Item i where i.id >= :firstId order by i.id", Item.class)
+                    .setParameter("firstId", firstItemId)
+                    .setHint(QueryHints.HINT_READONLY, true)
+                    .setMaxResults(pageSize)
+                    .getResultList();
+            BigDecimal total = BigDecimal.ZERO;
+            for (Item item : items) {
+                BigDecimal average = item.getAverageBidAmount();
+                if (average != null) {
+                    total = total.add(average);
+                }
+            }
+            return total;
+        });
+    }
+
+    @Benchmark
+    public BigDecimal averageFromSubquery(AuctionApplication application) {
+        return application.inTransaction(em -> {
+            @SuppressWarnings("unchecked")
+            List<Object[]> rows = em.createNativeQuery(
+                    "select i.*, (select avg(b.AMOUNT) from BID b where b.ITEM_ID = i.ID) as AVERAGE_BID_AMOUNT " +
+                            "from ITEM i where i.ID >= :firstId order by i.ID")
+                    .setParameter("firstId", firstItemId)
+                    .setMaxResults(pageSize)
+                    .getResultList();
+            BigDecimal total = BigDecimal.ZERO;
+            for (Object[] row : rows) {
+                Object average = row[row.length - 1];
+                if (average != null) {
+                    total = total.add((BigDecimal) average);
+                }
+            }
+            return total;
+        });
+    }
+}
@@ -0,0 +1,113 @@
+package com.ico.ltd.hibernateinaction2nd.benchmarks;
+
+import com.ico.ltd.hibernateinaction2nd.service.ItemSearchIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The 20 best matching items of a search over item names and descriptions: <code>keyword</code>
+ * and <code>prefix</code> query the {@link ItemSearchIndex}, <code>like</code> is the
+ * <code>LIKE</code> predicate on NAME and DESCRIPTION it replaces, unranked. Names have one of
+ * 50 000 words, so a word matches about 20 items per million. The index is rebuilt on setup;
+ * <code>reindex</code> times further parallel rebuilds, one per iteration. Every call searches
+ * for another word, H2 would answer a repeated query from its result cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class ItemSearchBenchmark {
+
+    // far above the identifiers of the sequences, which start at 1000
+    private static final long FIRST_ITEM_ID = 10_000_000;
+
+    private static final int WORDS = 50_000;
+
+    private static final int MAX_RESULTS = 20;
+
+    @Param({"1000000"})
+    public int items;
+
+    private final AuctionApplication application = new AuctionApplication();
+
+    private ItemSearchIndex index;
+
+    private int word;
+
+    @Setup
+    public void setUp() {
+        File indexDir = new File(System.getProperty("java.io.tmpdir"), "item-search-benchmark");
+        application.start(
+                "auction.search.enabled=true",
+                "auction.search.index-dir=" + indexDir.getAbsolutePath());
+        application.inTransaction(em -> em.createNativeQuery(
+                "insert into ITEM (ID, VERSION, NAME, DESCRIPTION, AUCTION_END, " +
+                        "WEIGHT_GRAMS, BID_COUNT, BID_SUM, CLOSED) " +
+                        "select X, 0, 'AUCTION Lot w' || mod(X * 7919, :words) || ' of c' || mod(X, 500), " +
+                        "'An item of the search benchmark, f' || mod(X * 104729, 20000) || ' in category c' || mod(X, 500), " +
+                        "dateadd('DAY', 1, current_timestamp), 1000, 0, 0, false " +
+                        "from system_range(:first, :last)")
+                .setParameter("words", WORDS)
+                .setParameter("first", FIRST_ITEM_ID)
+                .setParameter("last", FIRST_ITEM_ID + items - 1)
+                .executeUpdate());
+        index = application.getBean(ItemSearchIndex.class);
+        index.reindex();
+    }
+
+    @TearDown
+    public void tearDown() {
+        application.stop();
+    }
+
+    @Benchmark
+    public List<Long> keyword() {
+        return index.search("lot w" + nextWord(), MAX_RESULTS);
+    }
+
+    @Benchmark
+    public List<Long> prefix() {
+        // w1234 matches w1234, w12340 to w12349
+        return index.searchPrefix("lot w" + nextWord() / 10, MAX_RESULTS);
+    }
+
+    @Benchmark
+    public List<?> like() {
+        String pattern = "% w" + nextWord() + " %";
+        return application.inTransaction(em -> em.createNativeQuery(
+                "select ID from ITEM where NAME like :pattern or DESCRIPTION like :pattern")
+                .setParameter("pattern", pattern)
+                .setMaxResults(MAX_RESULTS)
+                .getResultList());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public long reindex() {
+        return index.reindex();
+    }
+
+    private int nextWord() {
+        word = (word + 7) % WORDS;
+        return word;
+    }
+}
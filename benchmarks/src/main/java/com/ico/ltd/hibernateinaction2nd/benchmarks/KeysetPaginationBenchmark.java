@@ -0,0 +1,142 @@
+package com.ico.ltd.hibernateinaction2nd.benchmarks;
+
+import com.ico.ltd.hibernateinaction2nd.domain.Bid;
+import com.ico.ltd.hibernateinaction2nd.service.ItemListingService;
+import com.ico.ltd.hibernateinaction2nd.service.ItemListingView;
+import com.ico.ltd.hibernateinaction2nd.service.KeysetPage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A page of 20 rows at page <code>page</code> of the items ending first and of the bids of an
+ * item with as many bids: <code>keyset*</code> continue with a token of the previous page
+ * through {@link ItemListingService}, <code>offset*</code> skip the rows before with
+ * <code>setFirstResult</code>, the pagination the listings used so far. The tokens are collected
+ * by browsing the listings once on setup. Every call takes one of the following 100 pages,
+ * H2 would answer a repeated query from its result cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class KeysetPaginationBenchmark {
+
+    // far above the identifiers of the sequences, which start at 1000
+    private static final long FIRST_ID = 10_000_000;
+
+    private static final int PAGE_SIZE = 20;
+
+    private static final int PAGES = 100;
+
+    @Param({"1", "10000"})
+    public int page;
+
+    private final AuctionApplication application = new AuctionApplication();
+
+    private ItemListingService listingService;
+
+    private final String[] itemTokens = new String[PAGES];
+
+    private final String[] bidTokens = new String[PAGES];
+
+    private int next;
+
+    @Setup
+    public void setUp() {
+        application.start();
+        int rows = (page + PAGES) * PAGE_SIZE;
+        // auctions ending every minute, in steps of 10 items with the same end
+        application.inTransaction(em -> em.createNativeQuery(
+                "insert into ITEM (ID, VERSION, NAME, DESCRIPTION, AUCTION_END, " +
+                        "WEIGHT_GRAMS, BID_COUNT, BID_SUM, CLOSED) " +
+                        "select X, 0, 'Listed item ' || X, 'An item of the pagination benchmark', " +
+                        "dateadd('MINUTE', mod(X * 7919, :rows) / 10, timestamp '2100-01-01 00:00:00'), " +
+                        "1000, 0, 0, false " +
+                        "from system_range(:first, :last)")
+                .setParameter("rows", rows)
+                .setParameter("first", FIRST_ID)
+                .setParameter("last", FIRST_ID + rows - 1)
+                .executeUpdate());
+        application.inTransaction(em -> em.createNativeQuery(
+                "insert into BID (ID, ITEM_ID, AMOUNT) " +
+                        "select X, :item, mod(X * 7919, 100000) / 100.0 " +
+                        "from system_range(:first, :last)")
+                .setParameter("item", FIRST_ID)
+                .setParameter("first", FIRST_ID)
+                .setParameter("last", FIRST_ID + rows - 1)
+                .executeUpdate());
+        listingService = application.getBean(ItemListingService.class);
+
+        // the token of page n continues with page n + 1
+        String itemToken = null;
+        String bidToken = null;
+        for (int i = 1; i < page + PAGES; i++) {
+            itemToken = listingService.findListingByAuctionEnd(itemToken, PAGE_SIZE).getNextPageToken();
+            bidToken = listingService.findBids(FIRST_ID, bidToken, PAGE_SIZE).getNextPageToken();
+            if (i >= page - 1 && i - page + 1 < PAGES) {
+                itemTokens[i - page + 1] = itemToken;
+                bidTokens[i - page + 1] = bidToken;
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        application.stop();
+    }
+
+    @Benchmark
+    public KeysetPage<ItemListingView> keysetItems() {
+        // no token for the first page
+        int index = nextIndex();
+        return listingService.findListingByAuctionEnd(page == 1 && index == 0 ? null : itemTokens[index], PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<?> offsetItems() {
+        int index = nextIndex();
+        return application.inTransaction(em -> em.createQuery(
+                "select i.id, i.name, i.auctionEnd from Item i where i.auctionEnd is not null " +
+                        "order by i.auctionEnd, i.id")
+                .setFirstResult((page - 1 + index) * PAGE_SIZE)
+                .setMaxResults(PAGE_SIZE)
+                .getResultList());
+    }
+
+    @Benchmark
+    public KeysetPage<Bid> keysetBids() {
+        int index = nextIndex();
+        return listingService.findBids(FIRST_ID, page == 1 && index == 0 ? null : bidTokens[index], PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<?> offsetBids() {
+        int index = nextIndex();
+        return application.inTransaction(em -> em.createQuery(
+                "select b from Bid b where b.item.id = :itemId order by b.item.id, b.amount, b.id")
+                .setParameter("itemId", FIRST_ID)
+                .setFirstResult((page - 1 + index) * PAGE_SIZE)
+                .setMaxResults(PAGE_SIZE)
+                .getResultList());
+    }
+
+    private int nextIndex() {
+        next = (next + 1) % PAGES;
+        return next;
+    }
+}
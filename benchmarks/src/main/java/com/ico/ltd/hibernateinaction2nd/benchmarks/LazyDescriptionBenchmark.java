@@ -0,0 +1,73 @@
+package com.ico.ltd.hibernateinaction2nd.benchmarks;
+
+import com.ico.ltd.hibernateinaction2nd.domain.Item;
+import com.ico.ltd.hibernateinaction2nd.service.ItemListingService;
+import org.hibernate.jpa.QueryHints;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Listing pages of items with 10KB descriptions as entities: <code>lazyDescription</code>
+ * loads them like the listing service, without the description in the lazy group,
+ * <code>withDescription</code> selects all columns with <code>fetch all properties</code>,
+ * like an eagerly mapped description. Compare the time and <code>gc.alloc.rate.norm</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LazyDescriptionBenchmark {
+
+    private static final int ITEMS = 1000;
+
+    private static final int DESCRIPTION_LENGTH = 10 * 1024;
+
+    @Param({"100"})
+    public int pageSize;
+
+    private ItemListingService listingService;
+
+    @Setup
+    public void setUp(AuctionApplication application) {
+        StringBuilder description = new StringBuilder(DESCRIPTION_LENGTH);
+        while (description.length() < DESCRIPTION_LENGTH) {
+            description.append("A long description of the item. ");
+        }
+        description.setLength(DESCRIPTION_LENGTH);
+        application.inTransaction(em -> {
+            for (int i = 0; i < ITEMS; i++) {
+                em.persist(new Item("Described item " + i, description.toString()));
+            }
+            return null;
+        });
+        listingService = application.getBean(ItemListingService.class);
+    }
+
+    @Benchmark
+    public List<Item> lazyDescription() {
+        return listingService.findListingItems(0, pageSize);
+    }
+
+    @Benchmark
+    public List<Item> withDescription(AuctionApplication application) {
+        return application.inTransaction(em -> em
+                .createQuery("select i from Item i fetch all properties order by i.id", Item.class)
+                .setHint(QueryHints.HINT_READONLY, true)
+                .setMaxResults(pageSize)
+                .getResultList());
+    }
+}
@@ -0,0 +1,196 @@
+package com.ico.ltd.hibernateinaction2nd.benchmarks;
+
+import com.ico.ltd.hibernateinaction2nd.domain.MonetaryAmount;
+import com.ico.ltd.hibernateinaction2nd.domain.converters.ExchangeRateTable;
+import com.ico.ltd.hibernateinaction2nd.domain.converters.ExchangeRates;
+import com.ico.ltd.hibernateinaction2nd.domain.converters.MonetaryAmountUserType;
+import org.h2.tools.SimpleResultSet;
+import org.hibernate.usertype.DynamicParameterizedType;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.annotation.Annotation;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The calls Hibernate makes on {@link MonetaryAmountUserType} for every loaded, stored and
+ * cached amount, without the rest of Hibernate around it. Reads come from an H2
+ * {@link SimpleResultSet}, writes go to a real H2 {@link PreparedStatement} that is never executed.
+ * <code>disassemble</code> reports the serialized size of the second-level cache entry and of
+ * the String form of the amount as secondary results.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MonetaryAmountUserTypeBenchmark {
+
+    private static final String[] COLUMNS = {"BUYNOWPRICE_AMOUNT", "BUYNOWPRICE_CURRENCY"};
+
+    private MonetaryAmountUserType userType;
+
+    private SimpleResultSet resultSet;
+
+    private Connection connection;
+
+    private PreparedStatement statement;
+
+    private MonetaryAmount amount;
+
+    private MonetaryAmount foreignAmount;
+
+    private Serializable cached;
+
+    @Setup
+    public void setUp() throws SQLException, IOException {
+        userType = new MonetaryAmountUserType();
+        Properties parameters = new Properties();
+        parameters.put(DynamicParameterizedType.PARAMETER_TYPE, new MappedColumns());
+        parameters.setProperty("convertTo", "EUR");
+        userType.setParameterValues(parameters);
+        userType.setExchangeRateTable(ExchangeRateTable.of(
+                ExchangeRates.of(Collections.singletonMap("USD/EUR", new BigDecimal("0.92")))));
+
+        resultSet = new SimpleResultSet();
+        resultSet.setAutoClose(false);
+        resultSet.addColumn(COLUMNS[0], Types.DECIMAL, 19, 2);
+        resultSet.addColumn(COLUMNS[1], Types.VARCHAR, 3, 0);
+        resultSet.addRow(new BigDecimal("123.45"), "EUR");
+
+        connection = DriverManager.getConnection("jdbc:h2:mem:usertype");
+        statement = connection.prepareStatement("select cast(? as decimal(19, 2)), cast(? as varchar(3))");
+
+        amount = new MonetaryAmount(new BigDecimal("123.45"), Currency.getInstance("EUR"));
+        foreignAmount = new MonetaryAmount(new BigDecimal("123.45"), Currency.getInstance("USD"));
+        cached = userType.disassemble(amount, null);
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        statement.close();
+        connection.close();
+    }
+
+    @Benchmark
+    public Object nullSafeGet() throws SQLException {
+        resultSet.beforeFirst();
+        resultSet.next();
+        return userType.nullSafeGet(resultSet, COLUMNS, null, null);
+    }
+
+    @Benchmark
+    public PreparedStatement nullSafeSet() throws SQLException {
+        userType.nullSafeSet(statement, amount, 1, null);
+        return statement;
+    }
+
+    @Benchmark
+    public PreparedStatement nullSafeSetConverted() throws SQLException {
+        userType.nullSafeSet(statement, foreignAmount, 1, null);
+        return statement;
+    }
+
+    @Benchmark
+    public Serializable disassemble(CacheEntrySize size) {
+        return userType.disassemble(amount, null);
+    }
+
+    @Benchmark
+    public Object assemble() {
+        return userType.assemble(cached, null, null);
+    }
+
+    private static int serializedSize(Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        }
+        return bytes.size();
+    }
+
+    /**
+     * The sizes in bytes, the same in every iteration. JMH zeroes the counters after the setup of
+     * an iteration, so they are filled in when it ends.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class CacheEntrySize {
+
+        public long serializedBytes;
+
+        public long stringFormBytes;
+
+        @TearDown(Level.Iteration)
+        public void measure(MonetaryAmountUserTypeBenchmark benchmark) throws IOException {
+            serializedBytes = serializedSize(benchmark.cached);
+            stringFormBytes = serializedSize(benchmark.amount.toString());
+        }
+    }
+
+    /*
+        What Hibernate passes as PARAMETER_TYPE for the BUYNOWPRICE mapping of Item.
+     */
+    private static class MappedColumns implements DynamicParameterizedType.ParameterType {
+
+        @Override
+        public Class getReturnedClass() {
+            return MonetaryAmount.class;
+        }
+
+        @Override
+        public Annotation[] getAnnotationsMethod() {
+            return new Annotation[0];
+        }
+
+        @Override
+        public String getCatalog() {
+            return null;
+        }
+
+        @Override
+        public String getSchema() {
+            return null;
+        }
+
+        @Override
+        public String getTable() {
+            return "ITEM";
+        }
+
+        @Override
+        public boolean isPrimaryKey() {
+            return false;
+        }
+
+        @Override
+        public String[] getColumns() {
+            return COLUMNS;
+        }
+    }
+}
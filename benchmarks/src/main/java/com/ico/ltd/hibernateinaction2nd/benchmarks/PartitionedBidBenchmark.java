@@ -0,0 +1,125 @@
+package com.ico.ltd.hibernateinaction2nd.benchmarks;
+
+import com.ico.ltd.hibernateinaction2nd.domain.BidStatistics;
+import com.ico.ltd.hibernateinaction2nd.service.PartitionedBidStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads of the {@link PartitionedBidStore} as the bids grow, 20 bids per item, loaded into the
+ * partitions with SQL. The partitions are H2 databases in files of the temporary directory,
+ * 10M bids don't fit into the heap of an in-memory database. <code>itemStatistics</code> aggregates the bids of one item in its
+ * partition, <code>statisticsOfItems</code> those of 100 items spread over all partitions,
+ * <code>totalStatistics</code> all bids, every partition in parallel. Per-item reads should
+ * stay flat as the bids grow, the aggregate over all bids grows with the largest partition.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class PartitionedBidBenchmark {
+
+    private static final long FIRST_ITEM_ID = 10_000_000;
+
+    private static final long FIRST_BID_ID = 100_000_000;
+
+    private static final int BIDS_PER_ITEM = 20;
+
+    private static final int LOAD_CHUNK = 1_000_000;
+
+    @Param({"1000000", "10000000"})
+    public long bids;
+
+    @Param({"1", "4"})
+    public int partitions;
+
+    private final AuctionApplication application = new AuctionApplication();
+
+    private PartitionedBidStore store;
+
+    private long items;
+
+    private long next;
+
+    @Setup
+    public void setUp() {
+        application.start(
+                "auction.bid-partitions.enabled=true",
+                "auction.bid-partitions.count=" + partitions,
+                "auction.bid-partitions.url=jdbc:h2:file:" +
+                        new File(System.getProperty("java.io.tmpdir"), "benchmark-bids-%d").getAbsolutePath() +
+                        // the aggregates over all bids would come from the query cache
+                        ";QUERY_CACHE_SIZE=0");
+        store = application.getBean(PartitionedBidStore.class);
+        for (int partition = 0; partition < partitions; partition++) {
+            store.getJdbcOperations(partition).update("truncate table BID");
+        }
+        items = bids / BIDS_PER_ITEM;
+
+        // partition p holds the items FIRST_ITEM_ID + p + partitions * j
+        long itemsPerPartition = items / partitions;
+        long bidsPerPartition = bids / partitions;
+        for (int partition = 0; partition < partitions; partition++) {
+            for (long first = 0; first < bidsPerPartition; first += LOAD_CHUNK) {
+                store.getJdbcOperations(partition).update(
+                        "insert into BID (ID, ITEM_ID, AMOUNT) " +
+                                "select ? + ? * X, ? + ? * mod(X, ?), 1 + mod(X * 7919, 1000) " +
+                                "from system_range(?, ?)",
+                        FIRST_BID_ID + partition, partitions,
+                        FIRST_ITEM_ID + partition, partitions, itemsPerPartition,
+                        first, Math.min(first + LOAD_CHUNK, bidsPerPartition) - 1);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (int partition = 0; partition < partitions; partition++) {
+            store.getJdbcOperations(partition).update("drop table BID");
+        }
+        application.stop();
+    }
+
+    @Benchmark
+    public BidStatistics itemStatistics() {
+        return store.getStatistics(nextItemId());
+    }
+
+    @Benchmark
+    public Map<Long, BidStatistics> statisticsOfItems() {
+        List<Long> itemIds = new ArrayList<>(100);
+        for (int i = 0; i < 100; i++) {
+            itemIds.add(nextItemId());
+        }
+        return store.getStatistics(itemIds);
+    }
+
+    @Benchmark
+    public BidStatistics totalStatistics() {
+        return store.getTotalStatistics();
+    }
+
+    // items in a scattered order, not the neighbours of the last one
+    private long nextItemId() {
+        next = (next + 7919) % items;
+        return FIRST_ITEM_ID + next;
+    }
+}
@@ -0,0 +1,113 @@
+package com.ico.ltd.hibernateinaction2nd.benchmarks;
+
+import com.ico.ltd.hibernateinaction2nd.domain.Address;
+import com.ico.ltd.hibernateinaction2nd.domain.City;
+import com.ico.ltd.hibernateinaction2nd.domain.GermanZipcode;
+import com.ico.ltd.hibernateinaction2nd.domain.Item;
+import com.ico.ltd.hibernateinaction2nd.domain.MonetaryAmount;
+import com.ico.ltd.hibernateinaction2nd.domain.SwissZipcode;
+import com.ico.ltd.hibernateinaction2nd.domain.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.Currency;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end persist and load of <code>Item</code> and <code>User</code>, each in its own
+ * transaction, against the in-memory H2 database of the application. The <code>load</code>
+ * benchmarks evict the second-level cache first and read from the database, the
+ * <code>cached</code> ones hit the second-level cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersistenceBenchmark {
+
+    private Long itemId;
+
+    private Long userId;
+
+    @Setup
+    public void setUp(AuctionApplication application) {
+        itemId = application.inTransaction(em -> {
+            Item item = newItem();
+            em.persist(item);
+            return item.getId();
+        });
+        userId = application.inTransaction(em -> {
+            User user = newUser();
+            em.persist(user);
+            return user.getId();
+        });
+    }
+
+    @Benchmark
+    public Long persistItem(AuctionApplication application) {
+        return application.inTransaction(em -> {
+            Item item = newItem();
+            em.persist(item);
+            return item.getId();
+        });
+    }
+
+    @Benchmark
+    public Long persistUser(AuctionApplication application) {
+        return application.inTransaction(em -> {
+            User user = newUser();
+            em.persist(user);
+            return user.getId();
+        });
+    }
+
+    @Benchmark
+    public Item loadItem(AuctionApplication application) {
+        application.getSessionFactory().getCache().evictEntityData(Item.class, itemId);
+        return application.inTransaction(em -> em.find(Item.class, itemId));
+    }
+
+    @Benchmark
+    public Item loadCachedItem(AuctionApplication application) {
+        return application.inTransaction(em -> em.find(Item.class, itemId));
+    }
+
+    @Benchmark
+    public User loadUser(AuctionApplication application) {
+        application.getSessionFactory().getCache().evictEntityData(User.class, userId);
+        return application.inTransaction(em -> em.find(User.class, userId));
+    }
+
+    @Benchmark
+    public User loadCachedUser(AuctionApplication application) {
+        return application.inTransaction(em -> em.find(User.class, userId));
+    }
+
+    private static Item newItem() {
+        Item item = new Item("Benchmark item", "An item stored by the persistence benchmark");
+        item.setInitialPrice(new MonetaryAmount(new BigDecimal("10.00"), Currency.getInstance("USD")));
+        item.setBuyNowPrice(new MonetaryAmount(new BigDecimal("99.00"), Currency.getInstance("USD")));
+        item.setMetricWeight(1.5);
+        return item;
+    }
+
+    private static User newUser() {
+        User user = new User();
+        user.setHomeAddress(new Address("Unter den Linden 1",
+                new City("Berlin", "Germany", new GermanZipcode("10117"))));
+        user.setBillingAddress(new Address("Bahnhofstrasse 1",
+                new City("Zurich", "Switzerland", new SwissZipcode("8001"))));
+        return user;
+    }
+}
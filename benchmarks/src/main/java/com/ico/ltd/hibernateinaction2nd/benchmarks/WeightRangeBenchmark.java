@@ -0,0 +1,98 @@
+package com.ico.ltd.hibernateinaction2nd.benchmarks;
+
+import com.ico.ltd.hibernateinaction2nd.service.ItemListingService;
+import com.ico.ltd.hibernateinaction2nd.service.ItemListingView;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The first page of items in a weight range of 100 grams: <code>indexedRange</code> queries
+ * through {@link ItemListingService}, the predicate compares the plain column,
+ * <code>computedRange</code> compares an expression of the column, like the SQL the former
+ * <code>@ColumnTransformer</code> generated, which the database can only evaluate row by row.
+ * Every call moves the range, H2 would answer a repeated query from its result cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class WeightRangeBenchmark {
+
+    // far above the identifiers of the sequences, which start at 1000
+    private static final long FIRST_ITEM_ID = 10_000_000;
+
+    private static final int RANGES = 1000;
+
+    private static final double RANGE_KILOGRAMS = 0.1;
+
+    private static final int PAGE_SIZE = 20;
+
+    @Param({"1000000"})
+    public int items;
+
+    private final AuctionApplication application = new AuctionApplication();
+
+    private ItemListingService listingService;
+
+    private int range;
+
+    @Setup
+    public void setUp() {
+        application.start();
+        // weights spread evenly up to 100 kg
+        application.inTransaction(em -> em.createNativeQuery(
+                "insert into ITEM (ID, VERSION, NAME, DESCRIPTION, AUCTION_END, " +
+                        "WEIGHT_GRAMS, BID_COUNT, BID_SUM, CLOSED) " +
+                        "select X, 0, 'Weighed item ' || X, 'An item of the weight range benchmark', " +
+                        "dateadd('DAY', 1, current_timestamp), mod(X * 7919, 100000), 0, 0, false " +
+                        "from system_range(:first, :last)")
+                .setParameter("first", FIRST_ITEM_ID)
+                .setParameter("last", FIRST_ITEM_ID + items - 1)
+                .executeUpdate());
+        listingService = application.getBean(ItemListingService.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        application.stop();
+    }
+
+    @Benchmark
+    public List<ItemListingView> indexedRange() {
+        double minKilograms = nextMinKilograms();
+        return listingService.findListingByWeight(minKilograms, minKilograms + RANGE_KILOGRAMS, 0, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<?> computedRange() {
+        double minKilograms = nextMinKilograms();
+        return application.inTransaction(em -> em.createNativeQuery(
+                "select ID, NAME, WEIGHT_GRAMS / 1000.0 from ITEM " +
+                        "where WEIGHT_GRAMS / 1000.0 between :min and :max " +
+                        "order by WEIGHT_GRAMS / 1000.0, ID")
+                .setParameter("min", minKilograms)
+                .setParameter("max", minKilograms + RANGE_KILOGRAMS)
+                .setMaxResults(PAGE_SIZE)
+                .getResultList());
+    }
+
+    private double nextMinKilograms() {
+        range = (range + 1) % RANGES;
+        return range * RANGE_KILOGRAMS;
+    }
+}
@@ -0,0 +1,156 @@
+package com.ico.ltd.hibernateinaction2nd.benchmarks;
+
+import com.ico.ltd.hibernateinaction2nd.domain.Item;
+import com.ico.ltd.hibernateinaction2nd.service.BidService;
+import com.ico.ltd.hibernateinaction2nd.service.InvalidBidException;
+import com.ico.ltd.hibernateinaction2nd.service.WriteBehindBidQueue;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.dao.ConcurrencyFailureException;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 16 bidders on 1000 items, placing bids in a transaction each through the {@link BidService}
+ * or handing them to the {@link WriteBehindBidQueue}, with and without syncing its journal.
+ * The sample mode reports the latency until a bid is acknowledged; throughput counts
+ * acknowledged bids, which a full queue holds back to the pace of the writer. After every
+ * iteration the queue is drained, the sustained rate, stored bids per second including the
+ * drain, and the bids queued at the end are reported as secondary results.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(16)
+@Fork(1)
+public class WriteBehindBenchmark {
+
+    public enum Placement {
+        SYNCHRONOUS,
+        WRITE_BEHIND,
+        WRITE_BEHIND_NO_SYNC
+    }
+
+    private static final int ITEMS = 1000;
+
+    @Param({"SYNCHRONOUS", "WRITE_BEHIND", "WRITE_BEHIND_NO_SYNC"})
+    public Placement placement;
+
+    private final AuctionApplication application = new AuctionApplication();
+
+    private final AtomicLong amounts = new AtomicLong(1);
+
+    private final AtomicBoolean reported = new AtomicBoolean();
+
+    private BidService bidService;
+
+    private WriteBehindBidQueue queue;
+
+    private Long[] itemIds;
+
+    private long iterationStart;
+
+    private long storedAtStart;
+
+    @Setup
+    public void setUp() {
+        File journal = new File(System.getProperty("java.io.tmpdir"), "write-behind-benchmark.journal");
+        if (placement == Placement.SYNCHRONOUS) {
+            application.start();
+        } else {
+            application.start(
+                    "auction.write-behind.enabled=true",
+                    "auction.write-behind.journal=" + journal.getAbsolutePath(),
+                    "auction.write-behind.journal-sync=" + (placement == Placement.WRITE_BEHIND));
+            queue = application.getBean(WriteBehindBidQueue.class);
+        }
+        itemIds = application.inTransaction(em -> {
+            Long[] ids = new Long[ITEMS];
+            for (int i = 0; i < ITEMS; i++) {
+                Item item = new Item("Bidding item " + i, "An item of the write-behind benchmark");
+                em.persist(item);
+                ids[i] = item.getId();
+            }
+            return ids;
+        });
+        bidService = application.getBean(BidService.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        application.stop();
+    }
+
+    @Setup(Level.Iteration)
+    public void startIteration() {
+        iterationStart = System.nanoTime();
+        storedAtStart = queue == null ? 0 : queue.getStoredCount();
+        reported.set(false);
+    }
+
+    @Benchmark
+    public Object placeBid(Drain drain) {
+        Long itemId = itemIds[ThreadLocalRandom.current().nextInt(itemIds.length)];
+        BigDecimal amount = BigDecimal.valueOf(amounts.incrementAndGet());
+        if (queue != null) {
+            return queue.placeBid(itemId, amount);
+        }
+        try {
+            return bidService.placeBid(itemId, amount);
+        } catch (InvalidBidException | ConcurrencyFailureException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Every bidder waits for the queue to drain at the end of an iteration, the first one fills
+     * in the counters. JMH sums them over the threads, and zeroes them after the setup of an
+     * iteration.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Drain {
+
+        public double storedPerSecond;
+
+        public long queuedAtEnd;
+
+        @TearDown(Level.Iteration)
+        public void drain(WriteBehindBenchmark benchmark) throws InterruptedException {
+            WriteBehindBidQueue queue = benchmark.queue;
+            if (queue == null) {
+                return;
+            }
+            boolean first = benchmark.reported.compareAndSet(false, true);
+            int pending = queue.getPendingCount();
+            if (!queue.awaitStored(1, TimeUnit.MINUTES)) {
+                throw new IllegalStateException("Queue not drained: " + queue.getPendingCount());
+            }
+            if (first) {
+                double seconds = (System.nanoTime() - benchmark.iterationStart) / 1e9;
+                storedPerSecond = (queue.getStoredCount() - benchmark.storedAtStart) / seconds;
+                queuedAtEnd = pending;
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.ico.ltd.hibernateinaction2nd.benchmarks;
+
+import com.ico.ltd.hibernateinaction2nd.domain.GermanZipcode;
+import com.ico.ltd.hibernateinaction2nd.domain.SwissZipcode;
+import com.ico.ltd.hibernateinaction2nd.domain.Zipcode;
+import com.ico.ltd.hibernateinaction2nd.domain.converters.ZipcodeConverter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the two zipcodes of 1M users, as a bulk load of <code>User</code> does: interned by
+ * the {@link ZipcodeConverter}, against a new instance per address as the converter did
+ * before. With the GC profiler, <code>gc.alloc.rate.norm</code> is the memory the zipcodes of
+ * 1M users cost; interned it's only the first use of each code.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class ZipcodeBenchmark {
+
+    private static final int USERS = 1_000_000;
+
+    private final ZipcodeConverter converter = new ZipcodeConverter();
+
+    // home and billing zipcode columns of every user
+    private String[] columns;
+
+    private Zipcode[] zipcodes;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        columns = new String[USERS * 2];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = i % 2 == 0
+                    ? String.format("%05d", random.nextInt(100_000))
+                    : String.format("%04d", 1000 + random.nextInt(9000));
+        }
+        zipcodes = new Zipcode[columns.length];
+    }
+
+    @Benchmark
+    public Zipcode[] interned() {
+        for (int i = 0; i < columns.length; i++) {
+            zipcodes[i] = converter.convertToEntityAttribute(columns[i]);
+        }
+        return zipcodes;
+    }
+
+    @Benchmark
+    public Zipcode[] allocated() {
+        for (int i = 0; i < columns.length; i++) {
+            String code = columns[i];
+            zipcodes[i] = code.length() == 5 ? new GermanZipcode(code) : new SwissZipcode(code);
+        }
+        return zipcodes;
+    }
+}
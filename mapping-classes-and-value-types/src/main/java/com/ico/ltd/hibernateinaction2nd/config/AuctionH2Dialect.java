@@ -0,0 +1,26 @@
+package com.ico.ltd.hibernateinaction2nd.config;
+
+import org.hibernate.dialect.H2Dialect;
+import org.hibernate.tool.schema.extract.internal.SequenceInformationExtractorLegacyImpl;
+import org.hibernate.tool.schema.extract.spi.SequenceInformationExtractor;
+
+/**
+ * The Hibernate 5.4 dialect for H2 2.x. H2 1.4 loses committed updates when a concurrent
+ * transaction whose version-checked update matched no row rolls back, so bids placed
+ * optimistically could go missing from the statistics of their item; 2.x doesn't, but it no
+ * longer compares a <code>BOOLEAN</code> column with the <code>0</code> and <code>1</code>
+ * Hibernate renders for boolean literals in JPQL, and names the columns of
+ * <code>INFORMATION_SCHEMA.SEQUENCES</code> like the SQL standard.
+ */
+public class AuctionH2Dialect extends H2Dialect {
+
+    @Override
+    public String toBooleanValueString(boolean bool) {
+        return String.valueOf(bool);
+    }
+
+    @Override
+    public SequenceInformationExtractor getSequenceInformationExtractor() {
+        return SequenceInformationExtractorLegacyImpl.INSTANCE;
+    }
+}
@@ -0,0 +1,104 @@
+package com.ico.ltd.hibernateinaction2nd.config;
+
+import com.ico.ltd.hibernateinaction2nd.domain.Bid;
+import com.ico.ltd.hibernateinaction2nd.domain.Item;
+import org.hibernate.SessionFactory;
+import org.hibernate.SessionFactoryObserver;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.InitializeCollectionEvent;
+import org.hibernate.event.spi.InitializeCollectionEventListener;
+import org.hibernate.event.spi.PreInsertEvent;
+import org.hibernate.event.spi.PreInsertEventListener;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.Collections;
+
+/**
+ * Makes the Hibernate paths to the bids fail when the bids are stored in the partitions of the
+ * <code>PartitionedBidStore</code>, instead of reading or writing the BID table of the main
+ * database, which only holds the winning bids:
+ * <ul>
+ * <li>inserting a <code>Bid</code> entity, for example one added with <code>Item#addBid()</code>,</li>
+ * <li>loading the <code>Item#bids</code> collection, as <code>Item#getBids()</code> and
+ * <code>Item#addBid()</code> do on a persistent item,</li>
+ * <li>running the <code>Bid.findByItem</code> query.</li>
+ * </ul>
+ * Each throws an {@link IllegalStateException}: place bids with <code>BidService</code> and read
+ * them with <code>PartitionedBidStore#findByItem</code>. Bids fetched together with their item,
+ * with the <code>Item.withBids</code> graph or a join fetch, aren't caught; there are none.
+ */
+@Configuration
+@ConditionalOnProperty(name = "auction.bid-partitions.enabled", havingValue = "true")
+public class BidPartitionConfiguration {
+
+    @Bean
+    public HibernatePropertiesCustomizer entityBidGuard() {
+        EntityBidGuard guard = new EntityBidGuard();
+        return properties -> {
+            properties.put(AvailableSettings.SESSION_FACTORY_OBSERVER, guard);
+            properties.put(AvailableSettings.STATEMENT_INSPECTOR, guard);
+        };
+    }
+
+    static class EntityBidGuard implements SessionFactoryObserver, StatementInspector,
+            PreInsertEventListener, InitializeCollectionEventListener {
+
+        private static final String BIDS_ROLE = Item.class.getName() + ".bids";
+
+        // the SQL of Bid.findByItem, known once the session factory is built
+        private volatile String[] findByItemSql = new String[0];
+
+        @Override
+        public void sessionFactoryCreated(SessionFactory factory) {
+            SessionFactoryImplementor sessionFactory = (SessionFactoryImplementor) factory;
+            String findByItem = sessionFactory.getNamedQueryRepository()
+                    .getNamedQueryDefinition("Bid.findByItem")
+                    .getQueryString();
+            findByItemSql = sessionFactory.getQueryPlanCache()
+                    .getHQLQueryPlan(findByItem, false, Collections.emptyMap())
+                    .getSqlStrings();
+
+            EventListenerRegistry listeners =
+                    sessionFactory.getServiceRegistry().getService(EventListenerRegistry.class);
+            listeners.appendListeners(EventType.PRE_INSERT, this);
+            // ahead of the listener that loads the collection
+            listeners.prependListeners(EventType.INIT_COLLECTION, this);
+        }
+
+        @Override
+        public String inspect(String sql) {
+            // a limit is appended to the statement
+            for (String rejected : findByItemSql) {
+                if (sql.startsWith(rejected)) {
+                    throw new IllegalStateException(
+                            "Bids are stored in partitions, read them with PartitionedBidStore#findByItem");
+                }
+            }
+            return sql;
+        }
+
+        @Override
+        public boolean onPreInsert(PreInsertEvent event) {
+            if (event.getEntity() instanceof Bid) {
+                throw new IllegalStateException(
+                        "Bids are stored in partitions, place bid " + event.getId() + " with BidService");
+            }
+            return false;
+        }
+
+        @Override
+        public void onInitializeCollection(InitializeCollectionEvent event) {
+            if (BIDS_ROLE.equals(event.getCollection().getRole())) {
+                throw new IllegalStateException("Bids are stored in partitions, read the bids of item " +
+                        event.getAffectedOwnerIdOrNull() + " with PartitionedBidStore#findByItem");
+            }
+        }
+    }
+}
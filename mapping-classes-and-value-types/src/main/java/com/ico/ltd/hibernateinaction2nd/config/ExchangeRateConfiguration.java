@@ -0,0 +1,51 @@
+package com.ico.ltd.hibernateinaction2nd.config;
+
+import com.ico.ltd.hibernateinaction2nd.domain.converters.ExchangeRateProvider;
+import com.ico.ltd.hibernateinaction2nd.domain.converters.ExchangeRateTable;
+import com.ico.ltd.hibernateinaction2nd.domain.converters.ExchangeRates;
+import com.ico.ltd.hibernateinaction2nd.domain.converters.MonetaryAmountUserType;
+import com.ico.ltd.hibernateinaction2nd.domain.converters.PropertiesExchangeRateProvider;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+
+/**
+ * Hands the exchange rates to <code>MonetaryAmountUserType</code> in the settings of the
+ * session factory, so every application context converts with its own {@link ExchangeRateTable}.
+ * Rates come from the {@link ExchangeRateProvider} bean; without one, the properties file at
+ * <code>auction.currency.rates-location</code> is used.
+ */
+@Configuration
+public class ExchangeRateConfiguration {
+
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty("auction.currency.rates-location")
+    public ExchangeRateProvider exchangeRateProvider(
+            @Value("${auction.currency.rates-location}") Resource location) throws IOException {
+        return new PropertiesExchangeRateProvider(location.getURL());
+    }
+
+    @Bean
+    public ExchangeRateTable exchangeRateTable(
+            ObjectProvider<ExchangeRateProvider> provider,
+            @Value("${auction.currency.rates-refresh-ms:60000}") long refreshIntervalMillis) {
+        ExchangeRateProvider rateProvider = provider.getIfAvailable();
+        if (rateProvider == null) {
+            return ExchangeRateTable.of(ExchangeRates.NONE);
+        }
+        return new ExchangeRateTable(rateProvider, refreshIntervalMillis);
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer exchangeRateTableSetting(ExchangeRateTable exchangeRateTable) {
+        return properties -> properties.put(MonetaryAmountUserType.EXCHANGE_RATE_TABLE, exchangeRateTable);
+    }
+}
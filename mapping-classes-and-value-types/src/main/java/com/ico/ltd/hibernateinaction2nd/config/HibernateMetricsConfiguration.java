@@ -0,0 +1,27 @@
+package com.ico.ltd.hibernateinaction2nd.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.hibernate.stat.internal.StatisticsInitiator;
+import org.hibernate.stat.spi.StatisticsFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Publishes what Hibernate measures through Micrometer. Spring Boot already binds the
+ * <code>Statistics</code> of the session factory (entity loads, collection fetches, flushes,
+ * second-level cache hits and misses, the maximum query time, ...) as <code>hibernate.*</code>
+ * metrics; this adds the per-query latency histograms of {@link QueryLatencyStatistics}.
+ */
+@Configuration
+public class HibernateMetricsConfiguration {
+
+    @Bean
+    public HibernatePropertiesCustomizer queryLatencyStatistics(ObjectProvider<MeterRegistry> registry) {
+        // the registry is looked up on first use, it isn't needed to build the session factory
+        StatisticsFactory statisticsFactory =
+                sessionFactory -> new QueryLatencyStatistics(sessionFactory, registry::getObject);
+        return properties -> properties.put(StatisticsInitiator.STATS_BUILDER, statisticsFactory);
+    }
+}
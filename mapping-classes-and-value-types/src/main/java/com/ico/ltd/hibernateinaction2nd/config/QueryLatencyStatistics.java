@@ -0,0 +1,102 @@
+package com.ico.ltd.hibernateinaction2nd.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.stat.internal.StatisticsImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.metamodel.EntityType;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Hibernate statistics that also record the execution time of every query in a
+ * {@link #METRIC} timer with a percentile histogram. The timer is tagged with the name of the
+ * named query, all other queries share the tag <code>query=adhoc</code>, so the number of
+ * timers stays bounded.
+ * <p>
+ * Queries slower than <code>hibernate.session.events.log.LOG_QUERIES_SLOWER_THAN_MS</code> are
+ * logged with their name. Hibernate itself logs the SQL of slow statements with the same threshold
+ * to <code>org.hibernate.SQL_SLOW</code>.
+ * <p>
+ * Hibernate only reports query executions when <code>hibernate.generate_statistics</code> is
+ * enabled; results from the query cache aren't executions.
+ */
+public class QueryLatencyStatistics extends StatisticsImpl {
+
+    public static final String METRIC = "hibernate.query.latency";
+
+    static final String ADHOC = "adhoc";
+
+    private static final Logger log = LoggerFactory.getLogger(QueryLatencyStatistics.class);
+
+    private final SessionFactoryImplementor sessionFactory;
+
+    private final Supplier<MeterRegistry> registry;
+
+    private final long slowQueryMillis;
+
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    // query string to query name, built on the first execution when the metamodel is complete
+    private volatile Map<String, String> queryNames;
+
+    public QueryLatencyStatistics(SessionFactoryImplementor sessionFactory, Supplier<MeterRegistry> registry) {
+        super(sessionFactory);
+        this.sessionFactory = sessionFactory;
+        this.registry = registry;
+        this.slowQueryMillis = ConfigurationHelper.getLong(
+                AvailableSettings.LOG_SLOW_QUERY, sessionFactory.getProperties(), 0);
+    }
+
+    @Override
+    public void queryExecuted(String hql, int rows, long time) {
+        super.queryExecuted(hql, rows, time);
+
+        String name = getQueryNames().getOrDefault(hql, ADHOC);
+        timers.computeIfAbsent(name, this::timer).record(time, TimeUnit.MILLISECONDS);
+
+        if (slowQueryMillis > 0 && time >= slowQueryMillis) {
+            log.warn("Slow query {}: {} ms, {} rows: {}", name, time, rows, hql);
+        }
+    }
+
+    private Timer timer(String queryName) {
+        return Timer.builder(METRIC)
+                .description("Execution time of queries, by named query")
+                .tag("query", queryName)
+                .publishPercentileHistogram()
+                .register(registry.get());
+    }
+
+    private Map<String, String> getQueryNames() {
+        Map<String, String> names = queryNames;
+        if (names == null) {
+            names = new HashMap<>();
+            for (EntityType<?> entity : sessionFactory.getMetamodel().getEntities()) {
+                Class<?> type = entity.getJavaType();
+                NamedQueries namedQueries = type.getAnnotation(NamedQueries.class);
+                if (namedQueries != null) {
+                    for (NamedQuery namedQuery : namedQueries.value()) {
+                        names.put(namedQuery.query(), namedQuery.name());
+                    }
+                }
+                NamedQuery namedQuery = type.getAnnotation(NamedQuery.class);
+                if (namedQuery != null) {
+                    names.put(namedQuery.query(), namedQuery.name());
+                }
+            }
+            queryNames = names;
+        }
+        return names;
+    }
+}
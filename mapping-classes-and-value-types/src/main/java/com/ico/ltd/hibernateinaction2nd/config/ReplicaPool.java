@@ -0,0 +1,271 @@
+package com.ico.ltd.hibernateinaction2nd.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The read replicas of the main database, each with its own connection pool. A connection
+ * comes from the replica picked by the {@link Selection}; replicas behind the primary by more
+ * than <code>maxLagMillis</code>, or failing to connect, are left out until a later check finds
+ * them current again. A replica whose pool has no free connection is skipped, but stays in use.
+ * Without a usable replica {@link #getConnection()} returns <code>null</code> and the caller
+ * falls back to the primary.
+ * <p>
+ * Every <code>checkIntervalMillis</code> the lag is measured with <code>lagQuery</code>, which has
+ * to return the replica's delay in milliseconds; without a query replicas are considered current
+ * as long as a connection to them is valid. Connecting to a replica gives up after
+ * <code>connectionTimeoutMillis</code>, a replica that is down doesn't hold up the fallback to
+ * the primary for long.
+ */
+public class ReplicaPool {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicaPool.class);
+
+    public enum Selection {
+        // one replica after the other
+        ROUND_ROBIN,
+        // the replica with the fewest connections handed out, round robin among equals
+        LEAST_LOADED
+    }
+
+    private final List<Replica> replicas = new ArrayList<>();
+
+    private final Selection selection;
+
+    private final long maxLagMillis;
+
+    private final String lagQuery;
+
+    private final long checkIntervalMillis;
+
+    private final int validationTimeoutSeconds;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    private ScheduledExecutorService scheduler;
+
+    public ReplicaPool(List<String> urls, String username, String password, Selection selection,
+                       long maxLagMillis, String lagQuery, long checkIntervalMillis, long connectionTimeoutMillis) {
+        for (int i = 0; i < urls.size(); i++) {
+            HikariDataSource dataSource = new HikariDataSource();
+            dataSource.setPoolName("replica-" + i);
+            dataSource.setJdbcUrl(urls.get(i));
+            dataSource.setUsername(username);
+            dataSource.setPassword(password);
+            dataSource.setReadOnly(true);
+            dataSource.setConnectionTimeout(connectionTimeoutMillis);
+            // a replica that is down at startup is left out, it doesn't fail the application
+            dataSource.setInitializationFailTimeout(-1);
+            replicas.add(new Replica(urls.get(i), dataSource));
+        }
+        this.selection = selection;
+        this.maxLagMillis = maxLagMillis;
+        this.lagQuery = lagQuery == null || lagQuery.isEmpty() ? null : lagQuery;
+        this.checkIntervalMillis = checkIntervalMillis;
+        this.validationTimeoutSeconds = (int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(connectionTimeoutMillis));
+    }
+
+    @PostConstruct
+    public void start() {
+        checkReplicas();
+        if (checkIntervalMillis > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "replica-lag-check");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(
+                    this::checkReplicas, checkIntervalMillis, checkIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+        replicas.forEach(replica -> replica.dataSource.close());
+    }
+
+    /**
+     * A connection to a current replica, or <code>null</code> if there is none.
+     */
+    public Connection getConnection() {
+        List<Replica> candidates = new ArrayList<>(replicas.size());
+        int start = Math.floorMod(next.getAndIncrement(), Math.max(replicas.size(), 1));
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get((start + i) % replicas.size());
+            if (replica.available) {
+                candidates.add(replica);
+            }
+        }
+        if (selection == Selection.LEAST_LOADED) {
+            // stable, equally loaded replicas stay in round robin order
+            candidates.sort(Comparator.comparingInt(replica -> replica.active.get()));
+        }
+
+        for (Replica replica : candidates) {
+            try {
+                Connection connection = replica.dataSource.getConnection();
+                replica.active.incrementAndGet();
+                return (Connection) Proxy.newProxyInstance(
+                        Connection.class.getClassLoader(),
+                        new Class<?>[]{Connection.class},
+                        new ActiveCountingHandler(connection, replica));
+            } catch (SQLException ex) {
+                if (isPoolExhausted(ex)) {
+                    log.debug("No free connection to replica {}, trying the next one", replica.url);
+                    continue;
+                }
+                replica.available = false;
+                log.warn("Replica {} isn't reachable, using the others until the next check", replica.url, ex);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Measures the lag of every replica, or checks that it can be reached without a lag query,
+     * and updates which of them are used.
+     */
+    public void checkReplicas() {
+        for (Replica replica : replicas) {
+            boolean available;
+            try {
+                replica.lagMillis = lag(replica);
+                available = replica.lagMillis <= maxLagMillis;
+            } catch (SQLException | RuntimeException ex) {
+                log.debug("Lag of replica {} unknown", replica.url, ex);
+                replica.lagMillis = Long.MAX_VALUE;
+                available = false;
+            }
+            if (available != replica.available) {
+                log.info("Replica {} {}, lag {} ms", replica.url, available ? "in use" : "left out",
+                        replica.lagMillis == Long.MAX_VALUE ? "unknown" : replica.lagMillis);
+            }
+            replica.available = available;
+        }
+    }
+
+    /*
+        A connection that fails the check is evicted from the pool, the next check opens a new
+        one. Hikari only evicts by itself on the SQL states of lost connections, which not every
+        driver reports, H2 for one doesn't.
+     */
+    private long lag(Replica replica) throws SQLException {
+        try (Connection connection = replica.dataSource.getConnection()) {
+            try {
+                if (lagQuery == null) {
+                    if (connection.isValid(validationTimeoutSeconds)) {
+                        return 0;
+                    }
+                } else {
+                    try (Statement statement = connection.createStatement();
+                         ResultSet result = statement.executeQuery(lagQuery)) {
+                        return result.next() ? result.getLong(1) : Long.MAX_VALUE;
+                    }
+                }
+            } catch (SQLException | RuntimeException ex) {
+                replica.dataSource.evictConnection(connection);
+                throw ex;
+            }
+            replica.dataSource.evictConnection(connection);
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /*
+        Hikari gives up after the connection timeout with a SQLTransientConnectionException,
+        caused by the last failure to connect if there was one. Without a cause all connections
+        of the pool were in use, which says nothing about the replica.
+     */
+    private static boolean isPoolExhausted(SQLException ex) {
+        return ex instanceof SQLTransientConnectionException && ex.getCause() == null;
+    }
+
+    public int getReplicaCount() {
+        return replicas.size();
+    }
+
+    public int getAvailableReplicaCount() {
+        return (int) replicas.stream().filter(replica -> replica.available).count();
+    }
+
+    private static class Replica {
+
+        final String url;
+
+        final HikariDataSource dataSource;
+
+        final AtomicInteger active = new AtomicInteger();
+
+        volatile boolean available = true;
+
+        volatile long lagMillis;
+
+        Replica(String url, HikariDataSource dataSource) {
+            this.url = url;
+            this.dataSource = dataSource;
+        }
+    }
+
+    private static class ActiveCountingHandler implements InvocationHandler {
+
+        private final Connection target;
+
+        private final Replica replica;
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        ActiveCountingHandler(Connection target, Replica replica) {
+            this.target = target;
+            this.replica = replica;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "close":
+                    try {
+                        target.close();
+                    } finally {
+                        if (closed.compareAndSet(false, true)) {
+                            replica.active.decrementAndGet();
+                        }
+                    }
+                    return null;
+                default:
+                    try {
+                        return method.invoke(target, args);
+                    } catch (InvocationTargetException ex) {
+                        throw ex.getTargetException();
+                    }
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.ico.ltd.hibernateinaction2nd.config;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+import javax.sql.DataSource;
+import java.util.Arrays;
+
+/**
+ * Routes read-only transactions, like the listings and the bid summaries, to the read replicas
+ * at <code>auction.replicas.urls</code> when <code>auction.replicas.enabled</code> is set. The
+ * DataSource configured by Spring Boot stays the primary, it is wrapped in a
+ * {@link ReplicaRoutingDataSource}; schema creation and <code>data.sql</code> run outside of
+ * transactions and go to the primary.
+ * <p>
+ * The router wraps the DataSource before the {@link ConnectionLimitingDataSource} of
+ * {@link VirtualThreadConfiguration} does, so the limit applies to the connections of the
+ * replicas too.
+ */
+@Configuration
+@ConditionalOnProperty(name = "auction.replicas.enabled", havingValue = "true")
+public class ReplicaRoutingConfiguration {
+
+    // DataSource post processors wrapping the router order themselves after it
+    public static final int ROUTING_ORDER = Ordered.LOWEST_PRECEDENCE - 100;
+
+    @Bean
+    public ReplicaPool replicaPool(
+            @Value("${auction.replicas.urls}") String[] urls,
+            @Value("${auction.replicas.username:${spring.datasource.username:sa}}") String username,
+            @Value("${auction.replicas.password:${spring.datasource.password:}}") String password,
+            @Value("${auction.replicas.selection:ROUND_ROBIN}") ReplicaPool.Selection selection,
+            @Value("${auction.replicas.max-lag-ms:5000}") long maxLagMillis,
+            @Value("${auction.replicas.lag-query:}") String lagQuery,
+            @Value("${auction.replicas.check-interval-ms:5000}") long checkIntervalMillis,
+            @Value("${auction.replicas.connection-timeout-ms:1000}") long connectionTimeoutMillis) {
+        return new ReplicaPool(Arrays.asList(urls), username, password, selection,
+                maxLagMillis, lagQuery, checkIntervalMillis, connectionTimeoutMillis);
+    }
+
+    /*
+        Static, the post processor has to be registered before the DataSource is created. The
+        declared type tells Spring that it's ordered before it is instantiated.
+     */
+    @Bean
+    public static ReplicaRoutingDataSourcePostProcessor replicaRoutingDataSourcePostProcessor(
+            ObjectProvider<ReplicaPool> replicaPool) {
+        return new ReplicaRoutingDataSourcePostProcessor(replicaPool);
+    }
+
+    public static class ReplicaRoutingDataSourcePostProcessor implements BeanPostProcessor, Ordered {
+
+        private final ObjectProvider<ReplicaPool> replicaPool;
+
+        ReplicaRoutingDataSourcePostProcessor(ObjectProvider<ReplicaPool> replicaPool) {
+            this.replicaPool = replicaPool;
+        }
+
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) {
+            if (bean instanceof DataSource && !(bean instanceof ReplicaRoutingDataSource)) {
+                return new ReplicaRoutingDataSource((DataSource) bean, replicaPool.getObject());
+            }
+            return bean;
+        }
+
+        @Override
+        public int getOrder() {
+            return ROUTING_ORDER;
+        }
+    }
+}
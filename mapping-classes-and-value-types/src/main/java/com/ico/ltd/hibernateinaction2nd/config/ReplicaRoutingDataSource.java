@@ -0,0 +1,63 @@
+package com.ico.ltd.hibernateinaction2nd.config;
+
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Sends the statements of read-only transactions, <code>@Transactional(readOnly = true)</code>
+ * or a read-only <code>TransactionTemplate</code>, to a replica of the {@link ReplicaPool}, all
+ * other work to the primary; without a current replica read-only work runs on the primary.
+ * <p>
+ * The transaction manager asks for the connection before it marks the transaction read-only,
+ * so the physical connection is only fetched with the first statement, when the routing
+ * decision can be made. Spring also runs read-only transactions with a read-only Hibernate
+ * session, no snapshots of loaded entities and no flush, and a read-only JDBC connection.
+ */
+public class ReplicaRoutingDataSource extends LazyConnectionDataSourceProxy implements AutoCloseable {
+
+    private final DataSource primary;
+
+    private final ReplicaPool replicas;
+
+    public ReplicaRoutingDataSource(DataSource primary, ReplicaPool replicas) {
+        this.primary = primary;
+        this.replicas = replicas;
+        setTargetDataSource(new AbstractDataSource() {
+            @Override
+            public Connection getConnection() throws SQLException {
+                if (TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+                    Connection replica = ReplicaRoutingDataSource.this.replicas.getConnection();
+                    if (replica != null) {
+                        return replica;
+                    }
+                }
+                return ReplicaRoutingDataSource.this.primary.getConnection();
+            }
+
+            @Override
+            public Connection getConnection(String username, String password) throws SQLException {
+                return ReplicaRoutingDataSource.this.primary.getConnection(username, password);
+            }
+        });
+        afterPropertiesSet();
+    }
+
+    public DataSource getPrimary() {
+        return primary;
+    }
+
+    /*
+        Called on shutdown instead of the close() method of the pool this data source replaced.
+     */
+    @Override
+    public void close() throws Exception {
+        if (primary instanceof AutoCloseable) {
+            ((AutoCloseable) primary).close();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.ico.ltd.hibernateinaction2nd.config;
+
+import org.apache.coyote.ProtocolHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.core.env.Environment;
+
+import javax.sql.DataSource;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Runs request handling, and with it the JPA work of a request, on virtual threads when
+ * <code>auction.virtual-threads.enabled</code> is set and the JDK supports them; otherwise
+ * Tomcat keeps its pool of platform threads. Blocking on JDBC then no longer ties up one of
+ * a few hundred platform threads, and the {@link ConnectionLimitingDataSource} keeps the many
+ * request threads from piling up in the connection pool.
+ */
+@Configuration
+@ConditionalOnProperty(name = "auction.virtual-threads.enabled", havingValue = "true")
+public class VirtualThreadConfiguration {
+
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreadConfiguration.class);
+
+    @Bean
+    public VirtualThreadProtocolHandlerCustomizer virtualThreadProtocolHandlerCustomizer() {
+        return new VirtualThreadProtocolHandlerCustomizer(VirtualThreads.newVirtualThreadPerTaskExecutor());
+    }
+
+    /*
+        Static, the post processor has to be registered before the DataSource is created. The
+        declared type tells Spring that it's ordered before it is instantiated.
+     */
+    @Bean
+    public static ConnectionLimitingDataSourcePostProcessor connectionLimitingDataSourcePostProcessor(
+            Environment environment) {
+        int permits = environment.getProperty("auction.virtual-threads.max-connections", Integer.class,
+                environment.getProperty("spring.datasource.hikari.maximum-pool-size", Integer.class, 10));
+        long maxWaitMillis = environment.getProperty("auction.virtual-threads.connection-wait-ms", Long.class, 30000L);
+        return new ConnectionLimitingDataSourcePostProcessor(permits, maxWaitMillis);
+    }
+
+    /**
+     * Wraps the DataSource after the {@link ReplicaRoutingDataSource} did, if replicas are
+     * enabled: every connection, to the primary or a replica, counts against the limit.
+     */
+    public static class ConnectionLimitingDataSourcePostProcessor implements BeanPostProcessor, Ordered {
+
+        private final int permits;
+
+        private final long maxWaitMillis;
+
+        ConnectionLimitingDataSourcePostProcessor(int permits, long maxWaitMillis) {
+            this.permits = permits;
+            this.maxWaitMillis = maxWaitMillis;
+        }
+
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) {
+            if (bean instanceof DataSource && !(bean instanceof ConnectionLimitingDataSource)) {
+                return new ConnectionLimitingDataSource((DataSource) bean, permits, maxWaitMillis);
+            }
+            return bean;
+        }
+
+        @Override
+        public int getOrder() {
+            return ReplicaRoutingConfiguration.ROUTING_ORDER + 1;
+        }
+    }
+
+    public static class VirtualThreadProtocolHandlerCustomizer
+            implements TomcatProtocolHandlerCustomizer<ProtocolHandler>, DisposableBean {
+
+        private final ExecutorService executor;
+
+        VirtualThreadProtocolHandlerCustomizer(ExecutorService executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public void customize(ProtocolHandler protocolHandler) {
+            if (executor == null) {
+                log.warn("Virtual threads aren't available on Java {}, requests run on platform threads",
+                        System.getProperty("java.version"));
+                return;
+            }
+            protocolHandler.setExecutor(executor);
+        }
+
+        @Override
+        public void destroy() {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+    }
+}
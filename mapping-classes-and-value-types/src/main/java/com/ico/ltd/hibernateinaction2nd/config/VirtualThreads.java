@@ -0,0 +1,35 @@
+package com.ico.ltd.hibernateinaction2nd.config;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Access to virtual threads while the application is still compiled for Java 11: the
+ * executor is looked up reflectively and is only available on a JDK that supports them.
+ */
+public final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * Returns an executor starting a new virtual thread per task, or <code>null</code> if the
+     * running JDK has no virtual threads (or only as a disabled preview feature).
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException ex) {
+            return null;
+        } catch (InvocationTargetException ex) {
+            // UnsupportedOperationException without --enable-preview on JDK 19 and 20
+            if (ex.getCause() instanceof UnsupportedOperationException) {
+                return null;
+            }
+            throw new IllegalStateException("Can't create virtual thread executor", ex.getCause());
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.ico.ltd.hibernateinaction2nd.domain;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import java.util.Date;
+
+/**
+ * Progress of one partition of a run of
+ * {@link com.ico.ltd.hibernateinaction2nd.service.AuctionCloseService}. The row is updated in
+ * the transaction that closes a chunk of items and deleted when the partition is done, so a
+ * run that was interrupted continues after its last committed chunk, with its original cutoff.
+ */
+@Entity
+@Table(name = "AUCTION_CLOSE_CHECKPOINT")
+public class AuctionCloseCheckpoint {
+
+    @Id
+    @Column(name = "PARTITION_NO")
+    protected Integer partition;
+
+    // auctions ending at or before the cutoff are closed by the run
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(nullable = false)
+    protected Date cutoff;
+
+    // the first item identifier not yet processed
+    @Column(nullable = false)
+    protected long nextId;
+
+    // the last item identifier of the partition, inclusive
+    @Column(nullable = false)
+    protected long lastId;
+
+    public AuctionCloseCheckpoint() {
+    }
+
+    public AuctionCloseCheckpoint(Integer partition, Date cutoff, long nextId, long lastId) {
+        this.partition = partition;
+        this.cutoff = cutoff;
+        this.nextId = nextId;
+        this.lastId = lastId;
+    }
+
+    public Integer getPartition() {
+        return partition;
+    }
+
+    public Date getCutoff() {
+        return cutoff;
+    }
+
+    public long getNextId() {
+        return nextId;
+    }
+
+    public void setNextId(long nextId) {
+        this.nextId = nextId;
+    }
+
+    public long getLastId() {
+        return lastId;
+    }
+}
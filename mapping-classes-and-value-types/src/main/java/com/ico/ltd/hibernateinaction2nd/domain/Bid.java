@@ -1,14 +1,43 @@
 package com.ico.ltd.hibernateinaction2nd.domain;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Entity;
+import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.ManyToOne;
+import javax.persistence.NamedAttributeNode;
+import javax.persistence.NamedEntityGraph;
+import javax.persistence.NamedQuery;
+import javax.persistence.QueryHint;
+import javax.persistence.Table;
 import javax.validation.constraints.NotNull;
 import java.math.BigDecimal;
 
 @Entity
+// bids are read per item: Item.bids, Bid.findByItem, the bid statistics and summaries. With the
+// amount in the index the statistics are aggregated from the index alone, without reading rows;
+// with the identifier it is in the order of the keyset pagination of an item's bids.
+@Table(indexes = @Index(name = "IDX_BID_ITEM_ID_AMOUNT", columnList = "item_id, amount, id"))
 @org.hibernate.annotations.Immutable
+@Cacheable
+@org.hibernate.annotations.Cache(
+        usage = org.hibernate.annotations.CacheConcurrencyStrategy.READ_ONLY
+)
+@NamedQuery(
+        name = "Bid.findByItem",
+        query = "select b from Bid b where b.item.id = :itemId order by b.amount desc",
+        hints = {
+                @QueryHint(name = org.hibernate.annotations.QueryHints.CACHEABLE, value = "true"),
+                @QueryHint(name = org.hibernate.annotations.QueryHints.CACHE_REGION, value = Constants.BID_QUERY_CACHE_REGION)
+        }
+)
+// bids with their items, for feeds showing what was bid on
+@NamedEntityGraph(
+        name = "Bid.feed",
+        attributeNodes = @NamedAttributeNode("item")
+)
 public class Bid {
 
     @Id
@@ -18,7 +47,8 @@ public class Bid {
     @NotNull
     protected BigDecimal amount;
 
-    @ManyToOne
+    // a proxy, use the Bid.feed entity graph to fetch the item with the bid
+    @ManyToOne(fetch = FetchType.LAZY)
     protected Item item;
 
     public Item getItem() {
@@ -0,0 +1,91 @@
+package com.ico.ltd.hibernateinaction2nd.domain;
+
+import javax.persistence.Column;
+import javax.persistence.Embeddable;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Aggregated bid figures of an {@link Item}, stored in the ITEM row itself. Instead of
+ * running a correlated <code>avg()</code> subquery for every loaded item, the statistics
+ * are maintained incrementally in {@link Item#addBid(Bid)} and read together with the
+ * other item columns. Use {@link com.ico.ltd.hibernateinaction2nd.service.BidStatisticsService}
+ * to recompute them from the BID table in bulk.
+ */
+@Embeddable
+public class BidStatistics {
+
+    @Column(name = "BID_COUNT", nullable = false)
+    @org.hibernate.annotations.ColumnDefault("0")
+    protected long count;
+
+    @Column(name = "BID_SUM", nullable = false)
+    @org.hibernate.annotations.ColumnDefault("0")
+    protected BigDecimal sum = BigDecimal.ZERO;
+
+    @Column(name = "BID_MIN")
+    protected BigDecimal minimum;
+
+    @Column(name = "BID_MAX")
+    protected BigDecimal maximum;
+
+    public BidStatistics() {
+    }
+
+    public BidStatistics(long count, BigDecimal sum, BigDecimal minimum, BigDecimal maximum) {
+        this.count = count;
+        this.sum = sum != null ? sum : BigDecimal.ZERO;
+        this.minimum = minimum;
+        this.maximum = maximum;
+    }
+
+    /**
+     * A copy of these statistics with the bid amount folded in, constant time. The statistics
+     * themselves never change: the enhanced dirty tracking only sees values written to the
+     * fields of the entity, so entities replace their statistics with the copy.
+     */
+    public BidStatistics plus(BigDecimal amount) {
+        return new BidStatistics(
+                count + 1,
+                sum.add(amount),
+                minimum == null || amount.compareTo(minimum) < 0 ? amount : minimum,
+                maximum == null || amount.compareTo(maximum) > 0 ? amount : maximum);
+    }
+
+    /**
+     * The statistics of the bids of both, for aggregates computed in parts.
+     */
+    public BidStatistics combine(BidStatistics other) {
+        return new BidStatistics(
+                count + other.count,
+                sum.add(other.sum),
+                minimum == null || (other.minimum != null && other.minimum.compareTo(minimum) < 0) ? other.minimum : minimum,
+                maximum == null || (other.maximum != null && other.maximum.compareTo(maximum) > 0) ? other.maximum : maximum);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public BigDecimal getSum() {
+        return sum;
+    }
+
+    public BigDecimal getMinimum() {
+        return minimum;
+    }
+
+    public BigDecimal getMaximum() {
+        return maximum;
+    }
+
+    /**
+     * Returns <code>null</code> if there are no bids, like the SQL <code>avg()</code> function.
+     */
+    public BigDecimal getAverage() {
+        if (count == 0) {
+            return null;
+        }
+        return sum.divide(BigDecimal.valueOf(count), 2, RoundingMode.HALF_EVEN);
+    }
+}
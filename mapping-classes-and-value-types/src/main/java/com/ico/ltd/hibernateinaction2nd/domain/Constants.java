@@ -3,4 +3,8 @@ package com.ico.ltd.hibernateinaction2nd.domain;
 public interface Constants {
 
     String ID_GENERATOR = "ID_GENERATOR";
+
+    String BID_QUERY_CACHE_REGION = "auction.query.Bid";
+
+    String ITEM_QUERY_CACHE_REGION = "auction.query.Item";
 }
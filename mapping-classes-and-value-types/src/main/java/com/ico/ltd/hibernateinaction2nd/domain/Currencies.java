@@ -0,0 +1,76 @@
+package com.ico.ltd.hibernateinaction2nd.domain;
+
+import java.util.Currency;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Interned {@link Currency} instances, looked up by their ISO 4217 code without hashing the
+ * code string. A code is three letters from A to Z, so it packs into 15 bits and indexes a
+ * plain table; the table is filled lazily on first use of each code.
+ */
+public final class Currencies {
+
+    static final int CODES = 1 << 15;
+
+    private static final AtomicReferenceArray<Currency> CURRENCIES = new AtomicReferenceArray<>(CODES);
+
+    private Currencies() {
+    }
+
+    /**
+     * Returns the currency for the given code, like {@link Currency#getInstance(String)}.
+     *
+     * @throws IllegalArgumentException if the code isn't a supported ISO 4217 code
+     */
+    public static Currency of(String code) {
+        int index = index(code);
+        if (index < 0) {
+            return Currency.getInstance(code);
+        }
+        Currency currency = CURRENCIES.get(index);
+        if (currency == null) {
+            currency = Currency.getInstance(code);
+            CURRENCIES.set(index, currency);
+        }
+        return currency;
+    }
+
+    /**
+     * Returns the currency for a packed index, as returned by {@link #index(String)}.
+     */
+    public static Currency of(int index) {
+        Currency currency = index >= 0 && index < CODES ? CURRENCIES.get(index) : null;
+        if (currency == null) {
+            char[] code = {
+                    (char) ('A' + ((index >> 10) & 31)),
+                    (char) ('A' + ((index >> 5) & 31)),
+                    (char) ('A' + (index & 31))
+            };
+            currency = of(new String(code));
+        }
+        return currency;
+    }
+
+    /**
+     * Returns the packed 15-bit index of a currency code, or <code>-1</code> if the code
+     * isn't made of three letters from A to Z.
+     */
+    public static int index(String code) {
+        if (code == null || code.length() != 3) {
+            return -1;
+        }
+        int index = 0;
+        for (int i = 0; i < 3; i++) {
+            int letter = code.charAt(i) - 'A';
+            if (letter < 0 || letter >= 26) {
+                return -1;
+            }
+            index = (index << 5) | letter;
+        }
+        return index;
+    }
+
+    public static int index(Currency currency) {
+        return index(currency.getCurrencyCode());
+    }
+}
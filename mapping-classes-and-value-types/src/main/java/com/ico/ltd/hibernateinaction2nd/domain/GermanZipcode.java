@@ -1,6 +1,6 @@
 package com.ico.ltd.hibernateinaction2nd.domain;
 
-public class GermanZipcode extends Zipcode {
+public final class GermanZipcode extends Zipcode {
 
     public GermanZipcode(String value) {
         super(value);
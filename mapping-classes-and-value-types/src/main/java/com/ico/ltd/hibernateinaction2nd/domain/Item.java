@@ -1,14 +1,33 @@
 package com.ico.ltd.hibernateinaction2nd.domain;
 
+import com.ico.ltd.hibernateinaction2nd.domain.converters.GramsConverter;
+
+import javax.persistence.Basic;
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
+import javax.persistence.ConstraintMode;
+import javax.persistence.Convert;
 import javax.persistence.Entity;
 import javax.persistence.EnumType;
 import javax.persistence.Enumerated;
+import javax.persistence.FetchType;
+import javax.persistence.ForeignKey;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.JoinColumn;
+import javax.persistence.Lob;
+import javax.persistence.ManyToOne;
+import javax.persistence.NamedAttributeNode;
+import javax.persistence.NamedEntityGraph;
+import javax.persistence.NamedEntityGraphs;
+import javax.persistence.NamedQuery;
 import javax.persistence.OneToMany;
+import javax.persistence.QueryHint;
+import javax.persistence.Table;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
+import javax.persistence.Version;
 import javax.validation.constraints.Future;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Size;
@@ -18,15 +37,52 @@ import java.util.HashSet;
 import java.util.Set;
 
 @Entity
+@Table(indexes = {
+        // Item.findByName
+        @Index(name = "IDX_ITEM_NAME", columnList = "name"),
+        // the auction close job looks up expired auctions; CLOSED isn't part of the index, with
+        // it H2 prefers this index over the primary key for the job's chunks of identifier ranges.
+        // With the identifier the index is in the order of the keyset pagination by auction end.
+        @Index(name = "IDX_ITEM_AUCTION_END", columnList = "auctionEnd, id"),
+        // searches by weight range
+        @Index(name = "IDX_ITEM_WEIGHT", columnList = "WEIGHT_GRAMS")
+})
 // disable generation of INSERT and UPDATE SQL statements on startup
 @org.hibernate.annotations.DynamicInsert
 @org.hibernate.annotations.DynamicUpdate
+@Cacheable
+@org.hibernate.annotations.Cache(
+        usage = org.hibernate.annotations.CacheConcurrencyStrategy.READ_WRITE
+)
+@NamedQuery(
+        name = "Item.findByName",
+        query = "select i from Item i where i.name = :name",
+        hints = {
+                @QueryHint(name = org.hibernate.annotations.QueryHints.CACHEABLE, value = "true"),
+                @QueryHint(name = org.hibernate.annotations.QueryHints.CACHE_REGION, value = Constants.ITEM_QUERY_CACHE_REGION)
+        }
+)
+@NamedEntityGraphs({
+        // only the item's own columns, as in listings
+        @NamedEntityGraph(name = "Item.listing"),
+        @NamedEntityGraph(
+                name = "Item.withBids",
+                attributeNodes = @NamedAttributeNode("bids")
+        )
+})
+// initialize up to 25 Item proxies in one SELECT, for example when iterating bids
+@org.hibernate.annotations.BatchSize(size = 25)
 public class Item {
 
     @Id
     @GeneratedValue(generator = Constants.ID_GENERATOR)
     protected Long id;
 
+    // concurrent bids on the same item: the second commit fails instead of overwriting the first
+    @Version
+    @org.hibernate.annotations.ColumnDefault("0")
+    protected long version;
+
     @NotNull
     @Size(
             min = 2,
@@ -35,7 +91,12 @@ public class Item {
     )
     protected String name;
 
+    // can be large and isn't needed for listings (see shortDescription), loaded on first access;
+    // requires the bytecode enhancement of the build
     @NotNull
+    @Lob
+    @Basic(fetch = FetchType.LAZY)
+    @org.hibernate.annotations.LazyGroup("description")
     protected String description;
 
     @Future
@@ -64,22 +125,27 @@ public class Item {
     @org.hibernate.annotations.CreationTimestamp
     protected Date createdOn;
 
+    // caches the identifiers of the bids, the Bid instances come from their own region
     @OneToMany(mappedBy = "item")
+    // load the bids of up to 25 items in one SELECT when the first collection is accessed
+    @org.hibernate.annotations.BatchSize(size = 25)
+    @org.hibernate.annotations.Cache(
+            usage = org.hibernate.annotations.CacheConcurrencyStrategy.READ_WRITE
+    )
     protected Set<Bid> bids = new HashSet<>();
 
     // executes only during SELECTs
     @org.hibernate.annotations.Formula(value = "substr(DESCRIPTION, 1, 12) || '...'")
     protected String shortDescription;
 
-    @org.hibernate.annotations.Formula(value = "(select avg(b.AMOUNT) from BID b where b.ITEM_ID = ID)")
-    protected BigDecimal averageBidAmount;
+    // maintained by addBid(), no subquery per loaded row; replaced, never modified in place,
+    // so the enhanced dirty tracking notices the change
+    protected BidStatistics bidStatistics = new BidStatistics();
 
-    // in Kilos, DB in Pounds
-    @Column(name = "IMPERIALWEIGHT")
-    @org.hibernate.annotations.ColumnTransformer(
-            read = "IMPERIALWEIGHT / 2.20462",
-            write = "? * 2.20462"
-    )
+    // in kilograms, in the database in whole grams: range queries compare the plain column
+    @Column(name = "WEIGHT_GRAMS", nullable = false)
+    @org.hibernate.annotations.ColumnDefault("0")
+    @Convert(converter = GramsConverter.class)
     protected double metricWeight;
 
     @Enumerated(EnumType.STRING) // Defaults to ORDINAL
@@ -94,6 +160,16 @@ public class Item {
     })
     protected MonetaryAmount buyNowPrice;
 
+    // set by the auction close job, together with the winning bid
+    @org.hibernate.annotations.ColumnDefault("false")
+    protected boolean closed;
+
+    // null if the auction closed without a valid bid; bids are never deleted, and a second
+    // foreign key between ITEM and BID would make the tables impossible to drop
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(foreignKey = @ForeignKey(ConstraintMode.NO_CONSTRAINT))
+    protected Bid winningBid;
+
     public Item() {
     }
 
@@ -116,6 +192,10 @@ public class Item {
         return id;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
     public Set<Bid> getBids() {
         return bids;
     }
@@ -135,6 +215,21 @@ public class Item {
 
         getBids().add(bid);
         bid.setItem(this);
+        bidStatistics = getBidStatistics().plus(bid.getAmount());
+    }
+
+    /**
+     * Creates a bid on this item and folds it into the bid statistics. Unlike
+     * {@link #addBid(Bid)} this doesn't initialize the bids collection, so placing a bid costs
+     * the same however many bids the item has; the bid appears in the collection when it's
+     * loaded the next time. The new bid still has to be persisted.
+     */
+    public Bid placeBid(BigDecimal amount) {
+        Bid bid = new Bid();
+        bid.setAmount(amount);
+        bid.setItem(this);
+        bidStatistics = getBidStatistics().plus(amount);
+        return bid;
     }
 
     public String getName() {
@@ -169,20 +264,20 @@ public class Item {
         this.shortDescription = shortDescription;
     }
 
-    public BigDecimal getAverageBidAmount() {
-        return averageBidAmount;
+    public BidStatistics getBidStatistics() {
+        return bidStatistics;
     }
 
-    public void setAverageBidAmount(BigDecimal averageBidAmount) {
-        this.averageBidAmount = averageBidAmount;
+    public BigDecimal getAverageBidAmount() {
+        return getBidStatistics().getAverage();
     }
 
     public double getMetricWeight() {
         return metricWeight;
     }
 
-    public void setMetricWeight(double metriceWeight) {
-        this.metricWeight = metriceWeight;
+    public void setMetricWeight(double metricWeight) {
+        this.metricWeight = metricWeight;
     }
 
     public MonetaryAmount getInitialPrice() {
@@ -224,4 +319,12 @@ public class Item {
     public void setBuyNowPrice(MonetaryAmount buyNowPrice) {
         this.buyNowPrice = buyNowPrice;
     }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public Bid getWinningBid() {
+        return winningBid;
+    }
 }
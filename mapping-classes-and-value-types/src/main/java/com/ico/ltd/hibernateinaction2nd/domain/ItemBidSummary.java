@@ -1,24 +1,34 @@
 package com.ico.ltd.hibernateinaction2nd.domain;
 
+import javax.persistence.Cacheable;
+import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Id;
+import javax.persistence.Table;
 
+/**
+ * Materialized bid count per item. The ITEM_BID_SUMMARY table is maintained with deltas by
+ * {@link com.ico.ltd.hibernateinaction2nd.service.ItemBidSummaryMaintainer} when bids are inserted,
+ * so reading a summary is a primary key lookup instead of an aggregation over the BID table.
+ */
 @Entity
 @org.hibernate.annotations.Immutable
-@org.hibernate.annotations.Subselect(
-        value = "select i.ID as ITEM_ID, i.NAME as NAME, " +
-                "count(b.ID) as NUMBER_OF_BIDS " +
-                "from ITEM i left outer join BID b on i.ID = b.ITEM_ID " +
-                "group by i.ID, i.NAME"
+@Table(name = "ITEM_BID_SUMMARY")
+@Cacheable
+@org.hibernate.annotations.Cache(
+        usage = org.hibernate.annotations.CacheConcurrencyStrategy.READ_ONLY
 )
-@org.hibernate.annotations.Synchronize({"ITEM", "BID"})
 public class ItemBidSummary {
 
     @Id
+    @Column(name = "ITEM_ID")
     protected Long itemId;
 
+    // primary key lookup, the name isn't copied into the summary table
+    @org.hibernate.annotations.Formula(value = "(select i.NAME from ITEM i where i.ID = ITEM_ID)")
     protected String name;
 
+    @Column(name = "NUMBER_OF_BIDS", nullable = false)
     protected long numberOfBids;
 
     public Long getItemId() {
@@ -3,6 +3,7 @@ package com.ico.ltd.hibernateinaction2nd.domain;
 import java.io.Serializable;
 import java.math.BigDecimal;
 import java.util.Currency;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /*
     This value-typed class should be <code>java.io.Serializable</code>: When Hibernate stores entity
@@ -20,11 +21,46 @@ public class MonetaryAmount implements Serializable {
     protected final BigDecimal value;
     protected final Currency currency;
 
+    /*
+        Recently used amounts are shared per currency in a small direct-mapped table: the
+        slot is picked by the hash of the value, a colliding amount replaces the previous one.
+        A hit costs no allocation, <code>BigDecimal#hashCode()</code> and <code>equals()</code>
+        don't allocate for values that fit in a long.
+     */
+    static final int SHARED_SLOTS = 1024;
+
+    private static final AtomicReferenceArray<MonetaryAmount[]> SHARED =
+            new AtomicReferenceArray<>(Currencies.CODES);
+
     public MonetaryAmount(BigDecimal value, Currency currency) {
         this.value = value;
         this.currency = currency;
     }
 
+    /**
+     * Returns a shared instance if an equal amount was created recently, a new instance
+     * otherwise. Safe because <code>MonetaryAmount</code> is immutable.
+     */
+    public static MonetaryAmount of(BigDecimal value, Currency currency) {
+        int currencyIndex = Currencies.index(currency);
+        if (currencyIndex < 0) {
+            return new MonetaryAmount(value, currency);
+        }
+        MonetaryAmount[] shared = SHARED.get(currencyIndex);
+        if (shared == null) {
+            SHARED.compareAndSet(currencyIndex, null, new MonetaryAmount[SHARED_SLOTS]);
+            shared = SHARED.get(currencyIndex);
+        }
+        int slot = value.hashCode() & (SHARED_SLOTS - 1);
+        MonetaryAmount amount = shared[slot];
+        if (amount == null || !amount.value.equals(value)) {
+            // benign race, final fields make the instance safe to publish without locking
+            amount = new MonetaryAmount(value, currency);
+            shared[slot] = amount;
+        }
+        return amount;
+    }
+
     public BigDecimal getValue() {
         return value;
     }
@@ -67,9 +103,9 @@ public class MonetaryAmount implements Serializable {
 
     public static MonetaryAmount fromString(String s) {
         String[] split = s.split(" ");
-        return new MonetaryAmount(
+        return of(
                 new BigDecimal(split[0]),
-                Currency.getInstance(split[1])
+                Currencies.of(split[1])
         );
     }
 }
\ No newline at end of file
@@ -1,6 +1,6 @@
 package com.ico.ltd.hibernateinaction2nd.domain;
 
-public class SwissZipcode extends Zipcode {
+public final class SwissZipcode extends Zipcode {
 
     public SwissZipcode(String value) {
         super(value);
@@ -4,17 +4,30 @@ import com.ico.ltd.hibernateinaction2nd.domain.converters.ZipcodeConverter;
 
 import javax.persistence.AttributeOverride;
 import javax.persistence.AttributeOverrides;
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Convert;
 import javax.persistence.Embedded;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.Table;
 import java.io.Serializable;
 
 @Entity
-@Table(name = "USERS")
+@Table(
+        name = "USERS",
+        // users are looked up by the zipcodes of their addresses
+        indexes = {
+                @Index(name = "IDX_USERS_ZIPCODE", columnList = "zipcode"),
+                @Index(name = "IDX_USERS_BILLING_ZIPCODE", columnList = "BILLING_ZIPCODE")
+        }
+)
+@Cacheable
+@org.hibernate.annotations.Cache(
+        usage = org.hibernate.annotations.CacheConcurrencyStrategy.READ_WRITE
+)
 public class User implements Serializable {
 
     @Id
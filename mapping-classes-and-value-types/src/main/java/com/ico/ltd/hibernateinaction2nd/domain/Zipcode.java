@@ -1,8 +1,14 @@
 package com.ico.ltd.hibernateinaction2nd.domain;
 
-public abstract class Zipcode {
+import java.io.Serializable;
 
-    protected String value;
+/*
+    Serializable like MonetaryAmount, Hibernate stores it as is in the second-level cache.
+    Immutable, so equal zipcodes can share one instance, see <code>Zipcodes</code>.
+ */
+public abstract class Zipcode implements Serializable {
+
+    protected final String value;
 
     public Zipcode(String value) {
         this.value = value;
@@ -0,0 +1,88 @@
+package com.ico.ltd.hibernateinaction2nd.domain;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+
+/**
+ * Interned {@link Zipcode} instances, so all users with the same zipcode share one instance.
+ * Five characters make a German, four a Swiss zipcode. Numeric codes are looked up by their
+ * number in a plain table, without hashing the code string; the tables are filled lazily on
+ * first use of each code. Other codes are kept in a map of at most {@link #MAX_OTHER_CODES}
+ * entries, beyond that they are no longer interned.
+ */
+public final class Zipcodes {
+
+    static final int GERMAN_CODES = 100_000;
+
+    static final int SWISS_CODES = 10_000;
+
+    static final int MAX_OTHER_CODES = 10_000;
+
+    private static final AtomicReferenceArray<Zipcode> GERMAN = new AtomicReferenceArray<>(GERMAN_CODES);
+
+    private static final AtomicReferenceArray<Zipcode> SWISS = new AtomicReferenceArray<>(SWISS_CODES);
+
+    private static final Map<String, Zipcode> OTHER = new ConcurrentHashMap<>();
+
+    private Zipcodes() {
+    }
+
+    /**
+     * Returns the zipcode for the given code.
+     *
+     * @throws IllegalArgumentException if the code is neither a German nor a Swiss zipcode
+     */
+    public static Zipcode of(String code) {
+        if (code.length() == 5) {
+            return of(code, GERMAN, GermanZipcode::new);
+        } else if (code.length() == 4) {
+            return of(code, SWISS, SwissZipcode::new);
+        }
+        throw new IllegalArgumentException("Unsupported zipcode: " + code);
+    }
+
+    private static Zipcode of(String code, AtomicReferenceArray<Zipcode> table, Function<String, Zipcode> factory) {
+        int number = number(code);
+        if (number < 0) {
+            return other(code, factory);
+        }
+        Zipcode zipcode = table.get(number);
+        if (zipcode == null) {
+            // benign race, a zipcode is immutable and equal instances are interchangeable
+            zipcode = factory.apply(code);
+            table.set(number, zipcode);
+        }
+        return zipcode;
+    }
+
+    private static Zipcode other(String code, Function<String, Zipcode> factory) {
+        Zipcode zipcode = OTHER.get(code);
+        if (zipcode == null) {
+            zipcode = factory.apply(code);
+            if (OTHER.size() < MAX_OTHER_CODES) {
+                Zipcode interned = OTHER.putIfAbsent(code, zipcode);
+                if (interned != null) {
+                    zipcode = interned;
+                }
+            }
+        }
+        return zipcode;
+    }
+
+    /*
+        The value of a code made of decimal digits only, -1 otherwise.
+     */
+    static int number(String code) {
+        int number = 0;
+        for (int i = 0; i < code.length(); i++) {
+            int digit = code.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            number = number * 10 + digit;
+        }
+        return number;
+    }
+}
@@ -0,0 +1,65 @@
+package com.ico.ltd.hibernateinaction2nd.domain.converters;
+
+import com.ico.ltd.hibernateinaction2nd.domain.Currencies;
+import com.ico.ltd.hibernateinaction2nd.domain.MonetaryAmount;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+/**
+ * Binary form of a {@link MonetaryAmount} for the second-level cache. Most amounts take
+ * 11 bytes: the scale, the packed currency code (see {@link Currencies#index(String)}) and
+ * the unscaled value as a <code>long</code>. Reading them back doesn't parse any text.
+ * <p>
+ * Values with a scale outside of a byte or an unscaled value larger than a <code>long</code>
+ * are marked with a scale byte of {@link #LARGE} and followed by the currency, the scale
+ * as an <code>int</code> and the bytes of the unscaled <code>BigInteger</code>.
+ */
+public final class CompactMonetaryAmount {
+
+    static final byte LARGE = Byte.MIN_VALUE;
+
+    static final int COMPACT_LENGTH = 1 + 2 + 8;
+
+    private CompactMonetaryAmount() {
+    }
+
+    public static byte[] encode(MonetaryAmount amount) {
+        BigDecimal value = amount.getValue();
+        int currency = Currencies.index(amount.getCurrency());
+        if (currency < 0) {
+            throw new IllegalArgumentException("Unsupported currency code: " + amount.getCurrency());
+        }
+        int scale = value.scale();
+        BigInteger unscaled = value.unscaledValue();
+
+        if (scale > LARGE && scale <= Byte.MAX_VALUE && unscaled.bitLength() < Long.SIZE) {
+            return ByteBuffer.allocate(COMPACT_LENGTH)
+                    .put((byte) scale)
+                    .putShort((short) currency)
+                    .putLong(unscaled.longValue())
+                    .array();
+        }
+        byte[] large = unscaled.toByteArray();
+        return ByteBuffer.allocate(1 + 2 + 4 + large.length)
+                .put(LARGE)
+                .putShort((short) currency)
+                .putInt(scale)
+                .put(large)
+                .array();
+    }
+
+    public static MonetaryAmount decode(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        byte scale = buffer.get();
+        int currency = buffer.getShort();
+        if (scale != LARGE) {
+            return MonetaryAmount.of(BigDecimal.valueOf(buffer.getLong(), scale), Currencies.of(currency));
+        }
+        int largeScale = buffer.getInt();
+        byte[] large = new byte[buffer.remaining()];
+        buffer.get(large);
+        return new MonetaryAmount(new BigDecimal(new BigInteger(large), largeScale), Currencies.of(currency));
+    }
+}
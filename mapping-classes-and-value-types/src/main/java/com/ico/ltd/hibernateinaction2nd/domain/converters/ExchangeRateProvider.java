@@ -0,0 +1,14 @@
+package com.ico.ltd.hibernateinaction2nd.domain.converters;
+
+/**
+ * Source of currency exchange rates for {@link ExchangeRateTable}. Implementations are called
+ * from a single thread at a time, whenever the table refreshes its rates.
+ */
+public interface ExchangeRateProvider {
+
+    /**
+     * Loads the current rates. Throw an exception if the rates aren't available, the table
+     * then keeps using the rates it already has.
+     */
+    ExchangeRates loadRates() throws Exception;
+}
@@ -0,0 +1,111 @@
+package com.ico.ltd.hibernateinaction2nd.domain.converters;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.util.Currency;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exchange rates for {@link MonetaryAmountUserType}, loaded from an {@link ExchangeRateProvider}
+ * when the table starts and refreshed by a background task every refresh interval.
+ * <p>
+ * Readers never lock and never wait for the provider: they read the current immutable
+ * {@link ExchangeRates} snapshot from a volatile field. A refresh builds a complete new snapshot
+ * and swaps it in (copy-on-write); if it fails, readers keep using the previous snapshot.
+ * <p>
+ * Hibernate instantiates user types itself, so they find the table in the settings of the
+ * session factory, under {@link MonetaryAmountUserType#EXCHANGE_RATE_TABLE}.
+ */
+public class ExchangeRateTable {
+
+    private static final Logger log = LoggerFactory.getLogger(ExchangeRateTable.class);
+
+    private final ExchangeRateProvider provider;
+
+    private final long refreshIntervalMillis;
+
+    // null until the first successful load
+    private volatile ExchangeRates rates;
+
+    private ScheduledExecutorService refresher;
+
+    /**
+     * @param refreshIntervalMillis 0 to load the rates only once, when the table starts
+     */
+    public ExchangeRateTable(ExchangeRateProvider provider, long refreshIntervalMillis) {
+        this.provider = provider;
+        this.refreshIntervalMillis = refreshIntervalMillis;
+    }
+
+    /**
+     * A table of fixed rates, usable without being started.
+     */
+    public static ExchangeRateTable of(ExchangeRates rates) {
+        ExchangeRateTable table = new ExchangeRateTable(() -> rates, 0);
+        table.rates = rates;
+        return table;
+    }
+
+    /**
+     * Loads the rates, then starts refreshing them in the background.
+     */
+    @PostConstruct
+    public synchronized void start() {
+        if (refresher != null) {
+            return;
+        }
+        refresh();
+        if (refreshIntervalMillis > 0) {
+            refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "exchange-rate-refresher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            refresher.scheduleWithFixedDelay(
+                    this::refresh, refreshIntervalMillis, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+            refresher = null;
+        }
+    }
+
+    /**
+     * Returns the factor converting an amount in <code>from</code> into <code>to</code>.
+     *
+     * @throws IllegalStateException if there is no rate for the currency pair, or no rates were
+     *                               loaded yet
+     */
+    public BigDecimal rate(Currency from, Currency to) {
+        ExchangeRates current = rates;
+        if (current == null) {
+            throw new IllegalStateException("Exchange rates not available");
+        }
+        BigDecimal rate = current.rate(from, to);
+        if (rate == null) {
+            throw new IllegalStateException("No exchange rate from " + from + " to " + to);
+        }
+        return rate;
+    }
+
+    /**
+     * Loads new rates from the provider, keeping the previous rates if that fails.
+     */
+    public synchronized void refresh() {
+        try {
+            rates = provider.loadRates();
+        } catch (Exception ex) {
+            log.warn("Failed to load exchange rates, keeping the previous rates", ex);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.ico.ltd.hibernateinaction2nd.domain.converters;
+
+import com.ico.ltd.hibernateinaction2nd.domain.Currencies;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of exchange rates. The rates are indexed by target currency
+ * first, as every <code>MonetaryAmountUserType</code> converts to one fixed target.
+ */
+public final class ExchangeRates {
+
+    public static final ExchangeRates NONE = new ExchangeRates(Collections.emptyMap());
+
+    private final Map<Currency, Map<Currency, BigDecimal>> ratesByTarget;
+
+    private ExchangeRates(Map<Currency, Map<Currency, BigDecimal>> ratesByTarget) {
+        this.ratesByTarget = ratesByTarget;
+    }
+
+    /**
+     * Creates a snapshot from rates keyed by <code>FROM/TO</code> currency codes, for
+     * example <code>USD/EUR</code>.
+     */
+    public static ExchangeRates of(Map<String, BigDecimal> rates) {
+        Map<Currency, Map<Currency, BigDecimal>> ratesByTarget = new HashMap<>();
+        for (Map.Entry<String, BigDecimal> rate : rates.entrySet()) {
+            String[] pair = rate.getKey().split("/");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Expected FROM/TO currency pair: " + rate.getKey());
+            }
+            ratesByTarget.computeIfAbsent(Currencies.of(pair[1].trim()), to -> new HashMap<>())
+                    .put(Currencies.of(pair[0].trim()), rate.getValue());
+        }
+        return new ExchangeRates(ratesByTarget);
+    }
+
+    /**
+     * Returns the factor converting an amount in <code>from</code> into <code>to</code>,
+     * or <code>null</code> if this snapshot has no such rate.
+     */
+    public BigDecimal rate(Currency from, Currency to) {
+        if (from.equals(to)) {
+            return BigDecimal.ONE;
+        }
+        Map<Currency, BigDecimal> rates = ratesByTarget.get(to);
+        return rates != null ? rates.get(from) : null;
+    }
+}
@@ -0,0 +1,26 @@
+package com.ico.ltd.hibernateinaction2nd.domain.converters;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+/**
+ * Stores a weight in kilograms as whole grams. The column holds exact integers, a value reads
+ * back the same however often it's written, and Hibernate converts the arguments of query
+ * predicates on the attribute as well: <code>where i.metricWeight between :min and :max</code>
+ * compares the plain column, which can be indexed.
+ */
+@Converter
+public class GramsConverter implements AttributeConverter<Double, Long> {
+
+    private static final double GRAMS_PER_KILOGRAM = 1000;
+
+    @Override
+    public Long convertToDatabaseColumn(Double kilograms) {
+        return kilograms != null ? Math.round(kilograms * GRAMS_PER_KILOGRAM) : null;
+    }
+
+    @Override
+    public Double convertToEntityAttribute(Long grams) {
+        return grams != null ? grams / GRAMS_PER_KILOGRAM : null;
+    }
+}
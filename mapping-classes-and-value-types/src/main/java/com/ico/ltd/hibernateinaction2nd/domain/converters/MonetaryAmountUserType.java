@@ -1,5 +1,6 @@
 package com.ico.ltd.hibernateinaction2nd.domain.converters;
 
+import com.ico.ltd.hibernateinaction2nd.domain.Currencies;
 import com.ico.ltd.hibernateinaction2nd.domain.MonetaryAmount;
 import org.hibernate.HibernateException;
 import org.hibernate.engine.spi.SharedSessionContractImplementor;
@@ -31,8 +32,21 @@ import java.util.Properties;
  */
 public class MonetaryAmountUserType implements CompositeUserType, DynamicParameterizedType {
 
+    /**
+     * The setting of the session factory holding the {@link ExchangeRateTable} amounts are
+     * converted with. Without it only amounts already in the target currency can be stored.
+     */
+    public static final String EXCHANGE_RATE_TABLE = "auction.currency.exchange_rate_table";
+
+    private static final ExchangeRateTable NO_RATES = ExchangeRateTable.of(ExchangeRates.NONE);
+
     protected Currency convertTo;
 
+    protected String convertToCode;
+
+    // looked up in the settings of the session factory on first use
+    protected volatile ExchangeRateTable exchangeRateTable;
+
     /**
      * You can access some dynamic parameters here, such as the name of the mapped col-
      * umns, the mapped (entity) table, or even the annotations on the field/getter of the
@@ -50,7 +64,16 @@ public class MonetaryAmountUserType implements CompositeUserType, DynamicParamet
          * value into the database. If the parameter hasn’t been set, default to US dollars.
          */
         String convertToParameter = parameters.getProperty("convertTo");
-        this.convertTo = Currency.getInstance(convertToParameter != null ? convertToParameter : "USD");
+        this.convertTo = Currencies.of(convertToParameter != null ? convertToParameter : "USD");
+        this.convertToCode = convertTo.getCurrencyCode();
+    }
+
+    /**
+     * Sets the exchange rates explicitly, instead of looking them up in the settings of the
+     * session factory.
+     */
+    public void setExchangeRateTable(ExchangeRateTable exchangeRateTable) {
+        this.exchangeRateTable = exchangeRateTable;
     }
 
     /**
@@ -98,26 +121,25 @@ public class MonetaryAmountUserType implements CompositeUserType, DynamicParamet
 
     /**
      * Hibernate calls <code>disassemble</code> when it stores a value in the global shared second-level
-     * cache. You need to return a <code>Serializable</code> representation. For <code>MonetaryAmount</code>,
-     * a <code>String</code> representation is an easy solution. Or, because <code>MonetaryAmount</code> is actually
-     * <code>Serializable</code>, you could return it directly.
+     * cache. You need to return a <code>Serializable</code> representation. A <code>String</code>
+     * representation is an easy solution, but it's large and has to be parsed on every cache hit.
+     * Here the value is stored in a compact binary form instead, see {@link CompactMonetaryAmount}.
      */
     @Override
     public Serializable disassemble(Object value, SharedSessionContractImplementor session) throws HibernateException {
-        return value.toString();
+        return value == null ? null : CompactMonetaryAmount.encode((MonetaryAmount) value);
     }
 
 
     /**
      * Hibernate calls this method when it reads the serialized
      * representation from the global shared second-level cache. We create a
-     * <code>MonetaryAmount</code> instance from the <code>String</code>
-     * representation. Or, if have stored a serialized <code>MonetaryAmount</code>,
-     * you could return it directly.
+     * <code>MonetaryAmount</code> instance from the binary representation, without
+     * parsing any text.
      */
     @Override
     public Object assemble(Serializable cached, SharedSessionContractImplementor session, Object owner) throws HibernateException {
-        return MonetaryAmount.fromString((String) cached);
+        return cached == null ? null : CompactMonetaryAmount.decode((byte[]) cached);
     }
 
     /**
@@ -133,7 +155,8 @@ public class MonetaryAmountUserType implements CompositeUserType, DynamicParamet
     /**
      * This is called to read the ResultSet when a MonetaryAmount value has to be retrieved
      * from the database. You take the amount and currency values as given in the query
-     * result and create a new instance of MonetaryAmount .
+     * result and create a new instance of MonetaryAmount . Currencies are interned and
+     * common amounts are shared, so loading rows with equal prices doesn't create garbage.
      */
     @Override
     public Object nullSafeGet(ResultSet rs, String[] names, SharedSessionContractImplementor session, Object owner) throws HibernateException, SQLException {
@@ -141,9 +164,9 @@ public class MonetaryAmountUserType implements CompositeUserType, DynamicParamet
         if (rs.wasNull()) {
             return null;
         }
-        Currency currency = Currency.getInstance(rs.getString(names[1]));
+        Currency currency = Currencies.of(rs.getString(names[1]));
 
-        return new MonetaryAmount(amount, currency);
+        return MonetaryAmount.of(amount, currency);
     }
 
     /**
@@ -160,22 +183,35 @@ public class MonetaryAmountUserType implements CompositeUserType, DynamicParamet
             st.setNull(index + 1, StandardBasicTypes.CURRENCY.sqlType());
         } else {
             MonetaryAmount amount = (MonetaryAmount) value;
-            MonetaryAmount dbAmount = convert(amount, convertTo);
-            st.setBigDecimal(index, dbAmount.getValue());
-            st.setString(index + 1, convertTo.getCurrencyCode());
+            st.setBigDecimal(index, convert(amount, session));
+            st.setString(index + 1, convertToCode);
         }
     }
 
     /**
-     * Here you can implement whatever currency conversion routine you need. For the
-     * sake of the example, you double the value so you can easily test whether conversion
-     * was successful. You’ll have to replace this code with a real currency converter in a real
-     * application. It’s not a method of the Hibernate UserType API .
+     * Converts the amount with the current rate from the {@link ExchangeRateTable}, a
+     * constant-time lookup in an immutable snapshot that doesn't block concurrent writers.
+     * It’s not a method of the Hibernate UserType API .
      */
-    protected MonetaryAmount convert(MonetaryAmount amount, Currency toCurrency) {
-        return new MonetaryAmount(
-                amount.getValue().multiply(new BigDecimal(2)),
-                toCurrency);
+    protected BigDecimal convert(MonetaryAmount amount, SharedSessionContractImplementor session) {
+        try {
+            return amount.getValue().multiply(
+                    exchangeRateTable(session).rate(amount.getCurrency(), convertTo));
+        } catch (IllegalStateException ex) {
+            throw new HibernateException("Can't convert " + amount + " to " + convertToCode, ex);
+        }
+    }
+
+    private ExchangeRateTable exchangeRateTable(SharedSessionContractImplementor session) {
+        ExchangeRateTable table = exchangeRateTable;
+        if (table == null) {
+            Object configured = session != null
+                    ? session.getFactory().getProperties().get(EXCHANGE_RATE_TABLE)
+                    : null;
+            table = configured instanceof ExchangeRateTable ? (ExchangeRateTable) configured : NO_RATES;
+            exchangeRateTable = table;
+        }
+        return table;
     }
 
     /**
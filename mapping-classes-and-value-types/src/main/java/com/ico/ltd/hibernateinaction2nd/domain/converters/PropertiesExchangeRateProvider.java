@@ -0,0 +1,35 @@
+package com.ico.ltd.hibernateinaction2nd.domain.converters;
+
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Reads exchange rates from a local properties file, one <code>FROM/TO=factor</code>
+ * entry per line, for example <code>USD/EUR=0.92</code>. The file is read again on every
+ * refresh of the {@link ExchangeRateTable}, so it can be edited while the application runs.
+ */
+public class PropertiesExchangeRateProvider implements ExchangeRateProvider {
+
+    protected final URL location;
+
+    public PropertiesExchangeRateProvider(URL location) {
+        this.location = location;
+    }
+
+    @Override
+    public ExchangeRates loadRates() throws Exception {
+        Properties properties = new Properties();
+        try (InputStream in = location.openStream()) {
+            properties.load(in);
+        }
+        Map<String, BigDecimal> rates = new HashMap<>();
+        for (String pair : properties.stringPropertyNames()) {
+            rates.put(pair, new BigDecimal(properties.getProperty(pair).trim()));
+        }
+        return ExchangeRates.of(rates);
+    }
+}
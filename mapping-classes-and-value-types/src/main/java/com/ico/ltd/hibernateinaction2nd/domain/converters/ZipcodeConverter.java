@@ -1,8 +1,7 @@
 package com.ico.ltd.hibernateinaction2nd.domain.converters;
 
-import com.ico.ltd.hibernateinaction2nd.domain.GermanZipcode;
-import com.ico.ltd.hibernateinaction2nd.domain.SwissZipcode;
 import com.ico.ltd.hibernateinaction2nd.domain.Zipcode;
+import com.ico.ltd.hibernateinaction2nd.domain.Zipcodes;
 
 import javax.persistence.AttributeConverter;
 import javax.persistence.Converter;
@@ -12,16 +11,17 @@ public class ZipcodeConverter implements AttributeConverter<Zipcode, String> {
 
     @Override
     public String convertToDatabaseColumn(Zipcode attribute) {
-        return attribute.getValue();
+        return attribute != null ? attribute.getValue() : null;
     }
 
+    /**
+     * Zipcodes are interned, loading many users doesn't create a zipcode instance per address.
+     */
     @Override
     public Zipcode convertToEntityAttribute(String code) {
-        if (code.length() == 5) {
-            return new GermanZipcode(code);
-        } else if (code.length() == 4) {
-            return new SwissZipcode(code);
+        if (code == null) {
+            return null;
         }
-        throw new IllegalArgumentException("Unsupported zipcode in database: " + code);
+        return Zipcodes.of(code);
     }
 }
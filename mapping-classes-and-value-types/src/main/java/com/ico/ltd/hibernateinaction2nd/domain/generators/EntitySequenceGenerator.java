@@ -0,0 +1,41 @@
+package com.ico.ltd.hibernateinaction2nd.domain.generators;
+
+import org.hibernate.MappingException;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * An enhanced sequence generator whose parameters can be overridden per entity in the
+ * Hibernate configuration, for example with <code>spring.jpa.properties.auction.id.Bid.increment_size</code>.
+ * <p>
+ * For each parameter of {@link #OVERRIDABLE_PARAMETERS}, the setting
+ * <code>auction.id.&lt;entity name&gt;.&lt;parameter&gt;</code> wins over
+ * <code>auction.id.&lt;parameter&gt;</code>, which wins over the parameter of the mapping.
+ */
+public class EntitySequenceGenerator extends SequenceStyleGenerator {
+
+    public static final String SETTINGS_PREFIX = "auction.id.";
+
+    static final String[] OVERRIDABLE_PARAMETERS = {INCREMENT_PARAM, OPT_PARAM, INITIAL_PARAM};
+
+    @Override
+    public void configure(Type type, Properties params, ServiceRegistry serviceRegistry) throws MappingException {
+        Map settings = serviceRegistry.getService(ConfigurationService.class).getSettings();
+        String entityName = params.getProperty(JPA_ENTITY_NAME);
+        for (String parameter : OVERRIDABLE_PARAMETERS) {
+            Object value = settings.get(SETTINGS_PREFIX + entityName + "." + parameter);
+            if (value == null) {
+                value = settings.get(SETTINGS_PREFIX + parameter);
+            }
+            if (value != null) {
+                params.setProperty(parameter, value.toString().trim());
+            }
+        }
+        super.configure(type, params, serviceRegistry);
+    }
+}
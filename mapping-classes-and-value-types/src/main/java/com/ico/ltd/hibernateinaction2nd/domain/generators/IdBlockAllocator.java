@@ -0,0 +1,103 @@
+package com.ico.ltd.hibernateinaction2nd.domain.generators;
+
+import org.hibernate.HibernateException;
+import org.hibernate.id.IdentifierGeneratorHelper;
+import org.hibernate.id.IntegralDataTypeHolder;
+import org.hibernate.id.enhanced.AccessCallback;
+import org.hibernate.id.enhanced.Optimizer;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pooled-lo optimizer without a lock on the insert path. Every sequence value <i>lo</i>
+ * reserves the block <i>[lo, lo + increment_size)</i>; identifiers are handed out of the
+ * current block with an atomic increment, so concurrent inserts don't wait for each other.
+ * Only the thread that finds the block exhausted calls the sequence, threads arriving
+ * meanwhile wait for the new block.
+ * <p>
+ * Hibernate's own <code>pooled-lo</code> optimizer does the same under a lock on every call.
+ * Select this one with the <code>optimizer</code> parameter set to the class name. The
+ * application isn't multi-tenant, there's one block per sequence.
+ */
+public class IdBlockAllocator implements Optimizer {
+
+    private final Class returnClass;
+
+    private final int incrementSize;
+
+    private volatile Block block = new Block(0, 0);
+
+    private volatile IntegralDataTypeHolder lastSourceValue;
+
+    public IdBlockAllocator(Class returnClass, int incrementSize) {
+        if (returnClass == null) {
+            throw new HibernateException("return class is required");
+        }
+        if (incrementSize < 1) {
+            throw new HibernateException("increment size cannot be less than 1");
+        }
+        this.returnClass = returnClass;
+        this.incrementSize = incrementSize;
+    }
+
+    @Override
+    public Serializable generate(AccessCallback callback) {
+        if (callback.getTenantIdentifier() != null) {
+            throw new HibernateException("IdBlockAllocator doesn't support multi-tenancy");
+        }
+        while (true) {
+            Block current = block;
+            long id = current.next.getAndIncrement();
+            if (id < current.limit) {
+                return value(id);
+            }
+            allocate(current, callback);
+        }
+    }
+
+    private synchronized void allocate(Block exhausted, AccessCallback callback) {
+        if (block == exhausted) {
+            IntegralDataTypeHolder value = callback.getNextValue();
+            long lo = IdentifierGeneratorHelper.extractLong(value);
+            lastSourceValue = value;
+            block = new Block(lo, lo + incrementSize);
+        }
+    }
+
+    private Serializable value(long id) {
+        if (returnClass == Long.class) {
+            return id;
+        }
+        return (Serializable) IdentifierGeneratorHelper.getIntegralDataTypeHolder(returnClass)
+                .initialize(id)
+                .makeValue();
+    }
+
+    @Override
+    public IntegralDataTypeHolder getLastSourceValue() {
+        return lastSourceValue;
+    }
+
+    @Override
+    public int getIncrementSize() {
+        return incrementSize;
+    }
+
+    @Override
+    public boolean applyIncrementSizeToSourceValues() {
+        return true;
+    }
+
+    private static final class Block {
+
+        final AtomicLong next;
+
+        final long limit;
+
+        Block(long lo, long limit) {
+            this.next = new AtomicLong(lo);
+            this.limit = limit;
+        }
+    }
+}
@@ -1,14 +1,24 @@
 @org.hibernate.annotations.GenericGenerator(
         name = "ID_GENERATOR",
-        strategy = "enhanced-sequence",
+        strategy = "com.ico.ltd.hibernateinaction2nd.domain.generators.EntitySequenceGenerator",
         parameters = {
+                // one sequence per entity (ITEM_SEQ, BID_SEQ, USER_SEQ), entities don't contend on one sequence
                 @org.hibernate.annotations.Parameter(
-                        name = "sequence-name",
-                        value = "HIBERNATE_SEQUENCE"
+                        name = "prefer_sequence_per_entity",
+                        value = "true"
                 ),
                 @org.hibernate.annotations.Parameter(
                         name = "initial_value",
                         value = "1000"
+                ),
+                // one sequence call allocates a block of 50 identifiers, see auction.id.* to change it per entity
+                @org.hibernate.annotations.Parameter(
+                        name = "increment_size",
+                        value = "50"
+                ),
+                @org.hibernate.annotations.Parameter(
+                        name = "optimizer",
+                        value = "com.ico.ltd.hibernateinaction2nd.domain.generators.IdBlockAllocator"
                 )
         })
-package com.ico.ltd.hibernateinaction2nd.domain;
\ No newline at end of file
+package com.ico.ltd.hibernateinaction2nd.domain;
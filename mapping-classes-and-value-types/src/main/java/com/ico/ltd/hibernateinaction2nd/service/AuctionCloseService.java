@@ -0,0 +1,319 @@
+package com.ico.ltd.hibernateinaction2nd.service;
+
+import com.ico.ltd.hibernateinaction2nd.domain.AuctionCloseCheckpoint;
+import com.ico.ltd.hibernateinaction2nd.domain.AuctionType;
+import com.ico.ltd.hibernateinaction2nd.domain.Bid;
+import com.ico.ltd.hibernateinaction2nd.domain.Item;
+import org.hibernate.Cache;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.query.NativeQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TemporalType;
+import java.sql.PreparedStatement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Closes the auctions of items whose <code>auctionEnd</code> has passed and records the
+ * winning bid. A run works like this:
+ * <ul>
+ * <li>the identifier range of the open, expired items is read from the index on
+ * <code>AUCTION_END</code> and split into <code>auction.close.partitions</code>
+ * partitions, one {@link AuctionCloseCheckpoint} row each,</li>
+ * <li>the partitions are closed in parallel on a fork-join pool, every partition walks its
+ * range in chunks of <code>auction.close.chunk-size</code> identifiers,</li>
+ * <li>each chunk is one transaction with one UPDATE; the database picks the winner per
+ * {@link com.ico.ltd.hibernateinaction2nd.domain.AuctionType} from the BID table, no bids are
+ * loaded,</li>
+ * <li>the checkpoint of the partition moves forward in the same transaction, so a run that was
+ * interrupted continues with the next run after its last committed chunk.</li>
+ * </ul>
+ * With the {@link PartitionedBidStore} enabled the bids aren't in the BID table: a chunk reads
+ * the auction types of its expired items, the partitions pick the winners, and the winning bids
+ * are copied into the BID table, so <code>Item#winningBid</code> can be loaded, before the
+ * items are closed with one JDBC batch.
+ * With a positive <code>auction.close.interval-ms</code> a background task starts a run at
+ * that interval, otherwise {@link #closeExpired()} has to be called.
+ */
+@Service
+public class AuctionCloseService {
+
+    private static final Logger log = LoggerFactory.getLogger(AuctionCloseService.class);
+
+    /*
+        HIGHEST_BID: the highest amount wins, LOWEST_BID: the lowest amount, FIXED_PRICE: the
+        first bid, the service accepts only bids of the buy-now price. Ties go to the earlier
+        bid. Items stored without an auction type are HIGHEST_BID auctions.
+     */
+    private static final String CLOSE =
+            "update ITEM i set " +
+                    "WINNING_BID_ID = case coalesce(i.AUCTION_TYPE, 'HIGHEST_BID') " +
+                    "when 'LOWEST_BID' then " +
+                    "(select b.ID from BID b where b.ITEM_ID = i.ID order by b.AMOUNT, b.ID limit 1) " +
+                    "when 'FIXED_PRICE' then " +
+                    "(select min(b.ID) from BID b where b.ITEM_ID = i.ID) " +
+                    "else " +
+                    "(select b.ID from BID b where b.ITEM_ID = i.ID order by b.AMOUNT desc, b.ID limit 1) " +
+                    "end, " +
+                    "CLOSED = true, " +
+                    "VERSION = VERSION + 1 " +
+                    "where i.ID between :firstId and :lastId and i.CLOSED = false and i.AUCTION_END <= :cutoff";
+
+    private static final String EXPIRED =
+            "select i.ID, coalesce(i.AUCTION_TYPE, 'HIGHEST_BID') from ITEM i " +
+                    "where i.ID between :firstId and :lastId and i.CLOSED = false and i.AUCTION_END <= :cutoff";
+
+    private static final String COPY_WINNER = "merge into BID (ID, ITEM_ID, AMOUNT) key (ID) values (?, ?, ?)";
+
+    private static final String CLOSE_ITEM =
+            "update ITEM set WINNING_BID_ID = ?, CLOSED = true, VERSION = VERSION + 1 where ID = ? and CLOSED = false";
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final int partitions;
+
+    private final int chunkSize;
+
+    private final long intervalMillis;
+
+    private final ObjectProvider<PartitionedBidStore> partitionedBidStore;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private ForkJoinPool pool;
+
+    private ScheduledExecutorService scheduler;
+
+    @PersistenceContext
+    private EntityManager em;
+
+    public AuctionCloseService(TransactionTemplate transactionTemplate,
+                               ObjectProvider<PartitionedBidStore> partitionedBidStore,
+                               @Value("${auction.close.partitions:4}") int partitions,
+                               @Value("${auction.close.chunk-size:1000}") int chunkSize,
+                               @Value("${auction.close.interval-ms:0}") long intervalMillis) {
+        this.transactionTemplate = transactionTemplate;
+        this.partitions = partitions;
+        this.chunkSize = chunkSize;
+        this.intervalMillis = intervalMillis;
+        this.partitionedBidStore = partitionedBidStore;
+    }
+
+    @PostConstruct
+    public void start() {
+        pool = new ForkJoinPool(partitions);
+
+        if (intervalMillis > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "auction-close");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    closeExpired();
+                } catch (RuntimeException e) {
+                    // the checkpoints are kept, the next run continues
+                    log.error("Closing expired auctions failed", e);
+                }
+            }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+        pool.shutdown();
+    }
+
+    /**
+     * Closes all auctions that ended until now, or continues the interrupted run. Returns
+     * immediately if a run is in progress.
+     *
+     * @return the number of closed auctions
+     */
+    public long closeExpired() {
+        if (!running.compareAndSet(false, true)) {
+            return 0;
+        }
+        try {
+            long start = System.nanoTime();
+            List<AuctionCloseCheckpoint> checkpoints = transactionTemplate.execute(status -> plan(new Date()));
+
+            List<Callable<Long>> tasks = new ArrayList<>(checkpoints.size());
+            for (AuctionCloseCheckpoint checkpoint : checkpoints) {
+                tasks.add(() -> closePartition(checkpoint));
+            }
+            long closed = 0;
+            for (Future<Long> partition : pool.invokeAll(tasks)) {
+                closed += partition.get();
+            }
+
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if (closed > 0) {
+                log.info("Closed {} auctions in {} partitions in {} ms, {} items/s",
+                        closed, checkpoints.size(), millis, closed * 1000 / Math.max(millis, 1));
+            }
+            return closed;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while closing auctions", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /*
+        The checkpoints of an interrupted run, or new partitions of equal identifier ranges.
+     */
+    protected List<AuctionCloseCheckpoint> plan(Date cutoff) {
+        List<AuctionCloseCheckpoint> checkpoints = em.createQuery(
+                "select c from AuctionCloseCheckpoint c order by c.partition", AuctionCloseCheckpoint.class)
+                .getResultList();
+        if (!checkpoints.isEmpty()) {
+            log.info("Continuing the auction close run of {}", checkpoints.get(0).getCutoff());
+            return checkpoints;
+        }
+
+        Object[] range = em.createQuery(
+                "select min(i.id), max(i.id) from Item i where i.closed = false and i.auctionEnd <= :cutoff",
+                Object[].class)
+                .setParameter("cutoff", cutoff, TemporalType.TIMESTAMP)
+                .getSingleResult();
+        if (range[0] == null) {
+            return checkpoints;
+        }
+        long firstId = (Long) range[0];
+        long lastId = (Long) range[1];
+        long width = (lastId - firstId) / partitions + 1;
+        for (int partition = 0; partition < partitions; partition++) {
+            long partitionFirstId = firstId + partition * width;
+            if (partitionFirstId > lastId) {
+                break;
+            }
+            AuctionCloseCheckpoint checkpoint = new AuctionCloseCheckpoint(
+                    partition, cutoff, partitionFirstId, Math.min(partitionFirstId + width - 1, lastId));
+            em.persist(checkpoint);
+            checkpoints.add(checkpoint);
+        }
+        return checkpoints;
+    }
+
+    protected long closePartition(AuctionCloseCheckpoint checkpoint) {
+        long closed = 0;
+        long firstId = checkpoint.getNextId();
+        while (firstId <= checkpoint.getLastId()) {
+            long lastId = Math.min(firstId + chunkSize - 1, checkpoint.getLastId());
+            closed += closeChunk(checkpoint, firstId, lastId);
+            firstId = lastId + 1;
+        }
+        return closed;
+    }
+
+    protected int closeChunk(AuctionCloseCheckpoint checkpoint, long firstId, long lastId) {
+        PartitionedBidStore store = partitionedBidStore.getIfAvailable();
+        return transactionTemplate.execute(status -> {
+            int closed;
+            if (store == null) {
+                // Hibernate doesn't parse native SQL, only the cached items are evicted
+                closed = em.createNativeQuery(CLOSE)
+                        .unwrap(NativeQuery.class)
+                        .addSynchronizedEntityClass(Item.class)
+                        .setParameter("firstId", firstId)
+                        .setParameter("lastId", lastId)
+                        .setParameter("cutoff", checkpoint.getCutoff(), TemporalType.TIMESTAMP)
+                        .executeUpdate();
+            } else {
+                closed = closeWithPartitions(store, checkpoint.getCutoff(), firstId, lastId);
+            }
+
+            AuctionCloseCheckpoint progress = em.find(AuctionCloseCheckpoint.class, checkpoint.getPartition());
+            if (lastId == checkpoint.getLastId()) {
+                em.remove(progress);
+            } else {
+                progress.setNextId(lastId + 1);
+            }
+            return closed;
+        });
+    }
+
+    private int closeWithPartitions(PartitionedBidStore store, Date cutoff, long firstId, long lastId) {
+        @SuppressWarnings("unchecked")
+        List<Object[]> expired = em.createNativeQuery(EXPIRED)
+                .setParameter("firstId", firstId)
+                .setParameter("lastId", lastId)
+                .setParameter("cutoff", cutoff, TemporalType.TIMESTAMP)
+                .getResultList();
+        if (expired.isEmpty()) {
+            return 0;
+        }
+        Map<Long, AuctionType> auctionTypes = new LinkedHashMap<>();
+        for (Object[] item : expired) {
+            auctionTypes.put(((Number) item[0]).longValue(), AuctionType.valueOf((String) item[1]));
+        }
+        Map<Long, Bid> winners = store.findWinners(auctionTypes);
+
+        int closed = em.unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement copy = connection.prepareStatement(COPY_WINNER);
+                 PreparedStatement close = connection.prepareStatement(CLOSE_ITEM)) {
+                if (!winners.isEmpty()) {
+                    for (Map.Entry<Long, Bid> winner : winners.entrySet()) {
+                        copy.setLong(1, winner.getValue().getId());
+                        copy.setLong(2, winner.getKey());
+                        copy.setBigDecimal(3, winner.getValue().getAmount());
+                        copy.addBatch();
+                    }
+                    copy.executeBatch();
+                }
+                for (Long itemId : auctionTypes.keySet()) {
+                    Bid winner = winners.get(itemId);
+                    close.setObject(1, winner != null ? winner.getId() : null, Types.BIGINT);
+                    close.setLong(2, itemId);
+                    close.addBatch();
+                }
+                return Arrays.stream(close.executeBatch()).sum();
+            }
+        });
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                Cache cache = em.getEntityManagerFactory().unwrap(SessionFactory.class).getCache();
+                auctionTypes.keySet().forEach(itemId -> cache.evictEntityData(Item.class, itemId));
+            }
+        });
+        return closed;
+    }
+}
@@ -0,0 +1,102 @@
+package com.ico.ltd.hibernateinaction2nd.service;
+
+import com.ico.ltd.hibernateinaction2nd.domain.Bid;
+import com.ico.ltd.hibernateinaction2nd.domain.BidStatistics;
+import com.ico.ltd.hibernateinaction2nd.domain.Item;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Bulk insert of bids, for the bursts at auction close. The bids are written in chunks of
+ * <code>auction.bid-ingestion.chunk-size</code>, each chunk in its own transaction. A transaction
+ * of the caller is suspended meanwhile; chunks that committed stay if it rolls back later.
+ * <ul>
+ * <li>identifiers come from the pooled-lo <code>ID_GENERATOR</code>, one sequence call per block,</li>
+ * <li>the INSERTs are sent with JDBC statement batching (<code>hibernate.jdbc.batch_size</code>),</li>
+ * <li>items aren't loaded, a <code>Bid</code> only needs a reference to set the foreign key,</li>
+ * <li>the bid statistics of the items are updated once per item and chunk,</li>
+ * <li>every chunk has its own persistence context, memory stays flat.</li>
+ * </ul>
+ * With the {@link PartitionedBidStore} enabled, every chunk is stored there instead.
+ */
+@Service
+public class BidIngestionService {
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final BidStatisticsService bidStatisticsService;
+
+    private final int chunkSize;
+
+    private final ObjectProvider<PartitionedBidStore> partitionedBidStore;
+
+    @PersistenceContext
+    private EntityManager em;
+
+    public BidIngestionService(PlatformTransactionManager transactionManager,
+                               BidStatisticsService bidStatisticsService,
+                               ObjectProvider<PartitionedBidStore> partitionedBidStore,
+                               @Value("${auction.bid-ingestion.chunk-size:1000}") int chunkSize) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.bidStatisticsService = bidStatisticsService;
+        this.chunkSize = chunkSize;
+        this.partitionedBidStore = partitionedBidStore;
+    }
+
+    /**
+     * Consumes the stream and stores every bid.
+     *
+     * @return the number of stored bids
+     */
+    public long ingest(Stream<IncomingBid> bids) {
+        long count = 0;
+        Iterator<IncomingBid> iterator = bids.iterator();
+        List<IncomingBid> chunk = new ArrayList<>(chunkSize);
+        while (iterator.hasNext()) {
+            chunk.add(iterator.next());
+            if (chunk.size() == chunkSize) {
+                count += ingestChunk(chunk);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            count += ingestChunk(chunk);
+        }
+        return count;
+    }
+
+    protected int ingestChunk(List<IncomingBid> chunk) {
+        PartitionedBidStore store = partitionedBidStore.getIfAvailable();
+        return transactionTemplate.execute(status -> {
+            if (store != null) {
+                return (int) store.insertAll(chunk);
+            }
+            Map<Long, BidStatistics> statistics = new HashMap<>();
+            for (IncomingBid incoming : chunk) {
+                Bid bid = new Bid();
+                bid.setAmount(incoming.getAmount());
+                bid.setItem(em.getReference(Item.class, incoming.getItemId()));
+                em.persist(bid);
+                statistics.merge(incoming.getItemId(), new BidStatistics().plus(incoming.getAmount()),
+                        BidStatistics::combine);
+            }
+            em.flush();
+            bidStatisticsService.add(statistics);
+            return chunk.size();
+        });
+    }
+}
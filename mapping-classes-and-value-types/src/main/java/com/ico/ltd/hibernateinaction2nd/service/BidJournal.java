@@ -0,0 +1,322 @@
+package com.ico.ltd.hibernateinaction2nd.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * The local append-only files of the bids accepted by the {@link WriteBehindBidQueue} and not
+ * yet stored. Every record is prefixed with its length and checksum, a record torn by a crash
+ * ends the recovery.
+ * <p>
+ * The journal is split into segments, <code>path.0</code>, <code>path.1</code> and so on. Bids
+ * are appended to the last segment until it holds <code>segmentSize</code> bytes, then a new
+ * one is started. A full segment is deleted as soon as all its bids are stored, so the journal
+ * only holds about the bids that aren't stored yet, however many bids pass through it.
+ * <p>
+ * With <code>sync</code> a bid is only acknowledged once its record is on disk. Bidders
+ * waiting for the disk at the same time share one <code>force()</code>: whoever syncs writes
+ * everything appended so far, the others find their record synced already.
+ */
+class BidJournal implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(BidJournal.class);
+
+    private final Object syncLock = new Object();
+
+    private final Path path;
+
+    private final boolean sync;
+
+    private final long segmentSize;
+
+    // the segments with bids that aren't stored yet, and the one appended to
+    private final Map<Long, Segment> segments = new HashMap<>();
+
+    private Segment current;
+
+    // bytes ever appended, synced and on disk, over all segments
+    private long appended;
+
+    private long synced;
+
+    private long durable;
+
+    BidJournal(Path path, boolean sync, long segmentSize) {
+        this.path = path;
+        this.sync = sync;
+        this.segmentSize = segmentSize;
+        try {
+            Path parent = path.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            for (Path segment : segments(path)) {
+                Files.delete(segment);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Can't open the bid journal " + path, ex);
+        }
+        current = open(0);
+    }
+
+    /**
+     * The segment files of the journal at <code>path</code>, oldest first.
+     */
+    static List<Path> segments(Path path) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        String prefix = path.getFileName() + ".";
+        if (!Files.isDirectory(parent)) {
+            return new ArrayList<>();
+        }
+        try (Stream<Path> files = Files.list(parent)) {
+            return files
+                    .filter(file -> file.getFileName().toString().startsWith(prefix))
+                    .filter(file -> file.getFileName().toString().substring(prefix.length()).matches("\\d+"))
+                    .sorted((a, b) -> Long.compare(number(a, prefix), number(b, prefix)))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * The bids of a journal left behind, up to the first incomplete or damaged record of each
+     * segment.
+     */
+    static List<JournaledBid> read(Path path) {
+        List<JournaledBid> bids = new ArrayList<>();
+        try {
+            for (Path segment : segments(path)) {
+                readSegment(segment, bids);
+            }
+        } catch (IOException ex) {
+            log.warn("Bid journal {} unreadable after {} bids", path, bids.size(), ex);
+        }
+        return bids;
+    }
+
+    /**
+     * Appends the bid and, with <code>sync</code>, waits until it is on disk.
+     */
+    void append(JournaledBid bid) {
+        ByteBuffer buffer = encode(bid);
+        long position;
+        synchronized (this) {
+            if (current.size >= segmentSize) {
+                rollOver();
+            }
+            try {
+                while (buffer.hasRemaining()) {
+                    current.channel.write(buffer);
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Can't append to the bid journal", ex);
+            }
+            current.size += buffer.limit();
+            current.live++;
+            bid.setSegment(current.number);
+            appended += buffer.limit();
+            position = appended;
+        }
+        if (sync) {
+            sync(position);
+        }
+    }
+
+    /**
+     * Records that the bids were stored in the database, or dropped.
+     */
+    synchronized void stored(List<JournaledBid> bids) {
+        for (JournaledBid bid : bids) {
+            Segment segment = segments.get(bid.getSegment());
+            if (segment != null) {
+                segment.live--;
+            }
+        }
+        segments.values().removeIf(segment -> {
+            if (segment == current || segment.live > 0) {
+                return false;
+            }
+            delete(segment);
+            return true;
+        });
+    }
+
+    /**
+     * The number of segment files, full ones waiting for their bids to be stored and the one
+     * appended to.
+     */
+    synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Closes the journal; the last segment is deleted too if all its bids are stored.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        current.channel.close();
+        if (current.live == 0) {
+            segments.remove(current.number);
+            delete(current);
+        }
+    }
+
+    /*
+        The full segment is forced before it's closed, a bidder syncing concurrently
+        finds its record on disk already.
+     */
+    private void rollOver() {
+        try {
+            current.channel.force(false);
+            current.channel.close();
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Can't close the bid journal segment " + current.path, ex);
+        }
+        durable = appended;
+        Segment full = current;
+        current = open(full.number + 1);
+        if (full.live == 0) {
+            segments.remove(full.number);
+            delete(full);
+        }
+    }
+
+    private Segment open(long number) {
+        Path file = path.resolveSibling(path.getFileName() + "." + number);
+        try {
+            Segment segment = new Segment(number, file, FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+            segments.put(number, segment);
+            return segment;
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Can't open the bid journal segment " + file, ex);
+        }
+    }
+
+    private void delete(Segment segment) {
+        try {
+            Files.deleteIfExists(segment.path);
+        } catch (IOException ex) {
+            log.warn("Can't delete the bid journal segment {}", segment.path, ex);
+        }
+    }
+
+    private void sync(long position) {
+        synchronized (syncLock) {
+            if (synced >= position) {
+                return;
+            }
+            long target;
+            FileChannel channel;
+            synchronized (this) {
+                target = appended;
+                channel = current.channel;
+            }
+            try {
+                channel.force(false);
+            } catch (ClosedChannelException ex) {
+                // rolled over meanwhile, which forced the segment
+                synchronized (this) {
+                    if (durable < target) {
+                        throw new UncheckedIOException("Can't sync the bid journal", ex);
+                    }
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Can't sync the bid journal", ex);
+            }
+            synced = target;
+        }
+    }
+
+    private static void readSegment(Path segment, List<JournaledBid> bids) {
+        int before = bids.size();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment)))) {
+            while (true) {
+                byte[] record;
+                long checksum;
+                try {
+                    record = new byte[in.readInt()];
+                    checksum = in.readLong();
+                    in.readFully(record);
+                } catch (EOFException ex) {
+                    break;
+                }
+                if (checksum != checksum(record)) {
+                    log.warn("Damaged record in the bid journal segment {} after {} bids", segment, bids.size() - before);
+                    break;
+                }
+                DataInputStream fields = new DataInputStream(new ByteArrayInputStream(record));
+                bids.add(new JournaledBid(fields.readLong(), fields.readLong(), new BigDecimal(fields.readUTF())));
+            }
+        } catch (IOException | RuntimeException ex) {
+            log.warn("Bid journal segment {} unreadable after {} bids", segment, bids.size() - before, ex);
+        }
+    }
+
+    private static long number(Path segment, String prefix) {
+        return Long.parseLong(segment.getFileName().toString().substring(prefix.length()));
+    }
+
+    private static ByteBuffer encode(JournaledBid bid) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(48);
+        try (DataOutputStream fields = new DataOutputStream(bytes)) {
+            fields.writeLong(bid.getId());
+            fields.writeLong(bid.getItemId());
+            fields.writeUTF(bid.getAmount().toPlainString());
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        byte[] record = bytes.toByteArray();
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + Long.BYTES + record.length);
+        buffer.putInt(record.length).putLong(checksum(record)).put(record).flip();
+        return buffer;
+    }
+
+    private static long checksum(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        return crc.getValue();
+    }
+
+    private static class Segment {
+
+        final long number;
+
+        final Path path;
+
+        final FileChannel channel;
+
+        long size;
+
+        int live;
+
+        Segment(long number, Path path, FileChannel channel) {
+            this.number = number;
+            this.path = path;
+            this.channel = channel;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.ico.ltd.hibernateinaction2nd.service;
+
+/**
+ * The write-behind queue of {@link WriteBehindBidQueue} stayed full for the whole offer
+ * timeout, the writer can't keep up with the bids; the bid wasn't accepted.
+ */
+public class BidQueueFullException extends RuntimeException {
+
+    public BidQueueFullException(String message) {
+        super(message);
+    }
+}
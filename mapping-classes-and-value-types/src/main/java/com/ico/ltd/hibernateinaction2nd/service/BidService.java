@@ -0,0 +1,248 @@
+package com.ico.ltd.hibernateinaction2nd.service;
+
+import com.ico.ltd.hibernateinaction2nd.domain.AuctionType;
+import com.ico.ltd.hibernateinaction2nd.domain.Bid;
+import com.ico.ltd.hibernateinaction2nd.domain.BidStatistics;
+import com.ico.ltd.hibernateinaction2nd.domain.Item;
+import com.ico.ltd.hibernateinaction2nd.domain.MonetaryAmount;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.CacheRetrieveMode;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityNotFoundException;
+import javax.persistence.LockTimeoutException;
+import javax.persistence.OptimisticLockException;
+import javax.persistence.PersistenceContext;
+import javax.persistence.PessimisticLockException;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Places bids, one transaction per bid. A bid is checked against the current state of the
+ * item and the rules of its {@link AuctionType}:
+ * <ul>
+ * <li><code>HIGHEST_BID</code>: at least the initial price and higher than the highest bid,</li>
+ * <li><code>LOWEST_BID</code>: lower than the lowest bid,</li>
+ * <li><code>FIXED_PRICE</code>: the buy-now price, and only the first bid wins.</li>
+ * </ul>
+ * Items without an auction type, like the ones inserted by SQL scripts, are auctioned to the
+ * highest bid, as in {@link AuctionCloseService}.
+ * Two concurrent bids on one item are serialized by the version of the item:
+ * <ul>
+ * <li>{@link ConcurrencyMode#OPTIMISTIC}: the losing transaction fails on commit and is retried
+ * against the new state of the item, after an exponential backoff with jitter, at most
+ * <code>auction.bidding.max-attempts</code> times,</li>
+ * <li>{@link ConcurrencyMode#STRIPED}: bids on the same item queue up on an in-JVM lock, one of
+ * <code>auction.bidding.lock-stripes</code>, before their transaction starts. No work is thrown
+ * away on hot items, but it only serializes bids placed in this JVM; the version check still
+ * guards against everybody else.</li>
+ * </ul>
+ * With the {@link PartitionedBidStore} enabled, the version-checked update of the item is
+ * flushed before the bid is written to its partition.
+ */
+@Service
+public class BidService {
+
+    public enum ConcurrencyMode {
+        OPTIMISTIC,
+        STRIPED
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(BidService.class);
+
+    private static final Map<String, Object> BYPASS_CACHE =
+            Collections.singletonMap("javax.persistence.cache.retrieveMode", CacheRetrieveMode.BYPASS);
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final ConcurrencyMode defaultMode;
+
+    private final int maxAttempts;
+
+    private final long initialBackoffNanos;
+
+    private final long maxBackoffNanos;
+
+    private final ReentrantLock[] stripes;
+
+    private final ObjectProvider<PartitionedBidStore> partitionedBidStore;
+
+    @PersistenceContext
+    private EntityManager em;
+
+    public BidService(PlatformTransactionManager transactionManager,
+                      ObjectProvider<PartitionedBidStore> partitionedBidStore,
+                      @Value("${auction.bidding.concurrency-mode:OPTIMISTIC}") ConcurrencyMode defaultMode,
+                      @Value("${auction.bidding.max-attempts:10}") int maxAttempts,
+                      @Value("${auction.bidding.initial-backoff-ms:1}") long initialBackoffMillis,
+                      @Value("${auction.bidding.max-backoff-ms:100}") long maxBackoffMillis,
+                      @Value("${auction.bidding.lock-stripes:256}") int lockStripes) {
+        if (Integer.bitCount(lockStripes) != 1) {
+            throw new IllegalArgumentException("auction.bidding.lock-stripes must be a power of two: " + lockStripes);
+        }
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.partitionedBidStore = partitionedBidStore;
+        this.defaultMode = defaultMode;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffNanos = TimeUnit.MILLISECONDS.toNanos(initialBackoffMillis);
+        this.maxBackoffNanos = TimeUnit.MILLISECONDS.toNanos(maxBackoffMillis);
+        this.stripes = new ReentrantLock[lockStripes];
+        for (int i = 0; i < lockStripes; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    public Bid placeBid(Long itemId, BigDecimal amount) {
+        return placeBid(itemId, amount, defaultMode);
+    }
+
+    /**
+     * Places the bid in its own transaction, suspending the transaction of the caller if there
+     * is one: the bid is committed, and its conflicts retried, before this method returns.
+     *
+     * @throws InvalidBidException           if the bid violates the rules of the auction
+     * @throws ConcurrencyFailureException   if the bid still conflicted after all attempts
+     */
+    public Bid placeBid(Long itemId, BigDecimal amount, ConcurrencyMode mode) {
+        if (mode == ConcurrencyMode.STRIPED) {
+            ReentrantLock lock = stripes[stripe(itemId)];
+            lock.lock();
+            try {
+                return placeWithRetry(itemId, amount);
+            } finally {
+                lock.unlock();
+            }
+        }
+        return placeWithRetry(itemId, amount);
+    }
+
+    protected Bid placeWithRetry(Long itemId, BigDecimal amount) {
+        for (int attempt = 1; ; attempt++) {
+            boolean retry = attempt > 1;
+            try {
+                return transactionTemplate.execute(status -> place(itemId, amount, retry));
+            } catch (RuntimeException ex) {
+                if (!isConflict(ex)) {
+                    throw ex;
+                }
+                if (attempt >= maxAttempts) {
+                    throw new ConcurrencyFailureException(
+                            "Bid on item " + itemId + " still conflicting after " + attempt + " attempts", ex);
+                }
+                log.debug("Bid on item {} conflicted, attempt {}", itemId, attempt);
+                backoff(attempt);
+            }
+        }
+    }
+
+    /*
+        A retry reads the item from the database, the cached state lost the race already.
+     */
+    private Bid place(Long itemId, BigDecimal amount, boolean retry) {
+        Item item = retry ? em.find(Item.class, itemId, BYPASS_CACHE) : em.find(Item.class, itemId);
+        if (item == null) {
+            throw new EntityNotFoundException("No item with id " + itemId);
+        }
+        validate(item, amount);
+        Bid bid = item.placeBid(amount);
+        PartitionedBidStore store = partitionedBidStore.getIfAvailable();
+        if (store == null) {
+            em.persist(bid);
+            return bid;
+        }
+        em.flush();
+        return store.insertPlaced(bid);
+    }
+
+    protected void validate(Item item, BigDecimal amount) {
+        if (amount == null || amount.signum() <= 0) {
+            throw new InvalidBidException("Bid amount must be positive");
+        }
+        if (item.getAuctionEnd() != null && item.getAuctionEnd().before(new Date())) {
+            throw new InvalidBidException("Auction of item " + item.getId() + " has ended");
+        }
+        checkAuctionRules(item, amount);
+    }
+
+    /**
+     * Checks the bid against the rules of the auction type of the item, as far as its bid
+     * statistics tell; an item without auction type takes the highest bid.
+     */
+    static void checkAuctionRules(Item item, BigDecimal amount) {
+        BidStatistics statistics = item.getBidStatistics();
+        AuctionType auctionType = item.getAuctionType() != null ? item.getAuctionType() : AuctionType.HIGHEST_BID;
+        switch (auctionType) {
+            case HIGHEST_BID:
+                MonetaryAmount initialPrice = item.getInitialPrice();
+                if (initialPrice != null && amount.compareTo(initialPrice.getValue()) < 0) {
+                    throw new InvalidBidException("Bid " + amount + " is below the initial price " + initialPrice);
+                }
+                if (statistics.getMaximum() != null && amount.compareTo(statistics.getMaximum()) <= 0) {
+                    throw new InvalidBidException("Bid " + amount + " isn't higher than " + statistics.getMaximum());
+                }
+                break;
+            case LOWEST_BID:
+                if (statistics.getMinimum() != null && amount.compareTo(statistics.getMinimum()) >= 0) {
+                    throw new InvalidBidException("Bid " + amount + " isn't lower than " + statistics.getMinimum());
+                }
+                break;
+            case FIXED_PRICE:
+                if (statistics.getCount() > 0) {
+                    throw new InvalidBidException("Item " + item.getId() + " is already sold");
+                }
+                MonetaryAmount buyNowPrice = item.getBuyNowPrice();
+                if (buyNowPrice != null && amount.compareTo(buyNowPrice.getValue()) != 0) {
+                    throw new InvalidBidException("Bid " + amount + " isn't the price " + buyNowPrice);
+                }
+                break;
+        }
+    }
+
+    /*
+        Full jitter: a random wait up to the exponentially growing limit, so the
+        bidders that collided don't collide again on their next attempt.
+     */
+    private void backoff(int attempt) {
+        long limit = Math.min(maxBackoffNanos, initialBackoffNanos << Math.min(attempt - 1, 30));
+        if (limit > 0) {
+            LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(limit + 1));
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            throw new ConcurrencyFailureException("Interrupted while retrying a bid");
+        }
+    }
+
+    private int stripe(Long itemId) {
+        long h = itemId * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & (stripes.length - 1);
+    }
+
+    private static boolean isConflict(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConcurrencyFailureException
+                    || cause instanceof OptimisticLockException
+                    || cause instanceof PessimisticLockException
+                    || cause instanceof LockTimeoutException
+                    || cause instanceof org.hibernate.StaleStateException
+                    || cause instanceof org.hibernate.PessimisticLockException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,180 @@
+package com.ico.ltd.hibernateinaction2nd.service;
+
+import com.ico.ltd.hibernateinaction2nd.domain.BidStatistics;
+import com.ico.ltd.hibernateinaction2nd.domain.Item;
+import org.hibernate.Cache;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.query.NativeQuery;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Recomputes the {@link com.ico.ltd.hibernateinaction2nd.domain.BidStatistics} columns of
+ * ITEM from the BID table, or from the {@link PartitionedBidStore} when it's enabled. Normal
+ * operation keeps them current through <code>Item#addBid()</code>; a rebuild is only needed
+ * after bids were written outside of the domain model, for example by SQL scripts.
+ */
+@Service
+public class BidStatisticsService {
+
+    static final String REBUILD =
+            "update ITEM i set " +
+                    "BID_COUNT = (select count(*) from BID b where b.ITEM_ID = i.ID), " +
+                    "BID_SUM = (select coalesce(sum(b.AMOUNT), 0) from BID b where b.ITEM_ID = i.ID), " +
+                    "BID_MIN = (select min(b.AMOUNT) from BID b where b.ITEM_ID = i.ID), " +
+                    "BID_MAX = (select max(b.AMOUNT) from BID b where b.ITEM_ID = i.ID), " +
+                    "VERSION = VERSION + 1";
+
+    private static final String ADD =
+            "update ITEM set " +
+                    "BID_COUNT = BID_COUNT + ?, " +
+                    "BID_SUM = BID_SUM + ?, " +
+                    "BID_MIN = least(coalesce(BID_MIN, ?), ?), " +
+                    "BID_MAX = greatest(coalesce(BID_MAX, ?), ?), " +
+                    "VERSION = VERSION + 1 " +
+                    "where ID = ?";
+
+    private static final String SET =
+            "update ITEM set BID_COUNT = ?, BID_SUM = ?, BID_MIN = ?, BID_MAX = ?, VERSION = VERSION + 1 where ID = ?";
+
+    private static final int PARTITIONED_CHUNK_SIZE = 1000;
+
+    private final ObjectProvider<PartitionedBidStore> partitionedBidStore;
+
+    @PersistenceContext
+    private EntityManager em;
+
+    public BidStatisticsService(ObjectProvider<PartitionedBidStore> partitionedBidStore) {
+        this.partitionedBidStore = partitionedBidStore;
+    }
+
+    /**
+     * Rebuilds the statistics of all items with a single set-based statement. With partitioned
+     * bids the items are read in chunks, every chunk aggregated by the partitions in parallel.
+     *
+     * @return the number of updated items
+     */
+    @Transactional
+    public int rebuildAll() {
+        PartitionedBidStore store = partitionedBidStore.getIfAvailable();
+        if (store == null) {
+            return rebuild(REBUILD).executeUpdate();
+        }
+        int updated = 0;
+        List<Long> itemIds = Collections.emptyList();
+        do {
+            itemIds = em.createQuery("select i.id from Item i where i.id > :lastId order by i.id", Long.class)
+                    .setParameter("lastId", itemIds.isEmpty() ? Long.MIN_VALUE : itemIds.get(itemIds.size() - 1))
+                    .setMaxResults(PARTITIONED_CHUNK_SIZE)
+                    .getResultList();
+            updated += set(store.getStatistics(itemIds));
+        } while (itemIds.size() == PARTITIONED_CHUNK_SIZE);
+        return updated;
+    }
+
+    @Transactional
+    public int rebuild(Long itemId) {
+        PartitionedBidStore store = partitionedBidStore.getIfAvailable();
+        if (store == null) {
+            return rebuild(REBUILD + " where i.ID = :itemId")
+                    .setParameter("itemId", itemId)
+                    .executeUpdate();
+        }
+        return set(Collections.singletonMap(itemId, store.getStatistics(itemId)));
+    }
+
+    /**
+     * Merges the statistics of new bids, written without <code>Item#addBid()</code>, into the
+     * stored statistics of their items. Sent as one JDBC batch with a statement per item; the
+     * version of the items is incremented, concurrent updates through the domain model fail.
+     * Hibernate doesn't see these updates, so the cached state and bid collections of the
+     * items are evicted from the second-level cache when the transaction commits.
+     *
+     * @return the number of updated items, less than the deltas if some items don't exist
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public int add(Map<Long, BidStatistics> deltas) {
+        return write(ADD, deltas, (statement, statistics) -> {
+            statement.setLong(1, statistics.getCount());
+            statement.setBigDecimal(2, statistics.getSum());
+            statement.setBigDecimal(3, statistics.getMinimum());
+            statement.setBigDecimal(4, statistics.getMinimum());
+            statement.setBigDecimal(5, statistics.getMaximum());
+            statement.setBigDecimal(6, statistics.getMaximum());
+            return 7;
+        });
+    }
+
+    private int set(Map<Long, BidStatistics> statistics) {
+        return write(SET, statistics, (statement, itemStatistics) -> {
+            statement.setLong(1, itemStatistics.getCount());
+            statement.setBigDecimal(2, itemStatistics.getSum());
+            statement.setBigDecimal(3, itemStatistics.getMinimum());
+            statement.setBigDecimal(4, itemStatistics.getMaximum());
+            return 5;
+        });
+    }
+
+    /*
+        One statement per item in a JDBC batch; the binder sets the statistics and returns
+        the position of the item identifier.
+     */
+    private int write(String sql, Map<Long, BidStatistics> deltas, StatisticsBinder binder) {
+        if (deltas.isEmpty()) {
+            return 0;
+        }
+        int updated = em.unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                for (Map.Entry<Long, BidStatistics> delta : deltas.entrySet()) {
+                    statement.setLong(binder.bind(statement, delta.getValue()), delta.getKey());
+                    statement.addBatch();
+                }
+                return Arrays.stream(statement.executeBatch()).sum();
+            }
+        });
+
+        Set<Long> itemIds = new HashSet<>(deltas.keySet());
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                Cache cache = em.getEntityManagerFactory().unwrap(SessionFactory.class).getCache();
+                for (Long itemId : itemIds) {
+                    cache.evictEntityData(Item.class, itemId);
+                    cache.evictCollectionData(Item.class.getName() + ".bids", itemId);
+                }
+            }
+        });
+        return updated;
+    }
+
+    /*
+        Hibernate doesn't parse native SQL, tell it which entity the statement
+        modifies so only that part of the second-level cache is invalidated.
+     */
+    private NativeQuery<?> rebuild(String sql) {
+        return em.createNativeQuery(sql)
+                .unwrap(NativeQuery.class)
+                .addSynchronizedEntityClass(Item.class);
+    }
+
+    private interface StatisticsBinder {
+
+        int bind(PreparedStatement statement, BidStatistics statistics) throws SQLException;
+    }
+}
@@ -0,0 +1,134 @@
+package com.ico.ltd.hibernateinaction2nd.service;
+
+import com.ico.ltd.hibernateinaction2nd.domain.Item;
+import com.ico.ltd.hibernateinaction2nd.domain.MonetaryAmount;
+
+/**
+ * Output formats of the {@link ItemExporter}, one line per item.
+ */
+public enum ExportFormat {
+
+    CSV {
+        @Override
+        public String header() {
+            return "ID,NAME,DESCRIPTION,AUCTIONEND,AUCTIONTYPE,METRICWEIGHT," +
+                    "INITIALPRICE_AMOUNT,INITIALPRICE_CURRENCY,BUYNOWPRICE_AMOUNT,BUYNOWPRICE_CURRENCY\n";
+        }
+
+        @Override
+        public void append(Item item, StringBuilder line) {
+            line.append(item.getId()).append(',');
+            quoted(item.getName(), line).append(',');
+            quoted(item.getDescription(), line).append(',');
+            if (item.getAuctionEnd() != null) {
+                line.append(item.getAuctionEnd().toInstant());
+            }
+            line.append(',').append(item.getAuctionType())
+                    .append(',').append(item.getMetricWeight());
+            amount(item.getInitialPrice(), line);
+            amount(item.getBuyNowPrice(), line);
+            line.append('\n');
+        }
+
+        private StringBuilder quoted(String value, StringBuilder line) {
+            if (value == null) {
+                return line;
+            }
+            line.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') {
+                    line.append('"');
+                }
+                line.append(c);
+            }
+            return line.append('"');
+        }
+
+        private void amount(MonetaryAmount amount, StringBuilder line) {
+            line.append(',');
+            if (amount != null) {
+                line.append(amount.getValue().toPlainString()).append(',').append(amount.getCurrency());
+            } else {
+                line.append(',');
+            }
+        }
+    },
+
+    /**
+     * Newline-delimited JSON, one object per line.
+     */
+    NDJSON {
+        @Override
+        public String header() {
+            return "";
+        }
+
+        @Override
+        public void append(Item item, StringBuilder line) {
+            line.append("{\"id\":").append(item.getId());
+            line.append(",\"name\":");
+            string(item.getName(), line);
+            line.append(",\"description\":");
+            string(item.getDescription(), line);
+            line.append(",\"auctionEnd\":");
+            string(item.getAuctionEnd() != null ? item.getAuctionEnd().toInstant().toString() : null, line);
+            line.append(",\"auctionType\":");
+            string(item.getAuctionType() != null ? item.getAuctionType().name() : null, line);
+            line.append(",\"metricWeight\":").append(item.getMetricWeight());
+            line.append(",\"initialPrice\":");
+            amount(item.getInitialPrice(), line);
+            line.append(",\"buyNowPrice\":");
+            amount(item.getBuyNowPrice(), line);
+            line.append("}\n");
+        }
+
+        private void string(String value, StringBuilder line) {
+            if (value == null) {
+                line.append("null");
+                return;
+            }
+            line.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"':
+                        line.append("\\\"");
+                        break;
+                    case '\\':
+                        line.append("\\\\");
+                        break;
+                    case '\n':
+                        line.append("\\n");
+                        break;
+                    case '\r':
+                        line.append("\\r");
+                        break;
+                    case '\t':
+                        line.append("\\t");
+                        break;
+                    default:
+                        if (c < 0x20) {
+                            line.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            line.append(c);
+                        }
+                }
+            }
+            line.append('"');
+        }
+
+        private void amount(MonetaryAmount amount, StringBuilder line) {
+            if (amount == null) {
+                line.append("null");
+                return;
+            }
+            line.append("{\"value\":").append(amount.getValue().toPlainString())
+                    .append(",\"currency\":\"").append(amount.getCurrency()).append("\"}");
+        }
+    };
+
+    public abstract String header();
+
+    public abstract void append(Item item, StringBuilder line);
+}
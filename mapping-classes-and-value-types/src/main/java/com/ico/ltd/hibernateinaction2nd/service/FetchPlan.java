@@ -0,0 +1,70 @@
+package com.ico.ltd.hibernateinaction2nd.service;
+
+import com.ico.ltd.hibernateinaction2nd.domain.Bid;
+import com.ico.ltd.hibernateinaction2nd.domain.Item;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The fetch plans of the auction use cases, backed by the named entity graphs of the domain
+ * classes. All associations are lazy by default; a plan names what a use case needs to load
+ * in the same SELECT, so iterating the results doesn't trigger N+1 selects.
+ * <pre>
+ * List&lt;Item&gt; items = FetchPlan.ITEM_WITH_BIDS.applyTo(
+ *         em.createQuery("select i from Item i", Item.class), em).getResultList();
+ * </pre>
+ */
+public enum FetchPlan {
+
+    /**
+     * Items without their bids.
+     */
+    ITEM_LISTING(Item.class, "Item.listing"),
+
+    /**
+     * Items and all their bids.
+     */
+    ITEM_WITH_BIDS(Item.class, "Item.withBids"),
+
+    /**
+     * Bids and the items they were placed on.
+     */
+    BID_FEED(Bid.class, "Bid.feed");
+
+    /**
+     * The JPA hint for a load graph: attributes in the graph are fetched eagerly, all
+     * others keep their mapped fetch type.
+     */
+    public static final String LOAD_GRAPH = "javax.persistence.loadgraph";
+
+    private final Class<?> entityClass;
+
+    private final String graphName;
+
+    FetchPlan(Class<?> entityClass, String graphName) {
+        this.entityClass = entityClass;
+        this.graphName = graphName;
+    }
+
+    public Class<?> getEntityClass() {
+        return entityClass;
+    }
+
+    public String getGraphName() {
+        return graphName;
+    }
+
+    public <T> TypedQuery<T> applyTo(TypedQuery<T> query, EntityManager em) {
+        return query.setHint(LOAD_GRAPH, em.getEntityGraph(graphName));
+    }
+
+    /**
+     * The hints for <code>EntityManager#find()</code>.
+     */
+    public Map<String, Object> hints(EntityManager em) {
+        return Collections.singletonMap(LOAD_GRAPH, em.getEntityGraph(graphName));
+    }
+}
@@ -0,0 +1,26 @@
+package com.ico.ltd.hibernateinaction2nd.service;
+
+import java.math.BigDecimal;
+
+/**
+ * A bid amount for an item, as received by {@link BidIngestionService}.
+ */
+public class IncomingBid {
+
+    protected final Long itemId;
+
+    protected final BigDecimal amount;
+
+    public IncomingBid(Long itemId, BigDecimal amount) {
+        this.itemId = itemId;
+        this.amount = amount;
+    }
+
+    public Long getItemId() {
+        return itemId;
+    }
+
+    public BigDecimal getAmount() {
+        return amount;
+    }
+}
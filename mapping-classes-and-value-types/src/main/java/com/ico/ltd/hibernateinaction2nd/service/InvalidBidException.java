@@ -0,0 +1,11 @@
+package com.ico.ltd.hibernateinaction2nd.service;
+
+/**
+ * The bid doesn't satisfy the rules of the auction, see {@link BidService}.
+ */
+public class InvalidBidException extends RuntimeException {
+
+    public InvalidBidException(String message) {
+        super(message);
+    }
+}
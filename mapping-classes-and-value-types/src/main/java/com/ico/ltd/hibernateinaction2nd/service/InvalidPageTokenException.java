@@ -0,0 +1,11 @@
+package com.ico.ltd.hibernateinaction2nd.service;
+
+/**
+ * The page token wasn't issued for the listing it was passed to, see {@link KeysetPage}.
+ */
+public class InvalidPageTokenException extends RuntimeException {
+
+    public InvalidPageTokenException(String token) {
+        super("Invalid page token: " + token);
+    }
+}
@@ -0,0 +1,330 @@
+package com.ico.ltd.hibernateinaction2nd.service;
+
+import com.ico.ltd.hibernateinaction2nd.domain.Bid;
+import com.ico.ltd.hibernateinaction2nd.domain.Item;
+import com.ico.ltd.hibernateinaction2nd.domain.ItemBidSummary;
+import org.hibernate.Cache;
+import org.hibernate.Session;
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.action.spi.BeforeTransactionCompletionProcess;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.persister.entity.EntityPersister;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceContext;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the ITEM_BID_SUMMARY table current with append-only deltas. <code>Bid</code> is
+ * immutable, so every inserted bid simply adds one to the count of its item; every inserted
+ * <code>Item</code> gets its (empty) summary row.
+ * <p>
+ * The deltas are collected per session by a Hibernate post-insert listener. With a
+ * <code>auction.bid-summary.max-staleness-ms</code> of <code>0</code> (the default) they're
+ * written right before the transaction commits, in the same transaction. With a positive value
+ * the deltas of committed transactions are merged in memory and written by a background task
+ * at that interval, so summaries may lag behind the BID table by at most that bound; the
+ * deltas still held are written when the application shuts down.
+ * <p>
+ * Bids stored in the {@link PartitionedBidStore} aren't Hibernate inserts, the store adds their
+ * counts with {@link #add(Map)}; {@link #rebuildAll()} counts them in the partitions.
+ */
+@Component
+public class ItemBidSummaryMaintainer implements PostInsertEventListener {
+
+    private static final Logger log = LoggerFactory.getLogger(ItemBidSummaryMaintainer.class);
+
+    private static final String INCREMENT =
+            "update ITEM_BID_SUMMARY set NUMBER_OF_BIDS = NUMBER_OF_BIDS + ? where ITEM_ID = ?";
+
+    private static final String INSERT =
+            "insert into ITEM_BID_SUMMARY (ITEM_ID, NUMBER_OF_BIDS) values (?, ?)";
+
+    private static final String DELETE_ALL = "delete from ITEM_BID_SUMMARY";
+
+    private static final String REBUILD =
+            "insert into ITEM_BID_SUMMARY (ITEM_ID, NUMBER_OF_BIDS) " +
+                    "select i.ID, count(b.ID) from ITEM i left outer join BID b on i.ID = b.ITEM_ID " +
+                    "group by i.ID";
+
+    private static final String REBUILD_EMPTY =
+            "insert into ITEM_BID_SUMMARY (ITEM_ID, NUMBER_OF_BIDS) select ID, 0 from ITEM";
+
+    private static final int PARTITIONED_CHUNK_SIZE = 1000;
+
+    private final EntityManagerFactory entityManagerFactory;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final ObjectProvider<PartitionedBidStore> partitionedBidStore;
+
+    private final long maxStalenessMillis;
+
+    private final Map<EventSource, SessionDeltas> sessionDeltas = new ConcurrentHashMap<>();
+
+    private final Map<Long, Long> pendingDeltas = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService refresher;
+
+    @PersistenceContext
+    private EntityManager em;
+
+    public ItemBidSummaryMaintainer(EntityManagerFactory entityManagerFactory,
+                                    TransactionTemplate transactionTemplate,
+                                    ObjectProvider<PartitionedBidStore> partitionedBidStore,
+                                    @Value("${auction.bid-summary.max-staleness-ms:0}") long maxStalenessMillis) {
+        this.entityManagerFactory = entityManagerFactory;
+        this.transactionTemplate = transactionTemplate;
+        this.partitionedBidStore = partitionedBidStore;
+        this.maxStalenessMillis = maxStalenessMillis;
+    }
+
+    @PostConstruct
+    public void registerListener() {
+        entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry()
+                .getService(EventListenerRegistry.class)
+                .appendListeners(EventType.POST_INSERT, this);
+
+        if (maxStalenessMillis > 0) {
+            refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "item-bid-summary-refresher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            refresher.scheduleWithFixedDelay(
+                    this::refresh, maxStalenessMillis, maxStalenessMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops the background task and writes the deltas of the transactions committed since its
+     * last run, so a graceful stop leaves the summaries current.
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (refresher == null) {
+            return;
+        }
+        refresher.shutdown();
+        if (!refresher.awaitTermination(1, TimeUnit.MINUTES)) {
+            log.warn("Item bid summary refresher still running, writing the pending deltas anyway");
+        }
+        refresh();
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        Object entity = event.getEntity();
+        if (entity instanceof Bid) {
+            Item item = ((Bid) entity).getItem();
+            if (item != null) {
+                deltasOf(event.getSession()).add(item.getId(), 1);
+            }
+        } else if (entity instanceof Item) {
+            deltasOf(event.getSession()).add((Long) event.getId(), 0);
+        }
+    }
+
+    @Override
+    public boolean requiresPostCommitHandling(EntityPersister persister) {
+        return false;
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public boolean requiresPostCommitHanding(EntityPersister persister) {
+        return requiresPostCommitHandling(persister);
+    }
+
+    /**
+     * Writes all deltas of committed transactions that are still held in memory. Called
+     * periodically when a staleness bound is configured; call it directly to force
+     * up-to-date summaries.
+     */
+    public void refresh() {
+        if (pendingDeltas.isEmpty()) {
+            return;
+        }
+        Map<Long, Long> deltas = new HashMap<>();
+        for (Long itemId : pendingDeltas.keySet()) {
+            Long delta = pendingDeltas.remove(itemId);
+            if (delta != null) {
+                deltas.put(itemId, delta);
+            }
+        }
+        try {
+            transactionTemplate.execute(status -> {
+                em.unwrap(Session.class).doWork(connection -> apply(connection, deltas));
+                return null;
+            });
+            evict(deltas);
+        } catch (RuntimeException ex) {
+            log.warn("Failed to refresh item bid summaries, retrying with the next refresh", ex);
+            deltas.forEach((itemId, delta) -> pendingDeltas.merge(itemId, delta, Long::sum));
+        }
+    }
+
+    /**
+     * Adds the number of new bids of the items that Hibernate didn't insert, in the current
+     * transaction; the summaries are evicted when it commits.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void add(Map<Long, Long> deltas) {
+        em.unwrap(Session.class).doWork(connection -> apply(connection, deltas));
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                evict(deltas);
+            }
+        });
+    }
+
+    /**
+     * Recomputes the whole summary table from ITEM and BID, or the bid counts of the
+     * {@link PartitionedBidStore} in chunks of items.
+     */
+    public void rebuildAll() {
+        PartitionedBidStore store = partitionedBidStore.getIfAvailable();
+        transactionTemplate.execute(status -> {
+            em.unwrap(Session.class).doWork(connection -> {
+                try (PreparedStatement delete = connection.prepareStatement(DELETE_ALL);
+                     PreparedStatement rebuild = connection.prepareStatement(store == null ? REBUILD : REBUILD_EMPTY)) {
+                    delete.executeUpdate();
+                    rebuild.executeUpdate();
+                }
+            });
+            if (store != null) {
+                List<Long> itemIds = Collections.emptyList();
+                do {
+                    itemIds = em.createQuery("select i.id from Item i where i.id > :lastId order by i.id", Long.class)
+                            .setParameter("lastId", itemIds.isEmpty() ? Long.MIN_VALUE : itemIds.get(itemIds.size() - 1))
+                            .setMaxResults(PARTITIONED_CHUNK_SIZE)
+                            .getResultList();
+                    Map<Long, Long> counts = new HashMap<>();
+                    store.getStatistics(itemIds).forEach((itemId, statistics) -> {
+                        if (statistics.getCount() > 0) {
+                            counts.put(itemId, statistics.getCount());
+                        }
+                    });
+                    em.unwrap(Session.class).doWork(connection -> apply(connection, counts));
+                } while (itemIds.size() == PARTITIONED_CHUNK_SIZE);
+            }
+            return null;
+        });
+        pendingDeltas.clear();
+        entityManagerFactory.unwrap(SessionFactoryImplementor.class).getCache()
+                .evictEntityData(ItemBidSummary.class);
+    }
+
+    /*
+        Summaries are cached read-only, drop the ones that just changed.
+     */
+    private void evict(Map<Long, Long> deltas) {
+        Cache cache = entityManagerFactory.unwrap(SessionFactoryImplementor.class).getCache();
+        for (Long itemId : deltas.keySet()) {
+            cache.evictEntityData(ItemBidSummary.class, itemId);
+        }
+    }
+
+    private SessionDeltas deltasOf(EventSource session) {
+        return sessionDeltas.computeIfAbsent(session, s -> {
+            SessionDeltas deltas = new SessionDeltas();
+            s.getActionQueue().registerProcess((BeforeTransactionCompletionProcess) deltas);
+            s.getActionQueue().registerProcess((AfterTransactionCompletionProcess) deltas);
+            return deltas;
+        });
+    }
+
+    static void apply(Connection connection, Map<Long, Long> deltas) throws SQLException {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        Long[] itemIds = deltas.keySet().toArray(new Long[0]);
+        try (PreparedStatement increment = connection.prepareStatement(INCREMENT)) {
+            for (Long itemId : itemIds) {
+                increment.setLong(1, deltas.get(itemId));
+                increment.setLong(2, itemId);
+                increment.addBatch();
+            }
+            int[] updated = increment.executeBatch();
+
+            try (PreparedStatement insert = connection.prepareStatement(INSERT)) {
+                boolean missing = false;
+                for (int i = 0; i < itemIds.length; i++) {
+                    if (updated[i] == 0) {
+                        insert.setLong(1, itemIds[i]);
+                        insert.setLong(2, deltas.get(itemIds[i]));
+                        insert.addBatch();
+                        missing = true;
+                    }
+                }
+                if (missing) {
+                    insert.executeBatch();
+                }
+            }
+        }
+    }
+
+    /**
+     * The deltas of one session, written or handed over when its transaction completes.
+     */
+    private class SessionDeltas implements BeforeTransactionCompletionProcess, AfterTransactionCompletionProcess {
+
+        private final Map<Long, Long> deltas = new HashMap<>();
+
+        void add(Long itemId, long delta) {
+            deltas.merge(itemId, delta, Long::sum);
+        }
+
+        @Override
+        public void doBeforeTransactionCompletion(SessionImplementor session) {
+            if (maxStalenessMillis <= 0) {
+                session.doWork(connection -> apply(connection, deltas));
+            }
+        }
+
+        @Override
+        public void doAfterTransactionCompletion(boolean success, SharedSessionContractImplementor session) {
+            sessionDeltas.remove(session);
+            if (!success) {
+                return;
+            }
+            if (maxStalenessMillis <= 0) {
+                evict(deltas);
+            } else {
+                deltas.forEach((itemId, delta) -> pendingDeltas.merge(itemId, delta, Long::sum));
+            }
+        }
+    }
+}
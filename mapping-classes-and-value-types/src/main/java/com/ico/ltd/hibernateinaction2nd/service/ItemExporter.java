@@ -0,0 +1,80 @@
+package com.ico.ltd.hibernateinaction2nd.service;
+
+import com.ico.ltd.hibernateinaction2nd.domain.Item;
+import org.hibernate.CacheMode;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Exports all items in constant memory. The items are read with a forward-only cursor,
+ * <code>auction.export.fetch-size</code> rows per JDBC round trip, and the persistence
+ * context is cleared every <code>auction.export.clear-interval</code> items, so exported
+ * items can be garbage collected. Items are loaded read-only (no snapshots for dirty
+ * checking) and bypass the second-level cache. The lazy description is selected with the
+ * other columns, one SELECT for all items.
+ */
+@Service
+public class ItemExporter {
+
+    private final int fetchSize;
+
+    private final int clearInterval;
+
+    private final int bufferSize;
+
+    @PersistenceContext
+    private EntityManager em;
+
+    public ItemExporter(@Value("${auction.export.fetch-size:1000}") int fetchSize,
+                        @Value("${auction.export.clear-interval:1000}") int clearInterval,
+                        @Value("${auction.export.buffer-size:65536}") int bufferSize) {
+        this.fetchSize = fetchSize;
+        this.clearInterval = clearInterval;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Writes all items, ordered by identifier, to the channel. The channel isn't closed.
+     *
+     * @return the number of exported items
+     */
+    @Transactional(readOnly = true)
+    public long export(WritableByteChannel channel, ExportFormat format) {
+        Session session = em.unwrap(Session.class);
+        ChannelTextWriter writer = new ChannelTextWriter(channel, bufferSize);
+        StringBuilder line = new StringBuilder(256);
+        long count = 0;
+
+        try (ScrollableResults results = session
+                .createQuery("select i from Item i fetch all properties order by i.id", Item.class)
+                .setFetchSize(fetchSize)
+                .setReadOnly(true)
+                .setCacheMode(CacheMode.IGNORE)
+                .scroll(ScrollMode.FORWARD_ONLY)) {
+
+            writer.write(format.header());
+            while (results.next()) {
+                line.setLength(0);
+                format.append((Item) results.get(0), line);
+                writer.write(line);
+                if (++count % clearInterval == 0) {
+                    session.clear();
+                }
+            }
+            writer.flush();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return count;
+    }
+}
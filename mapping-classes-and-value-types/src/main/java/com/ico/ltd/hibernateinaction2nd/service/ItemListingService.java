@@ -0,0 +1,180 @@
+package com.ico.ltd.hibernateinaction2nd.service;
+
+import com.ico.ltd.hibernateinaction2nd.domain.Bid;
+import com.ico.ltd.hibernateinaction2nd.domain.Item;
+import org.hibernate.annotations.QueryHints;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TemporalType;
+import javax.persistence.TypedQuery;
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Item listings. Listing screens only show a few columns, so {@link #findListing(int, int)}
+ * selects just those into immutable {@link ItemListingView} instances: no entity is hydrated,
+ * there are no dirty checking snapshots and nothing is added to the persistence context.
+ */
+@Service
+@Transactional(readOnly = true)
+public class ItemListingService {
+
+    /*
+        The current price follows the rules of BidService: the lowest bid leads a LOWEST_BID
+        auction, a FIXED_PRICE item costs its buy-now price, and items without an auction type
+        go to the highest bid.
+     */
+    private static final String VIEW =
+            "select new com.ico.ltd.hibernateinaction2nd.service.ItemListingView(" +
+                    "i.id, i.name, i.shortDescription, " +
+                    "case coalesce(i.auctionType, 'HIGHEST_BID') " +
+                    "when 'LOWEST_BID' then coalesce(i.bidStatistics.minimum, i.initialPrice.value) " +
+                    "when 'FIXED_PRICE' then coalesce(i.buyNowPrice.value, i.bidStatistics.maximum, i.initialPrice.value) " +
+                    "else coalesce(i.bidStatistics.maximum, i.initialPrice.value) end, " +
+                    "i.bidStatistics.count, i.auctionEnd) ";
+
+    private static final String LISTING = VIEW + "from Item i order by i.id";
+
+    // the bounds are converted to grams, the index on the weight column finds and orders the items
+    private static final String LISTING_BY_WEIGHT = VIEW +
+            "from Item i where i.metricWeight between :minKilograms and :maxKilograms " +
+            "order by i.metricWeight, i.id";
+
+    /*
+        Keyset pagination: the next page starts after the sort key of the last row, the
+        database seeks to it in the index instead of skipping all rows before. The first
+        condition bounds the index range, the second skips the rows of the same auction end
+        up to the last one. IDX_ITEM_AUCTION_END holds both columns of the sort key, so the
+        rows are read in index order and the scan stops after a page.
+     */
+    private static final String LISTING_BY_AUCTION_END = VIEW +
+            "from Item i where i.auctionEnd is not null order by i.auctionEnd, i.id";
+
+    private static final String LISTING_BY_AUCTION_END_AFTER = VIEW +
+            "from Item i where i.auctionEnd >= :auctionEnd and (i.auctionEnd > :auctionEnd or i.id > :id) " +
+            "order by i.auctionEnd, i.id";
+
+    // H2 only reads IDX_BID_ITEM_ID_AMOUNT in order if the item is part of the sort key
+    private static final String BIDS =
+            "select b from Bid b where b.item.id = :itemId order by b.item.id, b.amount, b.id";
+
+    private static final String BIDS_AFTER =
+            "select b from Bid b where b.item.id = :itemId and b.amount >= :amount and (b.amount > :amount or b.id > :id) " +
+                    "order by b.item.id, b.amount, b.id";
+
+    private final ObjectProvider<PartitionedBidStore> partitionedBidStore;
+
+    @PersistenceContext
+    private EntityManager em;
+
+    public ItemListingService(ObjectProvider<PartitionedBidStore> partitionedBidStore) {
+        this.partitionedBidStore = partitionedBidStore;
+    }
+
+    public List<ItemListingView> findListing(int firstResult, int maxResults) {
+        return em.createQuery(LISTING, ItemListingView.class)
+                .setFirstResult(firstResult)
+                .setMaxResults(maxResults)
+                .getResultList();
+    }
+
+    /**
+     * The listing of items weighing between the bounds, inclusive, lightest first.
+     */
+    public List<ItemListingView> findListingByWeight(double minKilograms, double maxKilograms,
+                                                     int firstResult, int maxResults) {
+        return em.createQuery(LISTING_BY_WEIGHT, ItemListingView.class)
+                .setParameter("minKilograms", minKilograms)
+                .setParameter("maxKilograms", maxKilograms)
+                .setFirstResult(firstResult)
+                .setMaxResults(maxResults)
+                .getResultList();
+    }
+
+    /**
+     * A page of the listing of items ending first, without the items lacking an auction end.
+     *
+     * @param pageToken <code>null</code> for the first page, or the token of the previous page
+     * @throws InvalidPageTokenException if the token doesn't belong to this listing
+     */
+    public KeysetPage<ItemListingView> findListingByAuctionEnd(String pageToken, int pageSize) {
+        TypedQuery<ItemListingView> query;
+        if (pageToken == null) {
+            query = em.createQuery(LISTING_BY_AUCTION_END, ItemListingView.class);
+        } else {
+            String[] key = PageToken.decode(pageToken, "itemsByAuctionEnd", 2);
+            query = em.createQuery(LISTING_BY_AUCTION_END_AFTER, ItemListingView.class)
+                    .setParameter("auctionEnd", PageToken.decodeTimestamp(key[0]), TemporalType.TIMESTAMP)
+                    .setParameter("id", parseLong(key[1], pageToken));
+        }
+        return KeysetPage.of(query.setMaxResults(pageSize + 1).getResultList(), pageSize,
+                last -> PageToken.encode("itemsByAuctionEnd", PageToken.encodeTimestamp(last.getAuctionEnd()), last.getId()));
+    }
+
+    /**
+     * A page of the bids of the item, lowest amount first. The bids are read-only; with the
+     * {@link PartitionedBidStore} enabled they're read from the partition of the item.
+     *
+     * @param pageToken <code>null</code> for the first page, or the token of the previous page
+     * @throws InvalidPageTokenException if the token doesn't belong to the bids of this item
+     */
+    public KeysetPage<Bid> findBids(Long itemId, String pageToken, int pageSize) {
+        BigDecimal amount = null;
+        Long id = null;
+        if (pageToken != null) {
+            String[] key = PageToken.decode(pageToken, "bidsOfItem" + itemId, 2);
+            try {
+                amount = new BigDecimal(key[0]);
+            } catch (NumberFormatException ex) {
+                throw new InvalidPageTokenException(pageToken);
+            }
+            id = parseLong(key[1], pageToken);
+        }
+        PartitionedBidStore store = partitionedBidStore.getIfAvailable();
+        List<Bid> bids;
+        if (store != null) {
+            bids = store.findPage(itemId, amount, id, pageSize + 1);
+        } else {
+            TypedQuery<Bid> query;
+            if (amount == null) {
+                query = em.createQuery(BIDS, Bid.class);
+            } else {
+                query = em.createQuery(BIDS_AFTER, Bid.class)
+                        .setParameter("amount", amount)
+                        .setParameter("id", id);
+            }
+            bids = query
+                    .setParameter("itemId", itemId)
+                    .setHint(QueryHints.READ_ONLY, true)
+                    .setMaxResults(pageSize + 1)
+                    .getResultList();
+        }
+        return KeysetPage.of(bids, pageSize,
+                last -> PageToken.encode("bidsOfItem" + itemId, last.getAmount(), last.getId()));
+    }
+
+    /**
+     * Loads the listed items as entities, for screens that need more than the view offers.
+     * The items are read-only: Hibernate keeps no snapshots and never flushes them.
+     */
+    public List<Item> findListingItems(int firstResult, int maxResults) {
+        return FetchPlan.ITEM_LISTING.applyTo(
+                em.createQuery("select i from Item i order by i.id", Item.class), em)
+                .setHint(QueryHints.READ_ONLY, true)
+                .setFirstResult(firstResult)
+                .setMaxResults(maxResults)
+                .getResultList();
+    }
+
+    private static long parseLong(String value, String pageToken) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException ex) {
+            throw new InvalidPageTokenException(pageToken);
+        }
+    }
+}
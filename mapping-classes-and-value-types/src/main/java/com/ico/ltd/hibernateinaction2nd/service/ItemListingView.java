@@ -0,0 +1,60 @@
+package com.ico.ltd.hibernateinaction2nd.service;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+/**
+ * One row of an item listing. Created by a constructor expression in
+ * {@link ItemListingService}, never a managed entity.
+ */
+public final class ItemListingView {
+
+    private final Long id;
+
+    private final String name;
+
+    private final String shortDescription;
+
+    private final BigDecimal currentPrice;
+
+    private final long bidCount;
+
+    private final Date auctionEnd;
+
+    public ItemListingView(Long id, String name, String shortDescription, BigDecimal currentPrice, long bidCount,
+                           Date auctionEnd) {
+        this.id = id;
+        this.name = name;
+        this.shortDescription = shortDescription;
+        this.currentPrice = currentPrice;
+        this.bidCount = bidCount;
+        this.auctionEnd = auctionEnd;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getShortDescription() {
+        return shortDescription;
+    }
+
+    /**
+     * The highest bid, or the initial price if there are no bids yet.
+     */
+    public BigDecimal getCurrentPrice() {
+        return currentPrice;
+    }
+
+    public long getBidCount() {
+        return bidCount;
+    }
+
+    public Date getAuctionEnd() {
+        return auctionEnd;
+    }
+}
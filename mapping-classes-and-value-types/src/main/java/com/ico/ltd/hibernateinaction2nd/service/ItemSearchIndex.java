@@ -0,0 +1,524 @@
+package com.ico.ltd.hibernateinaction2nd.service;
+
+import com.ico.ltd.hibernateinaction2nd.domain.Item;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.bytecode.enhance.spi.LazyPropertyInitializer;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostCommitDeleteEventListener;
+import org.hibernate.event.spi.PostCommitInsertEventListener;
+import org.hibernate.event.spi.PostCommitUpdateEventListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.persister.entity.EntityPersister;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceContext;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A Lucene full-text index of the names and descriptions of items in
+ * <code>auction.search.index-dir</code>, when <code>auction.search.enabled</code> is set.
+ * Searches return the identifiers of the matching items, best match first; a match in the
+ * name weighs more than one in the description. The "AUCTION " prefix of
+ * <code>Item#setName()</code> isn't indexed.
+ * <ul>
+ * <li>Items inserted, updated or deleted through Hibernate are indexed after their transaction
+ * committed, by post-commit event listeners. An update only touching other columns is skipped;
+ * a changed name with the lazy description not loaded reads the description once.</li>
+ * <li>Searches see all committed changes, the searcher is reopened if the index changed. The
+ * index is committed to disk every <code>auction.search.commit-interval-ms</code> and on
+ * shutdown.</li>
+ * <li>Changes bypassing Hibernate, SQL scripts or bulk statements, and the changes of a crash
+ * since the last index commit need a {@link #reindex()}. It runs on startup if the index is
+ * empty, or always with <code>auction.search.reindex-on-start</code>.</li>
+ * <li>A reindex overwrites the documents in place, searches keep finding the items meanwhile.
+ * Every document carries the generation of the reindex it was written in; the documents of
+ * older generations, of items deleted bypassing Hibernate, are deleted when it completes. An
+ * item the listeners indexed or deleted after the reindex started isn't written again from
+ * the rows it read, they may be older.</li>
+ * </ul>
+ */
+@Service
+@ConditionalOnProperty(name = "auction.search.enabled", havingValue = "true")
+public class ItemSearchIndex implements PostCommitInsertEventListener, PostCommitUpdateEventListener,
+        PostCommitDeleteEventListener {
+
+    private static final Logger log = LoggerFactory.getLogger(ItemSearchIndex.class);
+
+    private static final String ID = "id";
+
+    private static final String NAME = "name";
+
+    private static final String DESCRIPTION = "description";
+
+    private static final String GENERATION = "generation";
+
+    private static final float NAME_BOOST = 2f;
+
+    private static final String NAME_PREFIX = "AUCTION ";
+
+    private static final String CHUNK =
+            "select i.id, i.name, i.description from Item i where i.id > :lastId and i.id <= :endId order by i.id";
+
+    private final EntityManagerFactory entityManagerFactory;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final String indexDir;
+
+    private final int reindexThreads;
+
+    private final int reindexChunkSize;
+
+    private final long commitIntervalMillis;
+
+    private final boolean reindexOnStart;
+
+    private final Analyzer analyzer = new StandardAnalyzer();
+
+    private Directory directory;
+
+    private IndexWriter writer;
+
+    private SearcherManager searcherManager;
+
+    private ExecutorService pool;
+
+    private ScheduledExecutorService committer;
+
+    private int nameProperty;
+
+    private int descriptionProperty;
+
+    // a listener writes with the generation and records in touched atomically, the reindex
+    // starts between two listener writes
+    private final ReadWriteLock startLock = new ReentrantReadWriteLock();
+
+    private volatile long generation;
+
+    // the items indexed or deleted by the listeners while reindexing, null otherwise
+    private volatile ConcurrentMap<Long, Boolean> touched;
+
+    @PersistenceContext
+    private EntityManager em;
+
+    public ItemSearchIndex(EntityManagerFactory entityManagerFactory,
+                           TransactionTemplate transactionTemplate,
+                           @Value("${auction.search.index-dir}") String indexDir,
+                           @Value("${auction.search.reindex-threads:4}") int reindexThreads,
+                           @Value("${auction.search.reindex-chunk-size:1000}") int reindexChunkSize,
+                           @Value("${auction.search.commit-interval-ms:10000}") long commitIntervalMillis,
+                           @Value("${auction.search.reindex-on-start:false}") boolean reindexOnStart) {
+        this.entityManagerFactory = entityManagerFactory;
+        this.transactionTemplate = transactionTemplate;
+        this.indexDir = indexDir;
+        this.reindexThreads = reindexThreads;
+        this.reindexChunkSize = reindexChunkSize;
+        this.commitIntervalMillis = commitIntervalMillis;
+        this.reindexOnStart = reindexOnStart;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        directory = FSDirectory.open(Paths.get(indexDir));
+        writer = new IndexWriter(directory, new IndexWriterConfig(analyzer)
+                .setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND));
+        searcherManager = new SearcherManager(writer, null);
+
+        AtomicInteger threads = new AtomicInteger();
+        pool = Executors.newFixedThreadPool(reindexThreads, r -> {
+            Thread thread = new Thread(r, "item-reindex-" + threads.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        committer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "item-index-commit");
+            thread.setDaemon(true);
+            return thread;
+        });
+        committer.scheduleWithFixedDelay(this::commit, commitIntervalMillis, commitIntervalMillis, TimeUnit.MILLISECONDS);
+
+        SessionFactoryImplementor sessionFactory = entityManagerFactory.unwrap(SessionFactoryImplementor.class);
+        EntityPersister persister = sessionFactory.getMetamodel().entityPersister(Item.class);
+        nameProperty = persister.getEntityMetamodel().getPropertyIndex(NAME);
+        descriptionProperty = persister.getEntityMetamodel().getPropertyIndex(DESCRIPTION);
+        EventListenerRegistry listeners = sessionFactory.getServiceRegistry().getService(EventListenerRegistry.class);
+        listeners.appendListeners(EventType.POST_COMMIT_INSERT, this);
+        listeners.appendListeners(EventType.POST_COMMIT_UPDATE, this);
+        listeners.appendListeners(EventType.POST_COMMIT_DELETE, this);
+
+        if (reindexOnStart || writer.getDocStats().numDocs == 0) {
+            reindex();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException {
+        committer.shutdown();
+        pool.shutdown();
+        searcherManager.close();
+        // commits the pending changes
+        writer.close();
+        directory.close();
+    }
+
+    /**
+     * The items containing all words of the text, in the name or the description.
+     */
+    public List<Long> search(String text, int maxResults) {
+        List<String> words = analyze(text);
+        if (words.isEmpty()) {
+            return Collections.emptyList();
+        }
+        BooleanQuery.Builder query = new BooleanQuery.Builder();
+        for (String word : words) {
+            query.add(either(new TermQuery(new Term(NAME, word)), new TermQuery(new Term(DESCRIPTION, word))),
+                    BooleanClause.Occur.MUST);
+        }
+        return search(query.build(), maxResults);
+    }
+
+    /**
+     * The items containing all words of the text, the last word may be incomplete: as typed
+     * into a search field.
+     */
+    public List<Long> searchPrefix(String text, int maxResults) {
+        List<String> words = analyze(text);
+        if (words.isEmpty()) {
+            return Collections.emptyList();
+        }
+        BooleanQuery.Builder query = new BooleanQuery.Builder();
+        for (String word : words.subList(0, words.size() - 1)) {
+            query.add(either(new TermQuery(new Term(NAME, word)), new TermQuery(new Term(DESCRIPTION, word))),
+                    BooleanClause.Occur.MUST);
+        }
+        String prefix = words.get(words.size() - 1);
+        query.add(either(new PrefixQuery(new Term(NAME, prefix)), new PrefixQuery(new Term(DESCRIPTION, prefix))),
+                BooleanClause.Occur.MUST);
+        return search(query.build(), maxResults);
+    }
+
+    /**
+     * Rebuilds the index from the ITEM table. The identifier range is split into
+     * <code>auction.search.reindex-threads</code> partitions indexed in parallel, every
+     * partition reads its items in chunks of <code>auction.search.reindex-chunk-size</code>.
+     * Searches find the items as indexed before until their documents are rewritten.
+     *
+     * @return the number of indexed items
+     */
+    public synchronized long reindex() {
+        long start = System.nanoTime();
+        startLock.writeLock().lock();
+        try {
+            touched = new ConcurrentHashMap<>();
+            generation = Math.max(generation + 1, System.currentTimeMillis());
+        } finally {
+            startLock.writeLock().unlock();
+        }
+        try {
+            Object[] range = transactionTemplate.execute(status -> em.createQuery(
+                    "select min(i.id), max(i.id) from Item i", Object[].class)
+                    .getSingleResult());
+            long indexed = 0;
+            if (range[0] != null) {
+                long firstId = (Long) range[0];
+                long lastId = (Long) range[1];
+                long width = (lastId - firstId) / reindexThreads + 1;
+                List<Callable<Long>> tasks = new ArrayList<>(reindexThreads);
+                for (long partitionFirstId = firstId; partitionFirstId <= lastId; partitionFirstId += width) {
+                    long from = partitionFirstId;
+                    long to = Math.min(partitionFirstId + width - 1, lastId);
+                    tasks.add(() -> reindex(from, to));
+                }
+                for (Future<Long> partition : pool.invokeAll(tasks)) {
+                    indexed += partition.get();
+                }
+            }
+            writer.deleteDocuments(new BooleanQuery.Builder()
+                    .add(new MatchAllDocsQuery(), BooleanClause.Occur.MUST)
+                    .add(new TermQuery(new Term(GENERATION, Long.toString(generation))), BooleanClause.Occur.MUST_NOT)
+                    .build());
+            writer.commit();
+            searcherManager.maybeRefreshBlocking();
+
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            log.info("Indexed {} items in {} ms, {} items/s", indexed, millis, indexed * 1000 / Math.max(millis, 1));
+            return indexed;
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Reindexing the items failed", ex);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reindexing the items", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            touched = null;
+        }
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        if (event.getEntity() instanceof Item) {
+            Object[] state = event.getState();
+            index((Long) event.getId(), (String) state[nameProperty], description(event.getId(), state));
+        }
+    }
+
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        if (!(event.getEntity() instanceof Item)) {
+            return;
+        }
+        int[] dirty = event.getDirtyProperties();
+        boolean changed = dirty == null;
+        for (int i = 0; !changed && i < dirty.length; i++) {
+            changed = dirty[i] == nameProperty || dirty[i] == descriptionProperty;
+        }
+        if (changed) {
+            Object[] state = event.getState();
+            index((Long) event.getId(), (String) state[nameProperty], description(event.getId(), state));
+        }
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        if (event.getEntity() instanceof Item) {
+            Long id = (Long) event.getId();
+            touch(id, () -> {
+                try {
+                    writer.deleteDocuments(new Term(ID, id.toString()));
+                } catch (IOException | RuntimeException ex) {
+                    log.warn("Item {} not removed from the search index", id, ex);
+                }
+            });
+        }
+    }
+
+    @Override
+    public void onPostInsertCommitFailed(PostInsertEvent event) {
+    }
+
+    @Override
+    public void onPostUpdateCommitFailed(PostUpdateEvent event) {
+    }
+
+    @Override
+    public void onPostDeleteCommitFailed(PostDeleteEvent event) {
+    }
+
+    @Override
+    public boolean requiresPostCommitHandling(EntityPersister persister) {
+        return persister.getMappedClass() == Item.class;
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public boolean requiresPostCommitHanding(EntityPersister persister) {
+        return requiresPostCommitHandling(persister);
+    }
+
+    private long reindex(long firstId, long lastId) throws IOException {
+        long indexed = 0;
+        long last = firstId - 1;
+        while (true) {
+            long after = last;
+            List<Object[]> rows = transactionTemplate.execute(status -> em.createQuery(CHUNK, Object[].class)
+                    .setParameter("lastId", after)
+                    .setParameter("endId", lastId)
+                    .setMaxResults(reindexChunkSize)
+                    .getResultList());
+            for (Object[] row : rows) {
+                Long id = (Long) row[0];
+                Document document = document(id, (String) row[1], (String) row[2]);
+                // unless the listeners indexed or deleted the item since, with a newer state;
+                // both hold the lock of the id in the map while writing
+                touched.computeIfAbsent(id, key -> {
+                    try {
+                        writer.updateDocument(new Term(ID, id.toString()), document);
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                    return null;
+                });
+                last = id;
+            }
+            indexed += rows.size();
+            if (rows.size() < reindexChunkSize) {
+                return indexed;
+            }
+        }
+    }
+
+    private void index(Long id, String name, String description) {
+        touch(id, () -> {
+            try {
+                writer.updateDocument(new Term(ID, id.toString()), document(id, name, description));
+            } catch (IOException | RuntimeException ex) {
+                log.warn("Item {} not indexed", id, ex);
+            }
+        });
+    }
+
+    /*
+        While reindexing, the change is recorded for the reindex to skip the item.
+     */
+    private void touch(Long id, Runnable change) {
+        startLock.readLock().lock();
+        try {
+            ConcurrentMap<Long, Boolean> reindexing = touched;
+            if (reindexing == null) {
+                change.run();
+            } else {
+                reindexing.compute(id, (key, previous) -> {
+                    change.run();
+                    return Boolean.TRUE;
+                });
+            }
+        } finally {
+            startLock.readLock().unlock();
+        }
+    }
+
+    /*
+        The transaction of the event is over; a description that wasn't loaded is read
+        with a stateless session, outside of the persistence context.
+     */
+    private String description(Object id, Object[] state) {
+        Object description = state[descriptionProperty];
+        if (description != LazyPropertyInitializer.UNFETCHED_PROPERTY) {
+            return (String) description;
+        }
+        StatelessSession session = entityManagerFactory.unwrap(SessionFactory.class).openStatelessSession();
+        try {
+            return session.createQuery("select i.description from Item i where i.id = :id", String.class)
+                    .setParameter("id", id)
+                    .uniqueResult();
+        } finally {
+            session.close();
+        }
+    }
+
+    private Document document(Long id, String name, String description) {
+        Document document = new Document();
+        document.add(new StringField(ID, id.toString(), Field.Store.YES));
+        document.add(new StringField(GENERATION, Long.toString(generation), Field.Store.NO));
+        if (name != null) {
+            String words = name.startsWith(NAME_PREFIX) ? name.substring(NAME_PREFIX.length()) : name;
+            document.add(new TextField(NAME, words, Field.Store.NO));
+        }
+        if (description != null) {
+            document.add(new TextField(DESCRIPTION, description, Field.Store.NO));
+        }
+        return document;
+    }
+
+    private static Query either(Query name, Query description) {
+        return new BooleanQuery.Builder()
+                .add(new BoostQuery(name, NAME_BOOST), BooleanClause.Occur.SHOULD)
+                .add(description, BooleanClause.Occur.SHOULD)
+                .build();
+    }
+
+    private List<Long> search(Query query, int maxResults) {
+        try {
+            searcherManager.maybeRefreshBlocking();
+            IndexSearcher searcher = searcherManager.acquire();
+            try {
+                ScoreDoc[] hits = searcher.search(query, maxResults).scoreDocs;
+                List<Long> ids = new ArrayList<>(hits.length);
+                for (ScoreDoc hit : hits) {
+                    ids.add(Long.valueOf(searcher.doc(hit.doc, Collections.singleton(ID)).get(ID)));
+                }
+                return ids;
+            } finally {
+                searcherManager.release(searcher);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Searching the items failed", ex);
+        }
+    }
+
+    private List<String> analyze(String text) {
+        List<String> words = new ArrayList<>();
+        if (text == null) {
+            return words;
+        }
+        try (TokenStream tokens = analyzer.tokenStream(NAME, text)) {
+            CharTermAttribute term = tokens.addAttribute(CharTermAttribute.class);
+            tokens.reset();
+            while (tokens.incrementToken()) {
+                words.add(term.toString());
+            }
+            tokens.end();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return words;
+    }
+
+    private void commit() {
+        try {
+            if (writer.hasUncommittedChanges()) {
+                writer.commit();
+            }
+        } catch (IOException | RuntimeException ex) {
+            log.warn("Committing the search index failed, retrying with the next commit", ex);
+        }
+    }
+}
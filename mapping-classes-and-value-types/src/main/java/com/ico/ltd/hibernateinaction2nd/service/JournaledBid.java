@@ -0,0 +1,31 @@
+package com.ico.ltd.hibernateinaction2nd.service;
+
+import java.math.BigDecimal;
+
+/**
+ * An accepted bid of the {@link WriteBehindBidQueue}, with the identifier it will be stored with.
+ */
+class JournaledBid extends IncomingBid {
+
+    private final long id;
+
+    // the journal segment the bid was appended to
+    private long segment = -1;
+
+    JournaledBid(long id, Long itemId, BigDecimal amount) {
+        super(itemId, amount);
+        this.id = id;
+    }
+
+    long getId() {
+        return id;
+    }
+
+    long getSegment() {
+        return segment;
+    }
+
+    void setSegment(long segment) {
+        this.segment = segment;
+    }
+}
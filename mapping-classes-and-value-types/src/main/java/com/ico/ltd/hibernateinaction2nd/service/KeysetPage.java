@@ -0,0 +1,46 @@
+package com.ico.ltd.hibernateinaction2nd.service;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A page of a listing browsed with keyset pagination: the rows, and the token to pass for the
+ * next page, <code>null</code> on the last page. The token holds the sort key of the last row,
+ * the next page is read from there in the index; deep pages cost as much as the first.
+ */
+public final class KeysetPage<T> {
+
+    private final List<T> content;
+
+    private final String nextPageToken;
+
+    private KeysetPage(List<T> content, String nextPageToken) {
+        this.content = Collections.unmodifiableList(content);
+        this.nextPageToken = nextPageToken;
+    }
+
+    /*
+        The rows of a query limited to one more row than the page size; the extra row only
+        tells there is a next page.
+     */
+    static <T> KeysetPage<T> of(List<T> rows, int pageSize, Function<T, String> tokenOf) {
+        if (rows.size() <= pageSize) {
+            return new KeysetPage<>(rows, null);
+        }
+        List<T> content = rows.subList(0, pageSize);
+        return new KeysetPage<>(content, tokenOf.apply(content.get(pageSize - 1)));
+    }
+
+    public List<T> getContent() {
+        return content;
+    }
+
+    public String getNextPageToken() {
+        return nextPageToken;
+    }
+
+    public boolean hasNext() {
+        return nextPageToken != null;
+    }
+}
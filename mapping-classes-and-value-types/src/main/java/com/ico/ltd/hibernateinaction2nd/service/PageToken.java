@@ -0,0 +1,68 @@
+package com.ico.ltd.hibernateinaction2nd.service;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Date;
+
+/**
+ * Encodes the sort key of the last row of a {@link KeysetPage}. Clients treat the token as
+ * opaque, it names the listing it belongs to so it can't be passed to another one.
+ */
+final class PageToken {
+
+    private static final String SEPARATOR = "|";
+
+    private PageToken() {
+    }
+
+    static String encode(String listing, Object... key) {
+        StringBuilder token = new StringBuilder(listing);
+        for (Object part : key) {
+            token.append(SEPARATOR).append(part);
+        }
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(token.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The key parts of the token.
+     *
+     * @throws InvalidPageTokenException if the token isn't one of the listing
+     */
+    static String[] decode(String token, String listing, int parts) {
+        String[] decoded;
+        try {
+            decoded = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8)
+                    .split("\\" + SEPARATOR, -1);
+        } catch (IllegalArgumentException ex) {
+            throw new InvalidPageTokenException(token);
+        }
+        if (decoded.length != parts + 1 || !decoded[0].equals(listing)) {
+            throw new InvalidPageTokenException(token);
+        }
+        String[] key = new String[parts];
+        System.arraycopy(decoded, 1, key, 0, parts);
+        return key;
+    }
+
+    /*
+        Timestamps are encoded with all their nanoseconds, with milliseconds only the rows
+        after the last one within the same millisecond would be listed again.
+     */
+    static String encodeTimestamp(Date date) {
+        Instant instant = date.toInstant();
+        return instant.getEpochSecond() + "." + instant.getNano();
+    }
+
+    static Timestamp decodeTimestamp(String encoded) {
+        int dot = encoded.indexOf('.');
+        try {
+            return Timestamp.from(Instant.ofEpochSecond(
+                    Long.parseLong(encoded.substring(0, dot)), Long.parseLong(encoded.substring(dot + 1))));
+        } catch (RuntimeException ex) {
+            throw new InvalidPageTokenException(encoded);
+        }
+    }
+}
@@ -0,0 +1,466 @@
+package com.ico.ltd.hibernateinaction2nd.service;
+
+import com.ico.ltd.hibernateinaction2nd.domain.AuctionType;
+import com.ico.ltd.hibernateinaction2nd.domain.Bid;
+import com.ico.ltd.hibernateinaction2nd.domain.BidStatistics;
+import com.ico.ltd.hibernateinaction2nd.domain.Item;
+import com.zaxxer.hikari.HikariDataSource;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.IdentifierGenerator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Stores bids in <code>auction.bid-partitions.count</code> databases instead of the BID table of
+ * the main database, hash-partitioned by item, when <code>auction.bid-partitions.enabled</code>
+ * is set. Bids are only ever read per item, so an item's bids all live in one partition:
+ * <ul>
+ * <li>inserts and per-item reads go to the owning partition only, its table and index grow
+ * with a fraction of all bids,</li>
+ * <li>aggregates over many items or all bids are sent to the partitions involved in parallel
+ * and merged, see {@link #getStatistics(Collection)} and {@link #getTotalStatistics()},</li>
+ * <li>identifiers still come from the <code>ID_GENERATOR</code> of <code>Bid</code>, they are
+ * unique across partitions and a bid can be referenced as winning bid of its item.</li>
+ * </ul>
+ * The partitions are found with <code>auction.bid-partitions.url</code>, a format with the
+ * partition number as argument; the schema is created on startup.
+ * <p>
+ * When enabled, {@link BidService}, {@link BidIngestionService} and {@link WriteBehindBidQueue}
+ * store their bids here, {@link ItemListingService#findBids} pages through them, the
+ * {@link AuctionCloseService} picks the winners here and the statistics and summaries are
+ * rebuilt from here. Storing a bid updates the bid statistics, the version and the summary of
+ * its item in the main database like the BID table does. Hibernate doesn't route entities to
+ * databases though: the BID table of the main database only holds the winning bids copied there
+ * by the close job, so <code>Item#winningBid</code> can be loaded. Inserting <code>Bid</code>
+ * entities, loading the <code>Item#bids</code> collection and the <code>Bid.findByItem</code>
+ * query fail, see
+ * {@link com.ico.ltd.hibernateinaction2nd.config.BidPartitionConfiguration}; read the bids of an
+ * item with {@link #findByItem(Long)}.
+ * <p>
+ * There is no distributed transaction. The rows of the main database are written first, in the
+ * transaction of the caller, then every partition commits its rows on its own; a failing
+ * partition rolls the main database back, but when the transaction of the caller fails after
+ * the partitions committed, their bids stay without being counted. The rows are merged on their
+ * identifier, storing the same bids again doesn't fail.
+ */
+@Service
+@ConditionalOnProperty(name = "auction.bid-partitions.enabled", havingValue = "true")
+public class PartitionedBidStore {
+
+    private static final String CREATE_TABLE =
+            "create table if not exists BID (" +
+                    "ID bigint not null primary key, " +
+                    "ITEM_ID bigint not null, " +
+                    "AMOUNT decimal(19, 2) not null)";
+
+    // the index of the BID table in the main database; no foreign key, ITEM is elsewhere
+    private static final String CREATE_INDEX =
+            "create index if not exists IDX_BID_ITEM_ID_AMOUNT on BID (ITEM_ID, AMOUNT)";
+
+    private static final String INSERT = "merge into BID (ID, ITEM_ID, AMOUNT) key (ID) values (?, ?, ?)";
+
+    private static final String FIND_BY_ITEM = "select ID, AMOUNT from BID where ITEM_ID = ? order by AMOUNT desc";
+
+    // the order of IDX_BID_ITEM_ID_AMOUNT, like the keyset pagination of the main database
+    private static final String FIND_PAGE =
+            "select ID, AMOUNT from BID where ITEM_ID = ? order by ITEM_ID, AMOUNT, ID limit ?";
+
+    private static final String FIND_PAGE_AFTER =
+            "select ID, AMOUNT from BID where ITEM_ID = ? and AMOUNT >= ? and (AMOUNT > ? or ID > ?) " +
+                    "order by ITEM_ID, AMOUNT, ID limit ?";
+
+    // the first bid in the order of the auction type wins, like in AuctionCloseService
+    private static final String WINNERS =
+            "select ITEM_ID, ID, AMOUNT from (" +
+                    "select ITEM_ID, ID, AMOUNT, row_number() over (partition by ITEM_ID order by %s) as N " +
+                    "from BID where ITEM_ID in (%s)) where N = 1";
+
+    private static final Map<AuctionType, String> WINNER_ORDER = new EnumMap<>(AuctionType.class);
+
+    static {
+        WINNER_ORDER.put(AuctionType.HIGHEST_BID, "AMOUNT desc, ID");
+        WINNER_ORDER.put(AuctionType.LOWEST_BID, "AMOUNT, ID");
+        WINNER_ORDER.put(AuctionType.FIXED_PRICE, "ID");
+    }
+
+    private static final String STATISTICS = "select count(*), sum(AMOUNT), min(AMOUNT), max(AMOUNT) from BID";
+
+    private static final RowMapper<BidStatistics> STATISTICS_MAPPER = (rs, row) -> new BidStatistics(
+            rs.getLong(1), rs.getBigDecimal(2), rs.getBigDecimal(3), rs.getBigDecimal(4));
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final BidStatisticsService bidStatisticsService;
+
+    private final ItemBidSummaryMaintainer itemBidSummaryMaintainer;
+
+    private final int count;
+
+    private final String url;
+
+    private List<Partition> partitions;
+
+    private ExecutorService executor;
+
+    @PersistenceContext
+    private EntityManager em;
+
+    public PartitionedBidStore(TransactionTemplate transactionTemplate,
+                               BidStatisticsService bidStatisticsService,
+                               ItemBidSummaryMaintainer itemBidSummaryMaintainer,
+                               @Value("${auction.bid-partitions.count:4}") int count,
+                               @Value("${auction.bid-partitions.url}") String url) {
+        this.transactionTemplate = transactionTemplate;
+        this.bidStatisticsService = bidStatisticsService;
+        this.itemBidSummaryMaintainer = itemBidSummaryMaintainer;
+        this.count = count;
+        this.url = url;
+    }
+
+    @PostConstruct
+    public void start() {
+        partitions = new ArrayList<>(count);
+        for (int partition = 0; partition < count; partition++) {
+            HikariDataSource dataSource = new HikariDataSource();
+            dataSource.setPoolName("bid-partition-" + partition);
+            dataSource.setJdbcUrl(String.format(url, partition));
+            dataSource.setUsername("sa");
+            partitions.add(new Partition(dataSource));
+        }
+        onPartitions(allPartitions(), partition -> {
+            partitions.get(partition).jdbcTemplate.batchUpdate(CREATE_TABLE, CREATE_INDEX);
+            return null;
+        });
+
+        AtomicInteger threads = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(count, r -> {
+            Thread thread = new Thread(r, "bid-partition-query-" + threads.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+        partitions.forEach(partition -> partition.dataSource.close());
+    }
+
+    public int getPartitionCount() {
+        return count;
+    }
+
+    /**
+     * The partition of the item's bids. Identifiers from the sequence are dense, their
+     * remainders spread the items evenly.
+     */
+    public int partitionOf(Long itemId) {
+        return (int) Math.floorMod(itemId, (long) count);
+    }
+
+    /**
+     * Direct access to a partition, for maintenance and bulk loads that bypass the routing;
+     * rows must be stored in the partition of their item.
+     */
+    public JdbcOperations getJdbcOperations(int partition) {
+        return partitions.get(partition).jdbcTemplate;
+    }
+
+    /**
+     * Stores a bid in the partition of its item and adds it to the statistics of the item,
+     * without reading the item.
+     *
+     * @return the identifier of the bid
+     */
+    public long insert(Long itemId, BigDecimal amount) {
+        long id = nextIds(1)[0];
+        store(Collections.singletonList(new JournaledBid(id, itemId, amount)));
+        return id;
+    }
+
+    /**
+     * Stores the bids with one JDBC batch per partition, the partitions are written in
+     * parallel, each in its own transaction. The statistics of the items are updated once per
+     * item, in the transaction of the caller or a new one.
+     *
+     * @return the number of stored bids
+     */
+    public long insertAll(Collection<IncomingBid> bids) {
+        long[] ids = nextIds(bids.size());
+        List<JournaledBid> rows = new ArrayList<>(bids.size());
+        int i = 0;
+        for (IncomingBid bid : bids) {
+            rows.add(new JournaledBid(ids[i++], bid.getItemId(), bid.getAmount()));
+        }
+        return store(rows);
+    }
+
+    /**
+     * Stores a bid created with <code>Item#placeBid()</code>, which updated the statistics of the
+     * managed item already; the caller's transaction has to flush the item first, so a
+     * conflicting version fails before the bid is written. Only the summary of the item is
+     * updated here. Sets the identifier of the bid, which stays detached.
+     */
+    public Bid insertPlaced(Bid bid) {
+        Long itemId = bid.getItem().getId();
+        bid.setId(nextIds(1)[0]);
+        transactionTemplate.execute(status -> {
+            itemBidSummaryMaintainer.add(Collections.singletonMap(itemId, 1L));
+            write(Collections.singletonList(new JournaledBid(bid.getId(), itemId, bid.getAmount())));
+            return null;
+        });
+        return bid;
+    }
+
+    /*
+        Bids with their identifiers, from the write-behind queue and its journal. A bid on
+        a missing item fails the whole batch with a DataIntegrityViolationException, like the
+        foreign key of the BID table.
+     */
+    int store(List<JournaledBid> bids) {
+        return transactionTemplate.execute(status -> {
+            Map<Long, BidStatistics> statistics = new HashMap<>();
+            Map<Long, Long> counts = new HashMap<>();
+            for (JournaledBid bid : bids) {
+                statistics.merge(bid.getItemId(), new BidStatistics().plus(bid.getAmount()), BidStatistics::combine);
+                counts.merge(bid.getItemId(), 1L, Long::sum);
+            }
+            if (bidStatisticsService.add(statistics) < statistics.size()) {
+                throw new DataIntegrityViolationException("Bids on missing items among " + statistics.keySet());
+            }
+            itemBidSummaryMaintainer.add(counts);
+            write(bids);
+            return bids.size();
+        });
+    }
+
+    /*
+        The identifiers among the bids that are stored already, from the partitions of
+        their items.
+     */
+    Set<Long> findExisting(List<JournaledBid> bids) {
+        Map<Integer, List<Long>> idsByPartition = bids.stream().collect(Collectors.groupingBy(
+                bid -> partitionOf(bid.getItemId()), Collectors.mapping(JournaledBid::getId, Collectors.toList())));
+        Set<Long> existing = new HashSet<>();
+        onPartitions(idsByPartition.keySet(), partition -> {
+            List<Long> ids = idsByPartition.get(partition);
+            return partitions.get(partition).jdbcTemplate.queryForList(
+                    "select ID from BID where ID in (" + placeholders(ids.size()) + ")", Long.class, ids.toArray());
+        }).forEach(existing::addAll);
+        return existing;
+    }
+
+    /**
+     * The bids of the item, highest amount first, like the <code>Bid.findByItem</code> query.
+     * The item is looked up once, usually in the second-level cache; the bids are detached.
+     */
+    public List<Bid> findByItem(Long itemId) {
+        Item item = em.find(Item.class, itemId);
+        return partitions.get(partitionOf(itemId)).jdbcTemplate.query(FIND_BY_ITEM,
+                (rs, row) -> bid(rs.getLong(1), item, rs.getBigDecimal(2)), itemId);
+    }
+
+    /**
+     * A page of the bids of the item, lowest amount first, after the bid with the amount and
+     * identifier if they aren't <code>null</code>. The bids are detached.
+     */
+    public List<Bid> findPage(Long itemId, BigDecimal afterAmount, Long afterId, int maxResults) {
+        Item item = em.getReference(Item.class, itemId);
+        RowMapper<Bid> mapper = (rs, row) -> bid(rs.getLong(1), item, rs.getBigDecimal(2));
+        JdbcTemplate jdbcTemplate = partitions.get(partitionOf(itemId)).jdbcTemplate;
+        if (afterAmount == null) {
+            return jdbcTemplate.query(FIND_PAGE, mapper, itemId, maxResults);
+        }
+        return jdbcTemplate.query(FIND_PAGE_AFTER, mapper, itemId, afterAmount, afterAmount, afterId, maxResults);
+    }
+
+    /**
+     * The winning bid of each item with bids, by the rules of its auction type. Every
+     * partition holding some of the items is queried once, in parallel; the bids are detached.
+     */
+    public Map<Long, Bid> findWinners(Map<Long, AuctionType> auctionTypes) {
+        Map<Integer, List<Long>> itemsByPartition = auctionTypes.keySet().stream()
+                .collect(Collectors.groupingBy(this::partitionOf));
+        Map<Long, Bid> winners = new HashMap<>();
+        onPartitions(itemsByPartition.keySet(), partition -> {
+            Map<AuctionType, List<Long>> itemsByType = itemsByPartition.get(partition).stream()
+                    .collect(Collectors.groupingBy(auctionTypes::get));
+            List<JournaledBid> result = new ArrayList<>();
+            itemsByType.forEach((auctionType, items) -> result.addAll(partitions.get(partition).jdbcTemplate.query(
+                    String.format(WINNERS, WINNER_ORDER.get(auctionType), placeholders(items.size())),
+                    (rs, row) -> new JournaledBid(rs.getLong(2), rs.getLong(1), rs.getBigDecimal(3)),
+                    items.toArray())));
+            return result;
+        }).forEach(result -> result.forEach(winner -> winners.put(winner.getItemId(),
+                // the entity manager is bound to the calling thread
+                bid(winner.getId(), em.getReference(Item.class, winner.getItemId()), winner.getAmount()))));
+        return winners;
+    }
+
+    public BidStatistics getStatistics(Long itemId) {
+        return partitions.get(partitionOf(itemId)).jdbcTemplate
+                .queryForObject(STATISTICS + " where ITEM_ID = ?", STATISTICS_MAPPER, itemId);
+    }
+
+    /**
+     * The statistics of the bids of each item; every partition holding some of the items is
+     * queried once, in parallel. Items without bids have empty statistics.
+     */
+    public Map<Long, BidStatistics> getStatistics(Collection<Long> itemIds) {
+        Map<Integer, List<Long>> itemsByPartition = itemIds.stream()
+                .distinct()
+                .collect(Collectors.groupingBy(this::partitionOf));
+
+        Map<Long, BidStatistics> statistics = new LinkedHashMap<>();
+        itemIds.forEach(itemId -> statistics.put(itemId, new BidStatistics()));
+        onPartitions(itemsByPartition.keySet(), partition -> {
+            List<Long> items = itemsByPartition.get(partition);
+            String sql = "select ITEM_ID, count(*), sum(AMOUNT), min(AMOUNT), max(AMOUNT) from BID " +
+                    "where ITEM_ID in (" + placeholders(items.size()) + ") group by ITEM_ID";
+            return partitions.get(partition).jdbcTemplate.query(sql, rs -> {
+                Map<Long, BidStatistics> result = new HashMap<>();
+                while (rs.next()) {
+                    result.put(rs.getLong(1), new BidStatistics(
+                            rs.getLong(2), rs.getBigDecimal(3), rs.getBigDecimal(4), rs.getBigDecimal(5)));
+                }
+                return result;
+            }, items.toArray());
+        }).forEach(statistics::putAll);
+        return statistics;
+    }
+
+    /**
+     * The statistics of all stored bids, aggregated by every partition in parallel.
+     */
+    public BidStatistics getTotalStatistics() {
+        return onPartitions(allPartitions(),
+                partition -> partitions.get(partition).jdbcTemplate.queryForObject(STATISTICS, STATISTICS_MAPPER))
+                .stream()
+                .reduce(new BidStatistics(), BidStatistics::combine);
+    }
+
+    /*
+        Identifiers of the Bid sequence; a sequence call only when the block of
+        auction.id.Bid.increment_size identifiers is used up.
+     */
+    protected long[] nextIds(int size) {
+        return transactionTemplate.execute(status -> {
+            SharedSessionContractImplementor session = em.unwrap(SharedSessionContractImplementor.class);
+            IdentifierGenerator generator = session.getFactory().getMetamodel()
+                    .entityPersister(Bid.class).getIdentifierGenerator();
+            long[] ids = new long[size];
+            for (int i = 0; i < size; i++) {
+                ids[i] = (Long) generator.generate(session, null);
+            }
+            return ids;
+        });
+    }
+
+    /*
+        The rows in the partitions of their items, one batch and transaction per partition.
+     */
+    private void write(List<JournaledBid> bids) {
+        Map<Integer, List<Object[]>> rows = new HashMap<>();
+        for (JournaledBid bid : bids) {
+            rows.computeIfAbsent(partitionOf(bid.getItemId()), partition -> new ArrayList<>())
+                    .add(new Object[]{bid.getId(), bid.getItemId(), bid.getAmount()});
+        }
+        onPartitions(rows.keySet(), partition -> {
+            Partition target = partitions.get(partition);
+            return target.transactionTemplate.execute(status ->
+                    target.jdbcTemplate.batchUpdate(INSERT, rows.get(partition)).length);
+        });
+    }
+
+    /*
+        Runs the task for each partition, in parallel if there is more than one.
+     */
+    private <T> List<T> onPartitions(Collection<Integer> partitionNumbers, IntFunction<T> task) {
+        if (partitionNumbers.size() == 1 || executor == null) {
+            return partitionNumbers.stream().map(task::apply).collect(Collectors.toList());
+        }
+        List<Future<T>> futures = new ArrayList<>(partitionNumbers.size());
+        for (Integer partition : partitionNumbers) {
+            futures.add(executor.submit(() -> task.apply(partition)));
+        }
+        List<T> results = new ArrayList<>(futures.size());
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while querying the bid partitions", e);
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    private List<Integer> allPartitions() {
+        return IntStream.range(0, count).boxed().collect(Collectors.toList());
+    }
+
+    private Bid bid(long id, Item item, BigDecimal amount) {
+        Bid bid = new Bid();
+        bid.setId(id);
+        bid.setItem(item);
+        bid.setAmount(amount);
+        return bid;
+    }
+
+    private static class Partition {
+
+        final HikariDataSource dataSource;
+
+        final JdbcTemplate jdbcTemplate;
+
+        final TransactionTemplate transactionTemplate;
+
+        Partition(HikariDataSource dataSource) {
+            this.dataSource = dataSource;
+            this.jdbcTemplate = new JdbcTemplate(dataSource);
+            this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        }
+    }
+}
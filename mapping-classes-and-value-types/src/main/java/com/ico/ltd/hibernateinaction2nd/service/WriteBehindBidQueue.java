@@ -0,0 +1,513 @@
+package com.ico.ltd.hibernateinaction2nd.service;
+
+import com.ico.ltd.hibernateinaction2nd.domain.Bid;
+import com.ico.ltd.hibernateinaction2nd.domain.BidStatistics;
+import com.ico.ltd.hibernateinaction2nd.domain.Item;
+import com.ico.ltd.hibernateinaction2nd.domain.ItemBidSummary;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.exception.ConstraintViolationException;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.query.NativeQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityNotFoundException;
+import javax.persistence.PersistenceContext;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Places bids without waiting for the database, when <code>auction.write-behind.enabled</code>
+ * is set. An accepted bid is appended to the {@link BidJournal} at
+ * <code>auction.write-behind.journal</code> and to a bounded in-memory
+ * queue, and acknowledged with the identifier it will be stored with; a single writer thread
+ * drains the queue and stores the bids in the background:
+ * <ul>
+ * <li>up to <code>auction.write-behind.batch-size</code> bids per transaction, the writer
+ * waits at most <code>auction.write-behind.linger-ms</code> for a batch to fill,</li>
+ * <li>as multi-row INSERTs of {@value #ROWS_PER_INSERT} bids, with the bid statistics and
+ * summaries of the items updated once per item and batch,</li>
+ * <li>a batch failing on a constraint, a bid on a missing item, is stored bid by bid and the
+ * offending bids are dropped; any other failure is retried until the database is back.</li>
+ * </ul>
+ * The journal has no default location: it must survive a restart of the machine, which the
+ * temporary directory doesn't, so it's set for each installation.
+ * <p>
+ * The queue holds <code>auction.write-behind.capacity</code> bids that aren't stored yet. When
+ * it's full bidders wait up to <code>auction.write-behind.offer-timeout-ms</code> for the writer
+ * to catch up, then get a {@link BidQueueFullException}.
+ * <p>
+ * A bid is checked like in {@link BidService}, for a positive amount, an auction still open and
+ * the rules of its auction type, but only as far as the item in the second-level cache tells.
+ * That check is best effort: the bid statistics of the item only hold the bids stored so far,
+ * not the ones still queued, so two bids racing on a fixed price item are both accepted, as are
+ * two highest bids of the same amount, and the writer stores them regardless. A bid that is
+ * dropped later anyway, its item deleted meanwhile, can be looked up with
+ * {@link #getDropReason(long)}. Bids that weren't stored when the application stopped are
+ * stored from the journal on the next start; they keep their identifiers, bids stored already
+ * aren't stored twice. With the {@link PartitionedBidStore} enabled the batches are stored
+ * there, the statistics and summaries of the items are updated the same way.
+ */
+@Service
+@ConditionalOnProperty(name = "auction.write-behind.enabled", havingValue = "true")
+public class WriteBehindBidQueue {
+
+    private static final Logger log = LoggerFactory.getLogger(WriteBehindBidQueue.class);
+
+    // a fixed statement shape, the statement caches of Hibernate and the database keep it
+    private static final int ROWS_PER_INSERT = 100;
+
+    private static final int ID_BLOCK_SIZE = 1000;
+
+    private static final long RETRY_INTERVAL_MILLIS = 1000;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final TransactionTemplate readOnly;
+
+    private final BidStatisticsService bidStatisticsService;
+
+    private final ObjectProvider<PartitionedBidStore> partitionedBidStore;
+
+    private final int capacity;
+
+    private final int batchSize;
+
+    private final long lingerNanos;
+
+    private final long offerTimeoutMillis;
+
+    private final Path journalPath;
+
+    private final boolean journalSync;
+
+    private final long journalSegmentSize;
+
+    private final BlockingQueue<JournaledBid> queue;
+
+    // free places in the queue, a place is returned when its bid is stored
+    private final Semaphore places;
+
+    private final AtomicLong accepted = new AtomicLong();
+
+    private final AtomicLong stored = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    // why the latest dropped bids were dropped, at most as many as the queue holds
+    private final Map<Long, String> dropReasons;
+
+    private final Object idLock = new Object();
+
+    private long[] idBlock = new long[0];
+
+    private int nextId;
+
+    private BidJournal journal;
+
+    private Thread writer;
+
+    private volatile boolean running;
+
+    @PersistenceContext
+    private EntityManager em;
+
+    public WriteBehindBidQueue(TransactionTemplate transactionTemplate,
+                               BidStatisticsService bidStatisticsService,
+                               ObjectProvider<PartitionedBidStore> partitionedBidStore,
+                               @Value("${auction.write-behind.capacity:10000}") int capacity,
+                               @Value("${auction.write-behind.batch-size:500}") int batchSize,
+                               @Value("${auction.write-behind.linger-ms:5}") long lingerMillis,
+                               @Value("${auction.write-behind.offer-timeout-ms:1000}") long offerTimeoutMillis,
+                               @Value("${auction.write-behind.journal}") String journalPath,
+                               @Value("${auction.write-behind.journal-sync:true}") boolean journalSync,
+                               @Value("${auction.write-behind.journal-segment-size:16777216}") long journalSegmentSize) {
+        this.transactionTemplate = transactionTemplate;
+        this.readOnly = new TransactionTemplate(transactionTemplate.getTransactionManager());
+        this.readOnly.setReadOnly(true);
+        this.bidStatisticsService = bidStatisticsService;
+        this.partitionedBidStore = partitionedBidStore;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        this.offerTimeoutMillis = offerTimeoutMillis;
+        if (journalPath.trim().isEmpty()) {
+            throw new IllegalArgumentException("auction.write-behind.journal must be set");
+        }
+        this.journalPath = Paths.get(journalPath);
+        this.journalSync = journalSync;
+        this.journalSegmentSize = journalSegmentSize;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.places = new Semaphore(capacity);
+        this.dropReasons = Collections.synchronizedMap(new LinkedHashMap<Long, String>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+                return size() > capacity;
+            }
+        });
+    }
+
+    @PostConstruct
+    public void start() {
+        int recovered = recover(journalPath);
+        if (recovered > 0) {
+            log.info("Stored {} bids from the journal {}", recovered, journalPath);
+        }
+        journal = new BidJournal(journalPath, journalSync, journalSegmentSize);
+        running = true;
+        writer = new Thread(this::drain, "bid-write-behind");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Stops accepting bids and waits until the writer stored the queued bids. Bids it couldn't
+     * store stay in the journal.
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException, IOException {
+        running = false;
+        writer.join(TimeUnit.SECONDS.toMillis(30));
+        if (writer.isAlive()) {
+            writer.interrupt();
+            log.warn("{} bids not stored on shutdown, they're stored from the journal on the next start",
+                    queue.size());
+        }
+        journal.close();
+    }
+
+    /**
+     * Accepts the bid; it is stored once the writer gets to it.
+     *
+     * @return the identifier of the bid
+     * @throws InvalidBidException      if the amount isn't positive, the auction of the item ended
+     *                                  or the bid breaks the rules of its auction type
+     * @throws EntityNotFoundException  if there is no such item
+     * @throws BidQueueFullException    if the queue didn't get a free place within the offer timeout
+     */
+    public long placeBid(Long itemId, BigDecimal amount) {
+        if (itemId == null) {
+            throw new InvalidBidException("Bid without item");
+        }
+        if (amount == null || amount.signum() <= 0) {
+            throw new InvalidBidException("Bid amount must be positive");
+        }
+        if (!running) {
+            throw new IllegalStateException("Write-behind queue is shut down");
+        }
+        checkItem(itemId, amount);
+        try {
+            if (!places.tryAcquire(offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new BidQueueFullException(
+                        "No place for the bid on item " + itemId + " within " + offerTimeoutMillis + " ms");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new BidQueueFullException("Interrupted while waiting for a place for the bid on item " + itemId);
+        }
+        JournaledBid bid;
+        try {
+            bid = new JournaledBid(nextId(), itemId, amount);
+            journal.append(bid);
+        } catch (RuntimeException ex) {
+            places.release();
+            throw ex;
+        }
+        // never blocks, the place was taken
+        queue.add(bid);
+        accepted.incrementAndGet();
+        return bid.getId();
+    }
+
+    /**
+     * Waits until all bids accepted so far are stored or dropped.
+     *
+     * @return <code>false</code> if the timeout elapsed first
+     */
+    public boolean awaitStored(long timeout, TimeUnit unit) throws InterruptedException {
+        long target = accepted.get();
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (stored) {
+            while (stored.get() + dropped.get() < target) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(stored, remaining);
+            }
+        }
+        return true;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getPendingCount() {
+        return capacity - places.availablePermits();
+    }
+
+    public long getAcceptedCount() {
+        return accepted.get();
+    }
+
+    public long getStoredCount() {
+        return stored.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Why the bid was dropped instead of stored, <code>null</code> if it wasn't dropped, or so
+     * long ago that more than <code>auction.write-behind.capacity</code> bids were dropped since.
+     */
+    public String getDropReason(long bidId) {
+        return dropReasons.get(bidId);
+    }
+
+    int getJournalSegmentCount() {
+        return journal.getSegmentCount();
+    }
+
+    /**
+     * Stores the bids of a journal left behind that aren't in the database yet.
+     *
+     * @return the number of stored bids
+     */
+    int recover(Path path) {
+        List<JournaledBid> bids = BidJournal.read(path);
+        int recovered = 0;
+        for (int from = 0; from < bids.size(); from += batchSize) {
+            List<JournaledBid> batch = bids.subList(from, Math.min(from + batchSize, bids.size()));
+            Set<Long> existing = existingIds(batch);
+            List<JournaledBid> missing = batch.stream()
+                    .filter(bid -> !existing.contains(bid.getId()))
+                    .collect(Collectors.toList());
+            recovered += storeOrDrop(missing);
+        }
+        return recovered;
+    }
+
+    private void drain() {
+        List<JournaledBid> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                JournaledBid first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + lingerNanos;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() == batchSize || remaining <= 0) {
+                        break;
+                    }
+                    JournaledBid next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                while (true) {
+                    try {
+                        int count = storeOrDrop(batch);
+                        done(batch, count);
+                        break;
+                    } catch (RuntimeException ex) {
+                        log.warn("Storing {} bids failed, retrying in {} ms", batch.size(), RETRY_INTERVAL_MILLIS, ex);
+                        Thread.sleep(RETRY_INTERVAL_MILLIS);
+                    }
+                }
+                batch.clear();
+            } catch (InterruptedException ex) {
+                return;
+            }
+        }
+    }
+
+    private void done(List<JournaledBid> batch, int storedCount) {
+        journal.stored(batch);
+        places.release(batch.size());
+        synchronized (stored) {
+            stored.addAndGet(storedCount);
+            dropped.addAndGet(batch.size() - storedCount);
+            stored.notifyAll();
+        }
+    }
+
+    /*
+        The whole batch in one transaction, or bid by bid if a constraint fails;
+        returns the number of stored bids.
+     */
+    private int storeOrDrop(List<JournaledBid> batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        try {
+            store(batch);
+            return batch.size();
+        } catch (RuntimeException ex) {
+            if (!isConstraintViolation(ex)) {
+                throw ex;
+            }
+        }
+        int count = 0;
+        for (JournaledBid bid : batch) {
+            try {
+                store(Collections.singletonList(bid));
+                count++;
+            } catch (RuntimeException ex) {
+                if (!isConstraintViolation(ex)) {
+                    throw ex;
+                }
+                log.warn("Dropped bid {} on item {}: {}", bid.getId(), bid.getItemId(), ex.getMessage());
+                dropReasons.put(bid.getId(), "Bid on item " + bid.getItemId() + " violates a constraint: "
+                        + ex.getMessage());
+            }
+        }
+        return count;
+    }
+
+    protected void store(List<JournaledBid> bids) {
+        PartitionedBidStore store = partitionedBidStore.getIfAvailable();
+        if (store != null) {
+            store.store(bids);
+            return;
+        }
+        transactionTemplate.execute(status -> {
+            for (int from = 0; from < bids.size(); from += ROWS_PER_INSERT) {
+                insert(bids.subList(from, Math.min(from + ROWS_PER_INSERT, bids.size())));
+            }
+
+            Map<Long, BidStatistics> statistics = new HashMap<>();
+            Map<Long, Long> counts = new HashMap<>();
+            for (JournaledBid bid : bids) {
+                statistics.merge(bid.getItemId(), new BidStatistics().plus(bid.getAmount()), BidStatistics::combine);
+                counts.merge(bid.getItemId(), 1L, Long::sum);
+            }
+            bidStatisticsService.add(statistics);
+            em.unwrap(Session.class).doWork(connection -> ItemBidSummaryMaintainer.apply(connection, counts));
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    org.hibernate.Cache cache = em.getEntityManagerFactory().unwrap(SessionFactory.class).getCache();
+                    counts.keySet().forEach(itemId -> cache.evictEntityData(ItemBidSummary.class, itemId));
+                }
+            });
+            return null;
+        });
+    }
+
+    private void insert(List<JournaledBid> rows) {
+        StringBuilder sql = new StringBuilder("insert into BID (ID, ITEM_ID, AMOUNT) values ");
+        for (int i = 0; i < rows.size(); i++) {
+            sql.append(i == 0 ? "(?, ?, ?)" : ", (?, ?, ?)");
+        }
+        // Hibernate doesn't parse native SQL, the cached bid queries are invalidated on commit
+        NativeQuery<?> insert = em.createNativeQuery(sql.toString())
+                .unwrap(NativeQuery.class)
+                .addSynchronizedEntityClass(Bid.class);
+        int position = 1;
+        for (JournaledBid bid : rows) {
+            insert.setParameter(position++, bid.getId());
+            insert.setParameter(position++, bid.getItemId());
+            insert.setParameter(position++, bid.getAmount());
+        }
+        insert.executeUpdate();
+    }
+
+    /*
+        The item comes from the second-level cache when it's there; a bid on an item
+        closed only after it was cached is still accepted.
+     */
+    private void checkItem(Long itemId, BigDecimal amount) {
+        Item item = readOnly.execute(status -> em.find(Item.class, itemId));
+        if (item == null) {
+            throw new EntityNotFoundException("No item with id " + itemId);
+        }
+        if (item.isClosed() || item.getAuctionEnd() != null && item.getAuctionEnd().before(new Date())) {
+            throw new InvalidBidException("Auction of item " + itemId + " has ended");
+        }
+        BidService.checkAuctionRules(item, amount);
+    }
+
+    private Set<Long> existingIds(List<JournaledBid> bids) {
+        if (bids.isEmpty()) {
+            return Collections.emptySet();
+        }
+        PartitionedBidStore store = partitionedBidStore.getIfAvailable();
+        if (store != null) {
+            return store.findExisting(bids);
+        }
+        return transactionTemplate.execute(status -> new HashSet<>(em
+                .createQuery("select b.id from Bid b where b.id in :ids", Long.class)
+                .setParameter("ids", bids.stream().map(JournaledBid::getId).collect(Collectors.toList()))
+                .getResultList()));
+    }
+
+    /*
+        Identifiers of the Bid sequence, taken in blocks: a bidder only waits for the
+        database when a block is used up, one sequence call per auction.id.Bid.increment_size.
+     */
+    private long nextId() {
+        synchronized (idLock) {
+            if (nextId == idBlock.length) {
+                idBlock = transactionTemplate.execute(status -> {
+                    SharedSessionContractImplementor session = em.unwrap(SharedSessionContractImplementor.class);
+                    IdentifierGenerator generator = session.getFactory().getMetamodel()
+                            .entityPersister(Bid.class).getIdentifierGenerator();
+                    long[] ids = new long[ID_BLOCK_SIZE];
+                    for (int i = 0; i < ids.length; i++) {
+                        ids[i] = (Long) generator.generate(session, null);
+                    }
+                    return ids;
+                });
+                nextId = 0;
+            }
+            return idBlock[nextId++];
+        }
+    }
+
+    private static boolean isConstraintViolation(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConstraintViolationException || cause instanceof DataIntegrityViolationException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,54 @@
+package com.ico.ltd.hibernateinaction2nd.web;
+
+import com.ico.ltd.hibernateinaction2nd.service.InvalidPageTokenException;
+import com.ico.ltd.hibernateinaction2nd.service.ItemListingService;
+import com.ico.ltd.hibernateinaction2nd.service.ItemListingView;
+import com.ico.ltd.hibernateinaction2nd.service.KeysetPage;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * Pages of the item listing as JSON.
+ */
+@RestController
+public class ItemListingController {
+
+    static final int MAX_PAGE_SIZE = 100;
+
+    private final ItemListingService itemListingService;
+
+    public ItemListingController(ItemListingService itemListingService) {
+        this.itemListingService = itemListingService;
+    }
+
+    @GetMapping("/items")
+    public List<ItemListingView> listItems(@RequestParam(defaultValue = "0") int first,
+                                           @RequestParam(defaultValue = "20") int max) {
+        return itemListingService.findListing(Math.max(first, 0), pageSize(max));
+    }
+
+    /**
+     * Items ending first; pass the <code>nextPageToken</code> of a page as <code>page</code>
+     * for the next one.
+     */
+    @GetMapping("/items/by-auction-end")
+    public KeysetPage<ItemListingView> listItemsByAuctionEnd(@RequestParam(required = false) String page,
+                                                             @RequestParam(defaultValue = "20") int max) {
+        return itemListingService.findListingByAuctionEnd(page, pageSize(max));
+    }
+
+    @ExceptionHandler(InvalidPageTokenException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public void invalidPageToken() {
+    }
+
+    private static int pageSize(int max) {
+        return Math.min(Math.max(max, 1), MAX_PAGE_SIZE);
+    }
+}
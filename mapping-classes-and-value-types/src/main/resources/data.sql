@@ -1,5 +1,5 @@
-INSERT INTO ITEM(id, auction_end, name, description, imperialweight)
-VALUES (1, '2099-10-10', 'Some name', 'Java: A Detailed Approach to Practical Coding (Step-By-Step Java Book 2)', 2);
+INSERT INTO ITEM(id, auction_end, name, description, weight_grams, bid_count, bid_sum, bid_min, bid_max)
+VALUES (1, '2099-10-10', 'Some name', 'Java: A Detailed Approach to Practical Coding (Step-By-Step Java Book 2)', 907, 3, 600, 100, 300);
 
 INSERT INTO BID(id, item_id, amount)
 VALUES (1, 1, 100);
@@ -11,4 +11,7 @@ VALUES (3, 1, 300);
 INSERT INTO USERS(id, street, zipcode, city, country)
 VALUES (1, 'Wall Street', '44542', 'New York', 'USA');
 INSERT INTO USERS(id, street, zipcode, city, country)
-VALUES (2, 'Krasnay Street', '65444', 'Moscow', 'Russia');
\ No newline at end of file
+VALUES (2, 'Krasnay Street', '65444', 'Moscow', 'Russia');
+
+INSERT INTO ITEM_BID_SUMMARY(item_id, number_of_bids)
+SELECT i.id, count(b.id) FROM ITEM i LEFT OUTER JOIN BID b ON i.id = b.item_id GROUP BY i.id;
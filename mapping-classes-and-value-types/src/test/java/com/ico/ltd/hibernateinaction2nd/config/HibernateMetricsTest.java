@@ -0,0 +1,58 @@
+package com.ico.ltd.hibernateinaction2nd.config;
+
+import com.ico.ltd.hibernateinaction2nd.domain.Item;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+
+@SpringBootTest
+class HibernateMetricsTest {
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    MeterRegistry registry;
+
+    @Test
+    @Transactional
+    public void testNamedQueryLatency() {
+        long before = count("Item.findByName");
+
+        em.createNamedQuery("Item.findByName", Item.class)
+                .setParameter("name", "AUCTION metrics test " + System.nanoTime())
+                .getResultList();
+
+        Assertions.assertEquals(before + 1, count("Item.findByName"));
+    }
+
+    @Test
+    @Transactional
+    public void testAdhocQueryLatency() {
+        long before = count(QueryLatencyStatistics.ADHOC);
+
+        em.createQuery("select i from Item i where i.id = :id", Item.class)
+                .setParameter("id", 1L)
+                .getResultList();
+
+        Assertions.assertEquals(before + 1, count(QueryLatencyStatistics.ADHOC));
+    }
+
+    @Test
+    public void testHibernateStatisticsMetrics() {
+        Assertions.assertNotNull(registry.find("hibernate.entities.loads").functionCounter());
+        Assertions.assertNotNull(registry.find("hibernate.second.level.cache.requests").tag("result", "hit").functionCounter());
+        Assertions.assertNotNull(registry.find("hibernate.query.executions.max").timeGauge());
+    }
+
+    private long count(String query) {
+        Timer timer = registry.find(QueryLatencyStatistics.METRIC).tag("query", query).timer();
+        return timer != null ? timer.count() : 0;
+    }
+}
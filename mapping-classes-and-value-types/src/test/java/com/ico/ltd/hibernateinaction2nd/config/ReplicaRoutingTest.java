@@ -0,0 +1,214 @@
+package com.ico.ltd.hibernateinaction2nd.config;
+
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+@SpringBootTest(properties = {
+        "auction.replicas.enabled=true",
+        "auction.replicas.urls=" + ReplicaRoutingTest.REPLICA_A + "," + ReplicaRoutingTest.REPLICA_B,
+        "auction.replicas.lag-query=select LAG_MS from REPLICA_LAG",
+        "auction.replicas.max-lag-ms=1000",
+        "auction.replicas.check-interval-ms=0",
+        "auction.virtual-threads.enabled=true"
+})
+class ReplicaRoutingTest {
+
+    static final String REPLICA_A = "jdbc:h2:mem:replica-a;DB_CLOSE_DELAY=-1";
+
+    static final String REPLICA_B = "jdbc:h2:mem:replica-b;DB_CLOSE_DELAY=-1";
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Autowired
+    ReplicaPool replicaPool;
+
+    @Autowired
+    DataSource dataSource;
+
+    TransactionTemplate readOnly;
+
+    TransactionTemplate readWrite;
+
+    @BeforeEach
+    public void currentReplicas() throws Exception {
+        setLag(REPLICA_A, 0);
+        setLag(REPLICA_B, 0);
+        replicaPool.checkReplicas();
+        readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+        readWrite = new TransactionTemplate(transactionManager);
+    }
+
+    @Test
+    public void testReadOnlyTransactionsOnReplicas() throws Exception {
+        Set<String> databases = new HashSet<>();
+        for (int i = 0; i < 4; i++) {
+            databases.add(readOnly.execute(status -> database()));
+        }
+        // round robin
+        Assertions.assertEquals(new HashSet<>(Arrays.asList("REPLICA-A", "REPLICA-B")), databases);
+
+        Assertions.assertEquals("TESTDB", readWrite.execute(status -> database()));
+    }
+
+    @Test
+    public void testConnectionLimitWrapsRouting() throws Exception {
+        Assertions.assertTrue(dataSource instanceof ConnectionLimitingDataSource);
+        Assertions.assertTrue(((ConnectionLimitingDataSource) dataSource).getTargetDataSource()
+                instanceof ReplicaRoutingDataSource);
+    }
+
+    @Test
+    public void testReadOnlySession() throws Exception {
+        readOnly.execute(status -> {
+            Session session = em.unwrap(Session.class);
+            Assertions.assertTrue(session.isDefaultReadOnly());
+            Assertions.assertEquals(FlushMode.MANUAL, session.getHibernateFlushMode());
+            Assertions.assertTrue(session.doReturningWork(Connection::isReadOnly));
+            return null;
+        });
+    }
+
+    @Test
+    public void testLaggingReplicasLeftOut() throws Exception {
+        setLag(REPLICA_A, 5000);
+        replicaPool.checkReplicas();
+        Assertions.assertEquals(1, replicaPool.getAvailableReplicaCount());
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertEquals("REPLICA-B", readOnly.execute(status -> database()));
+        }
+
+        setLag(REPLICA_B, 5000);
+        replicaPool.checkReplicas();
+        Assertions.assertEquals("TESTDB", readOnly.execute(status -> database()));
+
+        setLag(REPLICA_A, 0);
+        replicaPool.checkReplicas();
+        Assertions.assertEquals("REPLICA-A", readOnly.execute(status -> database()));
+    }
+
+    @Test
+    public void testLeastLoaded() throws Exception {
+        ReplicaPool pool = new ReplicaPool(Arrays.asList(REPLICA_A, REPLICA_B), "sa", "",
+                ReplicaPool.Selection.LEAST_LOADED, 1000, null, 0, 1000);
+        pool.start();
+        try (Connection first = pool.getConnection()) {
+            String busy = database(first);
+            for (int i = 0; i < 3; i++) {
+                try (Connection connection = pool.getConnection()) {
+                    Assertions.assertNotEquals(busy, database(connection));
+                }
+            }
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testExhaustedReplicaStaysInUse() throws Exception {
+        ReplicaPool pool = new ReplicaPool(Arrays.asList(REPLICA_A), "sa", "",
+                ReplicaPool.Selection.ROUND_ROBIN, 1000, null, 0, 250);
+        pool.start();
+        List<Connection> held = new ArrayList<>();
+        try {
+            // the default size of a Hikari pool
+            for (int i = 0; i < 10; i++) {
+                held.add(pool.getConnection());
+            }
+            Assertions.assertNull(pool.getConnection());
+            Assertions.assertEquals(1, pool.getAvailableReplicaCount());
+
+            held.remove(0).close();
+            try (Connection connection = pool.getConnection()) {
+                Assertions.assertEquals("REPLICA-A", database(connection));
+            }
+        } finally {
+            for (Connection connection : held) {
+                connection.close();
+            }
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testReplicaDownAndBack() throws Exception {
+        String replicaC = "jdbc:h2:mem:replica-c;DB_CLOSE_DELAY=-1";
+        Connection primaryOfC = DriverManager.getConnection(replicaC, "sa", "");
+        // without IFEXISTS connecting would create an empty database instead of failing
+        ReplicaPool pool = new ReplicaPool(Arrays.asList(REPLICA_A, replicaC + ";IFEXISTS=TRUE"), "sa", "",
+                ReplicaPool.Selection.ROUND_ROBIN, 1000, null, 100, 250);
+        pool.start();
+        try {
+            Assertions.assertEquals(2, pool.getAvailableReplicaCount());
+
+            try (Statement statement = primaryOfC.createStatement()) {
+                statement.execute("shutdown");
+            }
+            awaitAvailableReplicas(pool, 1);
+            for (int i = 0; i < 3; i++) {
+                try (Connection connection = pool.getConnection()) {
+                    Assertions.assertEquals("REPLICA-A", database(connection));
+                }
+            }
+
+            DriverManager.getConnection(replicaC, "sa", "").close();
+            awaitAvailableReplicas(pool, 2);
+        } finally {
+            pool.close();
+        }
+    }
+
+    private void awaitAvailableReplicas(ReplicaPool pool, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (pool.getAvailableReplicaCount() != count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        Assertions.assertEquals(count, pool.getAvailableReplicaCount());
+    }
+
+    private String database() {
+        return (String) em.createNativeQuery("select database()").getSingleResult();
+    }
+
+    private String database(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery("select database()")) {
+            result.next();
+            return result.getString(1);
+        }
+    }
+
+    // stands in for the replication delay the lag query would report
+    private void setLag(String url, long lagMillis) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(url, "sa", "");
+             Statement statement = connection.createStatement()) {
+            statement.execute("create table if not exists REPLICA_LAG (LAG_MS bigint)");
+            statement.execute("delete from REPLICA_LAG");
+            statement.execute("insert into REPLICA_LAG values (" + lagMillis + ")");
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.ico.ltd.hibernateinaction2nd.domain;
+
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.hql.internal.ast.ASTQueryTranslatorFactory;
+import org.hibernate.hql.spi.QueryTranslator;
+import org.hibernate.query.Query;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.Collections;
+
+/**
+ * The hot queries must be answered from the indexes declared in the mapping. H2 names the
+ * index it uses in the EXPLAIN output, a full scan shows up as <code>TABLE.tableScan</code>.
+ * Lookups of bids by item may also use the index H2 creates for the foreign key.
+ */
+@SpringBootTest
+class QueryPlanTest {
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    EntityManagerFactory emf;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Test
+    public void testItemByName() {
+        String plan = explain(sqlOf(namedQuery("Item.findByName")), "Some name");
+        assertIndexUsed(plan, "IDX_ITEM_NAME", "ITEM");
+    }
+
+    @Test
+    public void testExpiredItems() {
+        String plan = explain(
+                sqlOf("select min(i.id), max(i.id) from Item i where i.closed = false and i.auctionEnd <= :cutoff"),
+                new Timestamp(System.currentTimeMillis()));
+        assertIndexUsed(plan, "IDX_ITEM_AUCTION_END", "ITEM");
+    }
+
+    @Test
+    public void testItemsByWeight() {
+        String plan = explain(
+                sqlOf("select i from Item i where i.metricWeight between :min and :max order by i.metricWeight"),
+                10000L, 10100L);
+        assertIndexUsed(plan, "IDX_ITEM_WEIGHT", "ITEM");
+    }
+
+    @Test
+    public void testItemsByAuctionEndPage() {
+        String plan = explain(
+                sqlOf("select i.id from Item i where i.auctionEnd >= :auctionEnd and (i.auctionEnd > :auctionEnd or i.id > :id) " +
+                        "order by i.auctionEnd, i.id"),
+                new Timestamp(System.currentTimeMillis()), new Timestamp(System.currentTimeMillis()), 1L);
+        assertIndexUsed(plan, "IDX_ITEM_AUCTION_END", "ITEM");
+        assertIndexSorted(plan);
+    }
+
+    @Test
+    public void testBidsOfItemPage() {
+        String plan = explain(
+                sqlOf("select b.id from Bid b where b.item.id = :itemId and b.amount >= :amount and (b.amount > :amount or b.id > :id) " +
+                        "order by b.item.id, b.amount, b.id"),
+                1L, BigDecimal.ONE, BigDecimal.ONE, 1L);
+        assertIndexUsed(plan, "IDX_BID_ITEM_ID_AMOUNT", "BID");
+        assertIndexSorted(plan);
+    }
+
+    @Test
+    public void testBidsOfItem() {
+        String plan = explain(sqlOf(namedQuery("Bid.findByItem")), 1L);
+        assertNoTableScan(plan, "BID");
+    }
+
+    @Test
+    public void testItemBidSummaryJoin() {
+        String plan = explain("select i.ID, count(b.ID) from ITEM i " +
+                "left outer join BID b on i.ID = b.ITEM_ID group by i.ID");
+        assertNoTableScan(plan, "BID");
+    }
+
+    @Test
+    public void testUsersByZipcode() {
+        assertIndexUsed(
+                explain(sqlOf("select u from User u where u.homeAddress.city.zipcode = :zipcode"), "44542"),
+                "IDX_USERS_ZIPCODE", "USERS");
+        assertIndexUsed(
+                explain(sqlOf("select u from User u where u.billingAddress.city.zipcode = :zipcode"), "44542"),
+                "IDX_USERS_BILLING_ZIPCODE", "USERS");
+    }
+
+    private void assertIndexUsed(String plan, String index, String table) {
+        Assertions.assertTrue(plan.contains("." + index), () -> "Expected " + index + " in:\n" + plan);
+        assertNoTableScan(plan, table);
+    }
+
+    // the rows are read in the order of the index, no sort
+    private void assertIndexSorted(String plan) {
+        Assertions.assertTrue(plan.contains("index sorted"), () -> "Sort in:\n" + plan);
+    }
+
+    private void assertNoTableScan(String plan, String table) {
+        Assertions.assertFalse(plan.contains("." + table + ".tableScan"), () -> "Table scan of " + table + " in:\n" + plan);
+    }
+
+    private String namedQuery(String name) {
+        return transactionTemplate.execute(status -> em.createNamedQuery(name).unwrap(Query.class).getQueryString());
+    }
+
+    // the SQL Hibernate generates for the query
+    private String sqlOf(String jpql) {
+        QueryTranslator translator = ASTQueryTranslatorFactory.INSTANCE.createQueryTranslator(
+                jpql, jpql, Collections.emptyMap(), emf.unwrap(SessionFactoryImplementor.class), null);
+        translator.compile(Collections.emptyMap(), false);
+        return translator.getSQLString();
+    }
+
+    private String explain(String sql, Object... parameters) {
+        return transactionTemplate.execute(status -> em.unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement("explain " + sql)) {
+                for (int i = 0; i < parameters.length; i++) {
+                    statement.setObject(i + 1, parameters[i]);
+                }
+                try (ResultSet result = statement.executeQuery()) {
+                    result.next();
+                    return result.getString(1);
+                }
+            }
+        }));
+    }
+}
@@ -0,0 +1,143 @@
+package com.ico.ltd.hibernateinaction2nd.domain;
+
+import com.ico.ltd.hibernateinaction2nd.service.BidIngestionService;
+import com.ico.ltd.hibernateinaction2nd.service.IncomingBid;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.stream.Stream;
+
+@SpringBootTest
+class SecondLevelCacheTest {
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    EntityManagerFactory emf;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Autowired
+    BidIngestionService bidIngestionService;
+
+    Statistics statistics;
+
+    Long itemId;
+
+    @BeforeEach
+    public void createItemWithBid() {
+        statistics = emf.unwrap(SessionFactory.class).getStatistics();
+        itemId = transactionTemplate.execute(status -> {
+            Item item = new Item("Cached item", "Some description");
+            em.persist(item);
+            item.addBid(newBid(10));
+            item.getBids().forEach(em::persist);
+            return item.getId();
+        });
+    }
+
+    @Test
+    public void testEntityAndCollectionFromCache() throws Exception {
+        Assertions.assertEquals(1, loadBidCount());
+
+        statistics.clear();
+        Assertions.assertEquals(1, loadBidCount());
+
+        Assertions.assertEquals(0, statistics.getPrepareStatementCount());
+        Assertions.assertTrue(statistics.getSecondLevelCacheHitCount() >= 3); // item, collection, bid
+    }
+
+    @Test
+    public void testCollectionInvalidatedByAddBid() throws Exception {
+        Assertions.assertEquals(1, loadBidCount());
+
+        transactionTemplate.execute(status -> {
+            Item item = em.find(Item.class, itemId);
+            Bid bid = newBid(20);
+            item.addBid(bid);
+            em.persist(bid);
+            return null;
+        });
+
+        Assertions.assertEquals(2, loadBidCount());
+        Assertions.assertEquals(new BigDecimal("15.00"), transactionTemplate.execute(
+                status -> em.find(Item.class, itemId).getAverageBidAmount()));
+    }
+
+    @Test
+    public void testCollectionInvalidatedByIngestion() throws Exception {
+        Assertions.assertEquals(1, loadBidCount());
+
+        bidIngestionService.ingest(Stream.of(
+                new IncomingBid(itemId, new BigDecimal(20)),
+                new IncomingBid(itemId, new BigDecimal(30))
+        ));
+
+        Assertions.assertEquals(3, loadBidCount());
+        Assertions.assertEquals(3L, (long) transactionTemplate.execute(
+                status -> em.find(Item.class, itemId).getBidStatistics().getCount()));
+    }
+
+    @Test
+    public void testQueryCacheInvalidatedByNewBid() throws Exception {
+        Assertions.assertEquals(1, findBids().size());
+
+        statistics.clear();
+        Assertions.assertEquals(1, findBids().size());
+        Assertions.assertEquals(1, statistics.getQueryCacheHitCount());
+
+        bidIngestionService.ingest(Stream.of(new IncomingBid(itemId, new BigDecimal(20))));
+
+        statistics.clear();
+        List<Bid> bids = findBids();
+        Assertions.assertEquals(0, statistics.getQueryCacheHitCount());
+        Assertions.assertEquals(2, bids.size());
+        Assertions.assertEquals(new BigDecimal("20.00"), bids.get(0).getAmount());
+    }
+
+    @Test
+    public void testUserFromCache() throws Exception {
+        Long userId = transactionTemplate.execute(status -> {
+            User user = new User();
+            user.setHomeAddress(new Address("Some Street", new City("Berlin", "Germany", new GermanZipcode("12345"))));
+            user.setBillingAddress(new Address("Other Street", new City("Bern", "Switzerland", new SwissZipcode("3000"))));
+            em.persist(user);
+            return user.getId();
+        });
+
+        statistics.clear();
+        User user = transactionTemplate.execute(status -> em.find(User.class, userId));
+
+        Assertions.assertEquals(1, statistics.getSecondLevelCacheHitCount());
+        Assertions.assertEquals(new GermanZipcode("12345"), user.getHomeAddress().getCity().getZipcode());
+    }
+
+    private int loadBidCount() {
+        return transactionTemplate.execute(status -> em.find(Item.class, itemId).getBids().size());
+    }
+
+    private List<Bid> findBids() {
+        return transactionTemplate.execute(status ->
+                em.createNamedQuery("Bid.findByItem", Bid.class)
+                        .setParameter("itemId", itemId)
+                        .getResultList());
+    }
+
+    private Bid newBid(int amount) {
+        Bid bid = new Bid();
+        bid.setAmount(new BigDecimal(amount));
+        return bid;
+    }
+}
@@ -0,0 +1,33 @@
+package com.ico.ltd.hibernateinaction2nd.domain.coverters;
+
+import com.ico.ltd.hibernateinaction2nd.domain.MonetaryAmount;
+import com.ico.ltd.hibernateinaction2nd.domain.converters.CompactMonetaryAmount;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.Currency;
+
+class CompactMonetaryAmountTest {
+
+    @Test
+    public void testCompactRoundTrip() throws Exception {
+        MonetaryAmount amount = new MonetaryAmount(new BigDecimal("-1234.56"), Currency.getInstance("CHF"));
+
+        byte[] bytes = CompactMonetaryAmount.encode(amount);
+
+        Assertions.assertEquals(11, bytes.length);
+        Assertions.assertEquals(amount, CompactMonetaryAmount.decode(bytes));
+    }
+
+    @Test
+    public void testLargeRoundTrip() throws Exception {
+        MonetaryAmount huge = new MonetaryAmount(
+                new BigDecimal("123456789012345678901234567890.12"), Currency.getInstance("EUR"));
+        MonetaryAmount tiny = new MonetaryAmount(
+                BigDecimal.ONE.scaleByPowerOfTen(-200), Currency.getInstance("USD"));
+
+        Assertions.assertEquals(huge, CompactMonetaryAmount.decode(CompactMonetaryAmount.encode(huge)));
+        Assertions.assertEquals(tiny, CompactMonetaryAmount.decode(CompactMonetaryAmount.encode(tiny)));
+    }
+}
@@ -0,0 +1,69 @@
+package com.ico.ltd.hibernateinaction2nd.domain.coverters;
+
+import com.ico.ltd.hibernateinaction2nd.domain.converters.ExchangeRateTable;
+import com.ico.ltd.hibernateinaction2nd.domain.converters.ExchangeRates;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+class ExchangeRateTableTest {
+
+    private final Currency usd = Currency.getInstance("USD");
+
+    private final Currency eur = Currency.getInstance("EUR");
+
+    @Test
+    public void testReadersDontLoadRates() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        ExchangeRateTable table = new ExchangeRateTable(() -> {
+            loads.incrementAndGet();
+            return rates("0.92");
+        }, 0);
+
+        Assertions.assertThrows(IllegalStateException.class, () -> table.rate(usd, eur));
+        table.start();
+        for (int i = 0; i < 1000; i++) {
+            Assertions.assertEquals(new BigDecimal("0.92"), table.rate(usd, eur));
+        }
+        Assertions.assertEquals(1, loads.get());
+        table.close();
+    }
+
+    @Test
+    public void testRatesRefreshedInBackground() throws Exception {
+        AtomicReference<String> rate = new AtomicReference<>("0.92");
+        ExchangeRateTable table = new ExchangeRateTable(() -> {
+            if (rate.get() == null) {
+                throw new IllegalStateException("Rates not available");
+            }
+            return rates(rate.get());
+        }, 10);
+        table.start();
+        try {
+            Assertions.assertEquals(new BigDecimal("0.92"), table.rate(usd, eur));
+
+            rate.set("0.95");
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!table.rate(usd, eur).equals(new BigDecimal("0.95")) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assertions.assertEquals(new BigDecimal("0.95"), table.rate(usd, eur));
+
+            // a failing provider leaves the rates as they are
+            rate.set(null);
+            Thread.sleep(100);
+            Assertions.assertEquals(new BigDecimal("0.95"), table.rate(usd, eur));
+        } finally {
+            table.close();
+        }
+    }
+
+    private static ExchangeRates rates(String usdToEur) {
+        return ExchangeRates.of(Collections.singletonMap("USD/EUR", new BigDecimal(usdToEur)));
+    }
+}
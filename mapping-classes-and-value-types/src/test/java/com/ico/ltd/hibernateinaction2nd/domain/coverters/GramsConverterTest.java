@@ -0,0 +1,28 @@
+package com.ico.ltd.hibernateinaction2nd.domain.coverters;
+
+import com.ico.ltd.hibernateinaction2nd.domain.converters.GramsConverter;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class GramsConverterTest {
+
+    GramsConverter converter = new GramsConverter();
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Assertions.assertEquals(1500L, converter.convertToDatabaseColumn(1.5).longValue());
+        Assertions.assertEquals(907L, converter.convertToDatabaseColumn(0.90718).longValue());
+
+        double weight = 0.907;
+        for (int i = 0; i < 100; i++) {
+            weight = converter.convertToEntityAttribute(converter.convertToDatabaseColumn(weight));
+        }
+        Assertions.assertEquals(0.907, weight);
+    }
+
+    @Test
+    public void testNull() throws Exception {
+        Assertions.assertNull(converter.convertToDatabaseColumn(null));
+        Assertions.assertNull(converter.convertToEntityAttribute(null));
+    }
+}
@@ -2,6 +2,9 @@ package com.ico.ltd.hibernateinaction2nd.domain.coverters;
 
 import com.ico.ltd.hibernateinaction2nd.domain.Item;
 import com.ico.ltd.hibernateinaction2nd.domain.MonetaryAmount;
+import com.ico.ltd.hibernateinaction2nd.domain.converters.ExchangeRateTable;
+import com.ico.ltd.hibernateinaction2nd.domain.converters.MonetaryAmountUserType;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -10,6 +13,7 @@ import org.springframework.test.annotation.Rollback;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
 import java.math.BigDecimal;
 import java.util.Currency;
 
@@ -19,23 +23,53 @@ class MonetaryAmountUserTypeTest {
     @Autowired
     EntityManager em;
 
+    @Autowired
+    EntityManagerFactory emf;
+
+    @Autowired
+    ExchangeRateTable exchangeRateTable;
+
+    @Test
+    public void testExchangeRatesOfContext() throws Exception {
+        Assertions.assertSame(exchangeRateTable, emf.unwrap(SessionFactoryImplementor.class)
+                .getProperties().get(MonetaryAmountUserType.EXCHANGE_RATE_TABLE));
+    }
+
     @Test
     @Rollback
     @Transactional
     public void testSaveItemWithMonetaryAmounts() throws Exception {
         Item saved = new Item("Some name", "Some description");
-        saved.setBuyNowPrice(new MonetaryAmount(new BigDecimal(2), Currency.getInstance("EUR")));
-        saved.setInitialPrice(new MonetaryAmount(new BigDecimal(3), Currency.getInstance("USD")));
+        saved.setBuyNowPrice(new MonetaryAmount(new BigDecimal(2), Currency.getInstance("USD")));
+        saved.setInitialPrice(new MonetaryAmount(new BigDecimal(3), Currency.getInstance("EUR")));
 
         em.persist(saved);
         em.flush();
         em.clear();
 
         Item result = em.createQuery("select i from Item i where  i.id=:itemId", Item.class)
-                .setParameter("itemId", 1000L)
+                .setParameter("itemId", saved.getId())
                 .getSingleResult();
 
         Assertions.assertEquals("4.00 EUR", result.getBuyNowPrice().toString());
         Assertions.assertEquals("6.00 USD", result.getInitialPrice().toString());
     }
-}
\ No newline at end of file
+
+    @Test
+    @Rollback
+    @Transactional
+    public void testSaveItemWithTargetCurrencyAmounts() throws Exception {
+        Item saved = new Item("Some name", "Some description");
+        saved.setBuyNowPrice(new MonetaryAmount(new BigDecimal(2), Currency.getInstance("EUR")));
+        saved.setInitialPrice(new MonetaryAmount(new BigDecimal(3), Currency.getInstance("USD")));
+
+        em.persist(saved);
+        em.flush();
+        em.clear();
+
+        Item result = em.find(Item.class, saved.getId());
+
+        Assertions.assertEquals("2.00 EUR", result.getBuyNowPrice().toString());
+        Assertions.assertEquals("3.00 USD", result.getInitialPrice().toString());
+    }
+}
@@ -0,0 +1,40 @@
+package com.ico.ltd.hibernateinaction2nd.domain.coverters;
+
+import com.ico.ltd.hibernateinaction2nd.domain.GermanZipcode;
+import com.ico.ltd.hibernateinaction2nd.domain.SwissZipcode;
+import com.ico.ltd.hibernateinaction2nd.domain.Zipcode;
+import com.ico.ltd.hibernateinaction2nd.domain.converters.ZipcodeConverter;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class ZipcodeConverterTest {
+
+    ZipcodeConverter converter = new ZipcodeConverter();
+
+    @Test
+    public void testZipcodesAreInterned() throws Exception {
+        Zipcode german = converter.convertToEntityAttribute(new String("01067"));
+        Zipcode swiss = converter.convertToEntityAttribute(new String("8001"));
+
+        Assertions.assertEquals(new GermanZipcode("01067"), german);
+        Assertions.assertEquals(new SwissZipcode("8001"), swiss);
+        Assertions.assertSame(german, converter.convertToEntityAttribute(new String("01067")));
+        Assertions.assertSame(swiss, converter.convertToEntityAttribute(new String("8001")));
+        Assertions.assertNotEquals(converter.convertToEntityAttribute("1067"), german);
+    }
+
+    @Test
+    public void testNonNumericZipcodes() throws Exception {
+        Zipcode zipcode = converter.convertToEntityAttribute(new String("AB-12"));
+
+        Assertions.assertEquals(new GermanZipcode("AB-12"), zipcode);
+        Assertions.assertSame(zipcode, converter.convertToEntityAttribute(new String("AB-12")));
+    }
+
+    @Test
+    public void testNullAndUnsupportedZipcodes() throws Exception {
+        Assertions.assertNull(converter.convertToEntityAttribute(null));
+        Assertions.assertNull(converter.convertToDatabaseColumn(null));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> converter.convertToEntityAttribute("123"));
+    }
+}
@@ -0,0 +1,51 @@
+package com.ico.ltd.hibernateinaction2nd.domain.generators;
+
+import com.ico.ltd.hibernateinaction2nd.domain.Bid;
+import com.ico.ltd.hibernateinaction2nd.domain.Item;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.Rollback;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import java.math.BigDecimal;
+
+@SpringBootTest
+class EntitySequenceGeneratorTest {
+
+    @Autowired
+    EntityManager em;
+
+    @Test
+    @Rollback
+    @Transactional
+    public void testSequencePerEntity() throws Exception {
+        Assertions.assertEquals(50L, increment("ITEM_SEQ"));
+        Assertions.assertEquals(1000L, increment("BID_SEQ"));
+        Assertions.assertEquals(50L, increment("USER_SEQ"));
+
+        Item item = new Item("Some name", "Some description");
+        em.persist(item);
+        Bid first = new Bid();
+        first.setAmount(BigDecimal.TEN);
+        item.addBid(first);
+        em.persist(first);
+        Bid second = new Bid();
+        second.setAmount(BigDecimal.ONE);
+        item.addBid(second);
+        em.persist(second);
+
+        Assertions.assertTrue(item.getId() >= 1000);
+        Assertions.assertTrue(first.getId() >= 1000);
+        Assertions.assertEquals(first.getId() + 1, (long) second.getId());
+    }
+
+    private long increment(String sequence) {
+        return ((Number) em.createNativeQuery(
+                "select INCREMENT from INFORMATION_SCHEMA.SEQUENCES where SEQUENCE_NAME = :name")
+                .setParameter("name", sequence)
+                .getSingleResult()).longValue();
+    }
+}
@@ -0,0 +1,84 @@
+package com.ico.ltd.hibernateinaction2nd.domain.generators;
+
+import org.hibernate.id.IdentifierGeneratorHelper;
+import org.hibernate.id.IntegralDataTypeHolder;
+import org.hibernate.id.enhanced.AccessCallback;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.Serializable;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+class IdBlockAllocatorTest {
+
+    @Test
+    public void testBlocksOfIncrementSize() throws Exception {
+        Sequence sequence = new Sequence(1000, 50);
+        IdBlockAllocator allocator = new IdBlockAllocator(Long.class, 50);
+
+        Assertions.assertEquals(1000L, allocator.generate(sequence));
+        for (long id = 1001; id < 1050; id++) {
+            Assertions.assertEquals(id, allocator.generate(sequence));
+        }
+        Assertions.assertEquals(1050L, allocator.generate(sequence));
+        Assertions.assertEquals(2, sequence.calls.get());
+        Assertions.assertEquals(1050L, allocator.getLastSourceValue().makeValue().longValue());
+        Assertions.assertEquals(1051L, allocator.generate(sequence));
+        Assertions.assertEquals(Integer.class, new IdBlockAllocator(Integer.class, 10).generate(sequence).getClass());
+    }
+
+    @Test
+    public void testConcurrentWriters() throws Exception {
+        int threads = 16;
+        int idsPerThread = 10_000;
+        Sequence sequence = new Sequence(1000, 50);
+        IdBlockAllocator allocator = new IdBlockAllocator(Long.class, 50);
+        Set<Serializable> ids = ConcurrentHashMap.newKeySet();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            executor.execute(() -> {
+                for (int j = 0; j < idsPerThread; j++) {
+                    ids.add(allocator.generate(sequence));
+                }
+            });
+        }
+        executor.shutdown();
+        Assertions.assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        Assertions.assertEquals(threads * idsPerThread, ids.size());
+        Assertions.assertEquals(threads * idsPerThread / 50, sequence.calls.get());
+    }
+
+    private static class Sequence implements AccessCallback {
+
+        final AtomicLong value;
+
+        final long increment;
+
+        final AtomicInteger calls = new AtomicInteger();
+
+        Sequence(long initialValue, long increment) {
+            this.value = new AtomicLong(initialValue);
+            this.increment = increment;
+        }
+
+        @Override
+        public IntegralDataTypeHolder getNextValue() {
+            calls.incrementAndGet();
+            return IdentifierGeneratorHelper.getIntegralDataTypeHolder(Long.class)
+                    .initialize(value.getAndAdd(increment));
+        }
+
+        @Override
+        public String getTenantIdentifier() {
+            return null;
+        }
+    }
+}
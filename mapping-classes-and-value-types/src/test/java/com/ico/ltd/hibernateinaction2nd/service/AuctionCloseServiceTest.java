@@ -0,0 +1,117 @@
+package com.ico.ltd.hibernateinaction2nd.service;
+
+import com.ico.ltd.hibernateinaction2nd.domain.AuctionCloseCheckpoint;
+import com.ico.ltd.hibernateinaction2nd.domain.AuctionType;
+import com.ico.ltd.hibernateinaction2nd.domain.Bid;
+import com.ico.ltd.hibernateinaction2nd.domain.Item;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TemporalType;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+@SpringBootTest(properties = "auction.close.interval-ms=0")
+class AuctionCloseServiceTest {
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Autowired
+    AuctionCloseService auctionCloseService;
+
+    @Test
+    public void testWinnerPerAuctionType() {
+        List<Long> highest = newItem(AuctionType.HIGHEST_BID, "10", "30", "30", "20");
+        List<Long> lowest = newItem(AuctionType.LOWEST_BID, "20", "5", "7");
+        List<Long> fixed = newItem(AuctionType.FIXED_PRICE, "50");
+        List<Long> noBids = newItem(AuctionType.HIGHEST_BID);
+        List<Long> running = newItem(AuctionType.HIGHEST_BID, "10");
+        expire(highest.get(0), lowest.get(0), fixed.get(0), noBids.get(0));
+
+        Assertions.assertTrue(auctionCloseService.closeExpired() >= 4);
+
+        Assertions.assertEquals(highest.get(2), winningBidOf(highest.get(0)));
+        Assertions.assertEquals(lowest.get(2), winningBidOf(lowest.get(0)));
+        Assertions.assertEquals(fixed.get(1), winningBidOf(fixed.get(0)));
+        Assertions.assertNull(winningBidOf(noBids.get(0)));
+        Assertions.assertTrue(isClosed(noBids.get(0)));
+        Assertions.assertFalse(isClosed(running.get(0)));
+        Assertions.assertNull(winningBidOf(running.get(0)));
+    }
+
+    @Test
+    public void testContinueInterruptedRun() {
+        Long first = newItem(AuctionType.HIGHEST_BID, "10").get(0);
+        Long second = newItem(AuctionType.HIGHEST_BID, "10").get(0);
+        Long third = newItem(AuctionType.HIGHEST_BID, "10").get(0);
+        expire(first, second, third);
+
+        // a run that committed the chunk up to the first item before it was interrupted
+        transactionTemplate.execute(status -> {
+            em.persist(new AuctionCloseCheckpoint(0, new Date(), second, third));
+            return null;
+        });
+
+        auctionCloseService.closeExpired();
+        Assertions.assertFalse(isClosed(first));
+        Assertions.assertTrue(isClosed(second));
+        Assertions.assertTrue(isClosed(third));
+        Assertions.assertEquals(0L, (long) transactionTemplate.execute(status ->
+                em.createQuery("select count(c) from AuctionCloseCheckpoint c", Long.class).getSingleResult()));
+
+        // the next run starts over
+        auctionCloseService.closeExpired();
+        Assertions.assertTrue(isClosed(first));
+    }
+
+    /*
+        The identifier of the item, followed by the identifiers of its bids.
+     */
+    private List<Long> newItem(AuctionType auctionType, String... amounts) {
+        return transactionTemplate.execute(status -> {
+            Item item = new Item("Closing item", "Some description");
+            item.setAuctionType(auctionType);
+            item.setAuctionEnd(new Date(System.currentTimeMillis() + 60000));
+            em.persist(item);
+            List<Long> ids = new ArrayList<>();
+            ids.add(item.getId());
+            for (String amount : amounts) {
+                Bid bid = item.placeBid(new BigDecimal(amount));
+                em.persist(bid);
+                ids.add(bid.getId());
+            }
+            return ids;
+        });
+    }
+
+    // @Future is only checked when the application writes the item
+    private void expire(Long... itemIds) {
+        transactionTemplate.execute(status -> em.createNativeQuery(
+                "update ITEM set AUCTION_END = :auctionEnd where ID in (:itemIds)")
+                .setParameter("auctionEnd", new Date(System.currentTimeMillis() - 1000), TemporalType.TIMESTAMP)
+                .setParameter("itemIds", Arrays.asList(itemIds))
+                .executeUpdate());
+    }
+
+    private boolean isClosed(Long itemId) {
+        return transactionTemplate.execute(status -> em.find(Item.class, itemId).isClosed());
+    }
+
+    private Long winningBidOf(Long itemId) {
+        return transactionTemplate.execute(status -> {
+            Bid winningBid = em.find(Item.class, itemId).getWinningBid();
+            return winningBid != null ? winningBid.getId() : null;
+        });
+    }
+}
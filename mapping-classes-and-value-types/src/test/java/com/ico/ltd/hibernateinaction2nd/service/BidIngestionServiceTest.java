@@ -0,0 +1,84 @@
+package com.ico.ltd.hibernateinaction2nd.service;
+
+import com.ico.ltd.hibernateinaction2nd.domain.BidStatistics;
+import com.ico.ltd.hibernateinaction2nd.domain.Item;
+import com.ico.ltd.hibernateinaction2nd.domain.ItemBidSummary;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.math.BigDecimal;
+import java.util.stream.LongStream;
+
+@SpringBootTest
+class BidIngestionServiceTest {
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Autowired
+    BidIngestionService bidIngestionService;
+
+    @Test
+    public void testIngestInChunks() throws Exception {
+        Long[] itemIds = transactionTemplate.execute(status -> {
+            Item first = new Item("Ingestion item 1", "Some description");
+            Item second = new Item("Ingestion item 2", "Some description");
+            em.persist(first);
+            em.persist(second);
+            return new Long[]{first.getId(), second.getId()};
+        });
+
+        long stored = bidIngestionService.ingest(LongStream.rangeClosed(1, 2500)
+                .mapToObj(i -> new IncomingBid(itemIds[(int) (i % 2)], BigDecimal.valueOf(i))));
+
+        Assertions.assertEquals(2500, stored);
+        transactionTemplate.execute(status -> {
+            Long count = em.createQuery("select count(b) from Bid b where b.item.id = :itemId", Long.class)
+                    .setParameter("itemId", itemIds[0])
+                    .getSingleResult();
+            Assertions.assertEquals(1250L, count.longValue());
+
+            BidStatistics statistics = em.find(Item.class, itemIds[0]).getBidStatistics();
+            Assertions.assertEquals(1250, statistics.getCount());
+            Assertions.assertEquals(new BigDecimal("2.00"), statistics.getMinimum());
+            Assertions.assertEquals(new BigDecimal("2500.00"), statistics.getMaximum());
+            Assertions.assertEquals(new BigDecimal("1251.00"), statistics.getAverage());
+
+            Assertions.assertEquals(1250, em.find(ItemBidSummary.class, itemIds[1]).getNumberOfBids());
+            return null;
+        });
+    }
+
+    @Test
+    public void testChunksCommitOnTheirOwn() throws Exception {
+        Long itemId = transactionTemplate.execute(status -> {
+            Item item = new Item("Ingestion item 3", "Some description");
+            em.persist(item);
+            return item.getId();
+        });
+
+        transactionTemplate.execute(status -> {
+            Item item = em.find(Item.class, itemId);
+            long stored = bidIngestionService.ingest(LongStream.rangeClosed(1, 10)
+                    .mapToObj(i -> new IncomingBid(itemId, BigDecimal.valueOf(i))));
+            Assertions.assertEquals(10, stored);
+            // the caller's persistence context is untouched
+            Assertions.assertTrue(em.contains(item));
+            status.setRollbackOnly();
+            return null;
+        });
+
+        Long count = transactionTemplate.execute(status ->
+                em.createQuery("select count(b) from Bid b where b.item.id = :itemId", Long.class)
+                        .setParameter("itemId", itemId)
+                        .getSingleResult());
+        Assertions.assertEquals(10L, count.longValue());
+    }
+}
@@ -0,0 +1,152 @@
+package com.ico.ltd.hibernateinaction2nd.service;
+
+import com.ico.ltd.hibernateinaction2nd.domain.AuctionType;
+import com.ico.ltd.hibernateinaction2nd.domain.BidStatistics;
+import com.ico.ltd.hibernateinaction2nd.domain.Item;
+import com.ico.ltd.hibernateinaction2nd.domain.MonetaryAmount;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@SpringBootTest
+class BidServiceTest {
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Autowired
+    BidService bidService;
+
+    @Test
+    public void testAuctionTypeRules() throws Exception {
+        Long highest = newItem(AuctionType.HIGHEST_BID, null);
+        Long lowest = newItem(AuctionType.LOWEST_BID, null);
+        Long fixed = newItem(AuctionType.FIXED_PRICE, new BigDecimal("50"));
+
+        Assertions.assertThrows(InvalidBidException.class, () -> bidService.placeBid(highest, new BigDecimal("5")));
+        bidService.placeBid(highest, new BigDecimal("10"));
+        Assertions.assertThrows(InvalidBidException.class, () -> bidService.placeBid(highest, new BigDecimal("10")));
+        bidService.placeBid(highest, new BigDecimal("11"));
+
+        bidService.placeBid(lowest, new BigDecimal("10"));
+        Assertions.assertThrows(InvalidBidException.class, () -> bidService.placeBid(lowest, new BigDecimal("12")));
+        bidService.placeBid(lowest, new BigDecimal("9"));
+
+        Assertions.assertThrows(InvalidBidException.class, () -> bidService.placeBid(fixed, new BigDecimal("40")));
+        bidService.placeBid(fixed, new BigDecimal("50"));
+        Assertions.assertThrows(InvalidBidException.class, () -> bidService.placeBid(fixed, new BigDecimal("50")));
+
+        Assertions.assertEquals(new BigDecimal("11.00"), statistics(highest).getMaximum());
+        Assertions.assertEquals(new BigDecimal("9.00"), statistics(lowest).getMinimum());
+        Assertions.assertEquals(1, statistics(fixed).getCount());
+    }
+
+    @Test
+    public void testItemWithoutAuctionType() throws Exception {
+        Long itemId = newItem(null, null);
+        Assertions.assertNull(transactionTemplate.execute(status -> em.find(Item.class, itemId).getAuctionType()));
+
+        Assertions.assertThrows(InvalidBidException.class, () -> bidService.placeBid(itemId, new BigDecimal("9")));
+        bidService.placeBid(itemId, new BigDecimal("10"));
+        Assertions.assertThrows(InvalidBidException.class, () -> bidService.placeBid(itemId, new BigDecimal("10")));
+        bidService.placeBid(itemId, new BigDecimal("11"));
+
+        Assertions.assertEquals(2, statistics(itemId).getCount());
+        Assertions.assertEquals(new BigDecimal("11.00"), statistics(itemId).getMaximum());
+    }
+
+    @Test
+    public void testBidInTransactionOfCaller() throws Exception {
+        Long itemId = newItem(AuctionType.HIGHEST_BID, null);
+
+        transactionTemplate.execute(status -> {
+            bidService.placeBid(itemId, new BigDecimal("10"));
+            Assertions.assertThrows(InvalidBidException.class, () -> bidService.placeBid(itemId, new BigDecimal("5")));
+            Assertions.assertFalse(status.isRollbackOnly());
+            status.setRollbackOnly();
+            return null;
+        });
+
+        Assertions.assertEquals(1, statistics(itemId).getCount());
+    }
+
+    @Test
+    public void testConcurrentBidsOptimistic() throws Exception {
+        testConcurrentBids(BidService.ConcurrencyMode.OPTIMISTIC);
+    }
+
+    @Test
+    public void testConcurrentBidsStriped() throws Exception {
+        testConcurrentBids(BidService.ConcurrencyMode.STRIPED);
+    }
+
+    private void testConcurrentBids(BidService.ConcurrencyMode mode) throws Exception {
+        Long itemId = newItem(AuctionType.HIGHEST_BID, null);
+        AtomicInteger amounts = new AtomicInteger(10);
+        AtomicInteger accepted = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CyclicBarrier start = new CyclicBarrier(8);
+        List<Future<?>> bidders = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            bidders.add(executor.submit(() -> {
+                start.await();
+                for (int j = 0; j < 10; j++) {
+                    try {
+                        bidService.placeBid(itemId, BigDecimal.valueOf(amounts.incrementAndGet()), mode);
+                        accepted.incrementAndGet();
+                    } catch (InvalidBidException ex) {
+                        // outbid meanwhile
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> bidder : bidders) {
+            bidder.get();
+        }
+        executor.shutdown();
+
+        BidStatistics statistics = statistics(itemId);
+        Assertions.assertTrue(accepted.get() > 0);
+        Assertions.assertEquals(accepted.get(), statistics.getCount());
+        Assertions.assertEquals(accepted.get(), (long) transactionTemplate.execute(status ->
+                em.createQuery("select count(b) from Bid b where b.item.id = :itemId", Long.class)
+                        .setParameter("itemId", itemId)
+                        .getSingleResult()));
+        Assertions.assertEquals(new BigDecimal(amounts.get()).setScale(2), statistics.getMaximum());
+    }
+
+    private Long newItem(AuctionType auctionType, BigDecimal buyNowPrice) {
+        return transactionTemplate.execute(status -> {
+            Item item = new Item("Bidding item", "Some description");
+            item.setAuctionType(auctionType);
+            item.setInitialPrice(new MonetaryAmount(BigDecimal.TEN, Currency.getInstance("USD")));
+            if (buyNowPrice != null) {
+                item.setBuyNowPrice(new MonetaryAmount(buyNowPrice, Currency.getInstance("EUR")));
+            }
+            em.persist(item);
+            return item.getId();
+        });
+    }
+
+    private BidStatistics statistics(Long itemId) {
+        return transactionTemplate.execute(status -> em.find(Item.class, itemId).getBidStatistics());
+    }
+}
@@ -0,0 +1,87 @@
+package com.ico.ltd.hibernateinaction2nd.service;
+
+import com.ico.ltd.hibernateinaction2nd.domain.Bid;
+import com.ico.ltd.hibernateinaction2nd.domain.BidStatistics;
+import com.ico.ltd.hibernateinaction2nd.domain.Item;
+import org.hibernate.Session;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.Rollback;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+@SpringBootTest
+class BidStatisticsServiceTest {
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    BidStatisticsService bidStatisticsService;
+
+    @Test
+    @Rollback
+    @Transactional
+    public void testStatisticsMaintainedByAddBid() throws Exception {
+        Item item = new Item("Some name", "Some description");
+        em.persist(item);
+        item.addBid(newBid("10.00"));
+        item.addBid(newBid("30.00"));
+        item.getBids().forEach(em::persist);
+        em.flush();
+        em.clear();
+
+        BidStatistics statistics = em.find(Item.class, item.getId()).getBidStatistics();
+        Assertions.assertEquals(2, statistics.getCount());
+        Assertions.assertEquals(new BigDecimal("40.00"), statistics.getSum());
+        Assertions.assertEquals(new BigDecimal("10.00"), statistics.getMinimum());
+        Assertions.assertEquals(new BigDecimal("30.00"), statistics.getMaximum());
+        Assertions.assertEquals(new BigDecimal("20.00"), statistics.getAverage());
+    }
+
+    @Test
+    @Rollback
+    @Transactional
+    public void testRebuildFromBidTable() throws Exception {
+        em.createNativeQuery("update ITEM set BID_COUNT = 0, BID_SUM = 0, BID_MIN = null, BID_MAX = null")
+                .executeUpdate();
+
+        bidStatisticsService.rebuild(1L);
+        em.clear();
+
+        Item item = em.find(Item.class, 1L);
+        Assertions.assertEquals(3, item.getBidStatistics().getCount());
+        Assertions.assertEquals(new BigDecimal("200.00"), item.getAverageBidAmount());
+        Assertions.assertEquals(new BigDecimal("300.00"), item.getBidStatistics().getMaximum());
+    }
+
+    // rebuilding the statistics of an item reads its bids from the index, not the whole BID table
+    @Test
+    @Transactional
+    public void testRebuildOfItemUsesIndex() throws Exception {
+        String plan = em.unwrap(Session.class).doReturningWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "explain " + BidStatisticsService.REBUILD + " where i.ID = ?")) {
+                statement.setLong(1, 1L);
+                try (ResultSet result = statement.executeQuery()) {
+                    result.next();
+                    return result.getString(1);
+                }
+            }
+        });
+        Assertions.assertTrue(plan.contains(".IDX_BID_ITEM_ID_AMOUNT"), () -> "Expected IDX_BID_ITEM_ID_AMOUNT in:\n" + plan);
+        Assertions.assertFalse(plan.contains(".BID.tableScan"), () -> "Table scan of BID in:\n" + plan);
+    }
+
+    private Bid newBid(String amount) {
+        Bid bid = new Bid();
+        bid.setAmount(new BigDecimal(amount));
+        return bid;
+    }
+}
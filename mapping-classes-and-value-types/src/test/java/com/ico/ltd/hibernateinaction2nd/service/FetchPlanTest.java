@@ -0,0 +1,138 @@
+package com.ico.ltd.hibernateinaction2nd.service;
+
+import com.ico.ltd.hibernateinaction2nd.domain.Bid;
+import com.ico.ltd.hibernateinaction2nd.domain.Item;
+import org.hibernate.Hibernate;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.TypedQuery;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+@SpringBootTest
+class FetchPlanTest {
+
+    static final int ITEMS = 5;
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    EntityManagerFactory emf;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    Statistics statistics;
+
+    List<Long> itemIds;
+
+    @BeforeEach
+    public void createItemsWithBids() {
+        statistics = emf.unwrap(SessionFactory.class).getStatistics();
+        itemIds = transactionTemplate.execute(status -> {
+            List<Long> ids = new ArrayList<>();
+            for (int i = 0; i < ITEMS; i++) {
+                Item item = new Item("Fetch plan item " + i, "Some description");
+                em.persist(item);
+                for (int j = 1; j <= 2; j++) {
+                    Bid bid = new Bid();
+                    bid.setAmount(new BigDecimal(j));
+                    item.addBid(bid);
+                    em.persist(bid);
+                }
+                ids.add(item.getId());
+            }
+            return ids;
+        });
+        // measure database access only
+        emf.getCache().evictAll();
+        statistics.clear();
+    }
+
+    @Test
+    public void testBidFeedWithoutPlanBatchesItems() throws Exception {
+        transactionTemplate.execute(status -> {
+            List<Bid> bids = bidsQuery().getResultList();
+            bids.forEach(bid -> bid.getItem().getName());
+            return null;
+        });
+        // the bids, then all items in one batch instead of one SELECT per item
+        Assertions.assertEquals(2, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    public void testBidFeed() throws Exception {
+        transactionTemplate.execute(status -> {
+            List<Bid> bids = FetchPlan.BID_FEED.applyTo(bidsQuery(), em).getResultList();
+            Assertions.assertEquals(ITEMS * 2, bids.size());
+            bids.forEach(bid -> bid.getItem().getName());
+            return null;
+        });
+        Assertions.assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    public void testItemsWithoutPlanBatchBids() throws Exception {
+        transactionTemplate.execute(status -> {
+            List<Item> items = itemsQuery().getResultList();
+            items.forEach(item -> item.getBids().size());
+            return null;
+        });
+        Assertions.assertEquals(2, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    public void testItemWithBids() throws Exception {
+        transactionTemplate.execute(status -> {
+            List<Item> items = FetchPlan.ITEM_WITH_BIDS.applyTo(itemsQuery(), em).getResultList();
+            Assertions.assertEquals(ITEMS, items.size());
+            items.forEach(item -> Assertions.assertEquals(2, item.getBids().size()));
+            return null;
+        });
+        Assertions.assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    public void testItemListing() throws Exception {
+        transactionTemplate.execute(status -> {
+            Item item = em.find(Item.class, itemIds.get(0), FetchPlan.ITEM_LISTING.hints(em));
+            Assertions.assertNotNull(item.getName());
+            return null;
+        });
+        Assertions.assertEquals(1, statistics.getPrepareStatementCount());
+        Assertions.assertEquals(0, statistics.getCollectionLoadCount());
+    }
+
+    @Test
+    public void testDescriptionLoadedOnAccess() throws Exception {
+        transactionTemplate.execute(status -> {
+            Item item = em.find(Item.class, itemIds.get(0));
+            Assertions.assertFalse(Hibernate.isPropertyInitialized(item, "description"));
+            Assertions.assertEquals("Some description", item.getDescription());
+            return null;
+        });
+        // the item, then its description
+        Assertions.assertEquals(2, statistics.getPrepareStatementCount());
+    }
+
+    private TypedQuery<Bid> bidsQuery() {
+        return em.createQuery("select b from Bid b where b.item.id in :itemIds", Bid.class)
+                .setParameter("itemIds", itemIds);
+    }
+
+    private TypedQuery<Item> itemsQuery() {
+        return em.createQuery("select distinct i from Item i where i.id in :itemIds", Item.class)
+                .setParameter("itemIds", itemIds);
+    }
+}
@@ -0,0 +1,74 @@
+package com.ico.ltd.hibernateinaction2nd.service;
+
+import com.ico.ltd.hibernateinaction2nd.domain.Bid;
+import com.ico.ltd.hibernateinaction2nd.domain.Item;
+import com.ico.ltd.hibernateinaction2nd.domain.ItemBidSummary;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.math.BigDecimal;
+
+@SpringBootTest
+class ItemBidSummaryMaintainerTest {
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Test
+    public void testSummaryFromDataScript() throws Exception {
+        ItemBidSummary summary = transactionTemplate.execute(status -> em.find(ItemBidSummary.class, 1L));
+
+        Assertions.assertEquals("Some name", summary.getName());
+        Assertions.assertEquals(3, summary.getNumberOfBids());
+    }
+
+    @Test
+    public void testSummaryMaintainedOnCommit() throws Exception {
+        Long itemId = transactionTemplate.execute(status -> {
+            Item item = new Item("Summary item", "Some description");
+            em.persist(item);
+            return item.getId();
+        });
+
+        ItemBidSummary empty = transactionTemplate.execute(status -> em.find(ItemBidSummary.class, itemId));
+        Assertions.assertEquals(0, empty.getNumberOfBids());
+
+        transactionTemplate.execute(status -> {
+            Item item = em.find(Item.class, itemId);
+            for (int i = 1; i <= 3; i++) {
+                Bid bid = new Bid();
+                bid.setAmount(new BigDecimal(i));
+                item.addBid(bid);
+                em.persist(bid);
+            }
+            return null;
+        });
+
+        ItemBidSummary summary = transactionTemplate.execute(status -> em.find(ItemBidSummary.class, itemId));
+        Assertions.assertEquals(3, summary.getNumberOfBids());
+    }
+
+    @Test
+    public void testRolledBackBidsNotCounted() throws Exception {
+        transactionTemplate.execute(status -> {
+            Item item = em.find(Item.class, 1L);
+            Bid bid = new Bid();
+            bid.setAmount(new BigDecimal(400));
+            item.addBid(bid);
+            em.persist(bid);
+            em.flush();
+            status.setRollbackOnly();
+            return null;
+        });
+
+        ItemBidSummary summary = transactionTemplate.execute(status -> em.find(ItemBidSummary.class, 1L));
+        Assertions.assertEquals(3, summary.getNumberOfBids());
+    }
+}
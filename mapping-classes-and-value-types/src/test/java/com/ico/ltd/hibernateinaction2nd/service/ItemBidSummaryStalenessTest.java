@@ -0,0 +1,67 @@
+package com.ico.ltd.hibernateinaction2nd.service;
+
+import com.ico.ltd.hibernateinaction2nd.domain.Item;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.stream.Collectors;
+
+@SpringBootTest(properties = {
+        "auction.bid-summary.max-staleness-ms=3600000",
+        // an own database, its schema is recreated on startup and the sequences restart
+        "spring.datasource.generate-unique-name=true"
+})
+class ItemBidSummaryStalenessTest {
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    EntityManagerFactory emf;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Autowired
+    ItemBidSummaryMaintainer maintainer;
+
+    @AfterEach
+    public void evictCache() {
+        // the identifiers of this database overlap with the ones of the other contexts
+        emf.getCache().evictAll();
+    }
+
+    @Test
+    public void testPendingDeltasWrittenOnShutdown() throws Exception {
+        Long itemId = transactionTemplate.execute(status -> {
+            Item item = new Item("Summary item", "Some description");
+            em.persist(item);
+            for (int i = 1; i <= 3; i++) {
+                em.persist(item.placeBid(new BigDecimal(i)));
+            }
+            return item.getId();
+        });
+        Assertions.assertEquals(List.of(), numberOfBids(itemId));
+
+        maintainer.shutdown();
+
+        Assertions.assertEquals(List.of(3L), numberOfBids(itemId));
+    }
+
+    private List<Long> numberOfBids(Long itemId) {
+        return transactionTemplate.execute(status -> ((List<?>) em.createNativeQuery(
+                "select NUMBER_OF_BIDS from ITEM_BID_SUMMARY where ITEM_ID = :itemId")
+                .setParameter("itemId", itemId)
+                .getResultList()).stream()
+                .map(count -> ((Number) count).longValue())
+                .collect(Collectors.toList()));
+    }
+}
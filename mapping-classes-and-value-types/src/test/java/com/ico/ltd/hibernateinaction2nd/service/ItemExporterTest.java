@@ -0,0 +1,113 @@
+package com.ico.ltd.hibernateinaction2nd.service;
+
+import org.hibernate.Session;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+@SpringBootTest
+class ItemExporterTest {
+
+    static final int ROWS = 20_000;
+
+    static final long FIRST_ID = 10_000_000;
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Autowired
+    ItemExporter itemExporter;
+
+    @BeforeEach
+    public void insertItems() {
+        transactionTemplate.execute(status -> em.createNativeQuery(
+                "insert into ITEM (ID, NAME, DESCRIPTION, WEIGHT_GRAMS, AUCTION_TYPE, BID_COUNT, BID_SUM, " +
+                        "INITIALPRICE_AMOUNT, INITIALPRICE_CURRENCY) " +
+                        "select X + " + (FIRST_ID - 1) + ", 'Export item ' || X, 'Export \"description\" ' || X, " +
+                        "X, 'HIGHEST_BID', 0, 0, X, 'USD' from SYSTEM_RANGE(1, " + ROWS + ")")
+                .executeUpdate());
+    }
+
+    @AfterEach
+    public void deleteItems() {
+        transactionTemplate.execute(status -> em.createNativeQuery("delete from ITEM where ID >= " + FIRST_ID)
+                .executeUpdate());
+    }
+
+    @Test
+    public void testCsvExportKeepsPersistenceContextBounded() throws Exception {
+        long total = transactionTemplate.execute(status ->
+                em.createQuery("select count(i) from Item i", Long.class).getSingleResult());
+        CapturingChannel channel = new CapturingChannel();
+
+        long exported = itemExporter.export(channel, ExportFormat.CSV);
+
+        Assertions.assertEquals(total, exported);
+        String[] lines = channel.text().split("\n");
+        Assertions.assertEquals(total + 1, lines.length);
+        Assertions.assertTrue(channel.text().contains(
+                FIRST_ID + ",\"Export item 1\",\"Export \"\"description\"\" 1\",,HIGHEST_BID,"));
+        // the exporter clears the persistence context every 1000 items
+        Assertions.assertTrue(channel.maxManagedEntities > 0 && channel.maxManagedEntities <= 1000,
+                "Managed: " + channel.maxManagedEntities);
+    }
+
+    @Test
+    public void testNdjsonExport() throws Exception {
+        CapturingChannel channel = new CapturingChannel();
+
+        itemExporter.export(channel, ExportFormat.NDJSON);
+
+        Assertions.assertTrue(channel.text().contains(
+                "{\"id\":" + FIRST_ID + ",\"name\":\"Export item 1\",\"description\":\"Export \\\"description\\\" 1\""));
+        Assertions.assertTrue(channel.text().contains(
+                "\"initialPrice\":{\"value\":1.00,\"currency\":\"USD\"},\"buyNowPrice\":null}"));
+    }
+
+    /*
+        Records what the exporter writes, and how many entities the exporter's
+        persistence context holds at that moment.
+     */
+    class CapturingChannel implements WritableByteChannel {
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        int maxManagedEntities;
+
+        @Override
+        public int write(ByteBuffer src) {
+            int managed = em.unwrap(Session.class).getStatistics().getEntityCount();
+            maxManagedEntities = Math.max(maxManagedEntities, managed);
+            int written = src.remaining();
+            bytes.write(src.array(), src.arrayOffset() + src.position(), written);
+            src.position(src.limit());
+            return written;
+        }
+
+        String text() {
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.ico.ltd.hibernateinaction2nd.service;
+
+import com.ico.ltd.hibernateinaction2nd.domain.AuctionType;
+import com.ico.ltd.hibernateinaction2nd.domain.Bid;
+import com.ico.ltd.hibernateinaction2nd.domain.Item;
+import com.ico.ltd.hibernateinaction2nd.domain.MonetaryAmount;
+import org.hibernate.Session;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+@SpringBootTest
+class ItemListingServiceTest {
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    ItemListingService itemListingService;
+
+    @Test
+    @Transactional
+    public void testListingWithoutEntities() throws Exception {
+        List<ItemListingView> listing = itemListingService.findListing(0, 1);
+
+        ItemListingView first = listing.get(0);
+        Assertions.assertEquals(1L, first.getId().longValue());
+        Assertions.assertEquals("Some name", first.getName());
+        Assertions.assertEquals("Java: A Deta...", first.getShortDescription());
+        Assertions.assertEquals(new BigDecimal("300.00"), first.getCurrentPrice());
+        Assertions.assertEquals(3, first.getBidCount());
+        Assertions.assertEquals(0, em.unwrap(Session.class).getStatistics().getEntityCount());
+    }
+
+    @Test
+    @Transactional
+    public void testCurrentPriceByAuctionType() throws Exception {
+        Item highest = listedItem(AuctionType.HIGHEST_BID, "12", "15");
+        Item lowest = listedItem(AuctionType.LOWEST_BID, "12", "15");
+        Item fixed = listedItem(AuctionType.FIXED_PRICE);
+        fixed.setBuyNowPrice(new MonetaryAmount(new BigDecimal("50"), Currency.getInstance("EUR")));
+        Item untyped = listedItem(null, "12", "15");
+        Item withoutBids = listedItem(AuctionType.LOWEST_BID);
+        em.flush();
+
+        // items other tests committed may have no price at all
+        Map<Long, BigDecimal> prices = new HashMap<>();
+        itemListingService.findListing(0, Integer.MAX_VALUE)
+                .forEach(view -> prices.put(view.getId(), view.getCurrentPrice()));
+
+        Assertions.assertEquals(new BigDecimal("15.00"), prices.get(highest.getId()));
+        Assertions.assertEquals(new BigDecimal("12.00"), prices.get(lowest.getId()));
+        Assertions.assertEquals(new BigDecimal("50.00"), prices.get(fixed.getId()));
+        Assertions.assertEquals(new BigDecimal("15.00"), prices.get(untyped.getId()));
+        Assertions.assertEquals(new BigDecimal("10.00"), prices.get(withoutBids.getId()));
+    }
+
+    @Test
+    @Transactional
+    public void testListingByWeight() throws Exception {
+        for (double weight : new double[]{123.5, 123.399, 123.45, 124, 123.4}) {
+            Item item = new Item("Weighed item", "Some description");
+            item.setMetricWeight(weight);
+            em.persist(item);
+        }
+
+        List<ItemListingView> listing = itemListingService.findListingByWeight(123.4, 123.5, 0, 10);
+
+        Assertions.assertEquals(3, listing.size());
+        em.clear();
+        Assertions.assertEquals(123.4, em.find(Item.class, listing.get(0).getId()).getMetricWeight());
+        Assertions.assertEquals(123.45, em.find(Item.class, listing.get(1).getId()).getMetricWeight());
+        Assertions.assertEquals(123.5, em.find(Item.class, listing.get(2).getId()).getMetricWeight());
+    }
+
+    @Test
+    @Transactional
+    public void testListingItemsReadOnly() throws Exception {
+        Item item = itemListingService.findListingItems(0, 1).get(0);
+
+        Assertions.assertTrue(em.unwrap(Session.class).isReadOnly(item));
+    }
+
+    @Test
+    @Transactional
+    public void testListingByAuctionEndPages() throws Exception {
+        // two items end at the same time, the identifier orders them
+        Date tie = new Date(4_070_000_000_000L);
+        List<Long> expected = new ArrayList<>();
+        for (Date auctionEnd : new Date[]{new Date(4_070_000_000_001L), tie, new Date(4_069_999_999_999L), tie}) {
+            Item item = new Item("Ending item", "Some description");
+            item.setAuctionEnd(auctionEnd);
+            em.persist(item);
+            expected.add(item.getId());
+        }
+        List<Long> inOrder = List.of(expected.get(2), expected.get(1), expected.get(3), expected.get(0));
+
+        List<Long> listed = new ArrayList<>();
+        String pageToken = null;
+        do {
+            KeysetPage<ItemListingView> page = itemListingService.findListingByAuctionEnd(pageToken, 2);
+            Assertions.assertTrue(page.getContent().size() <= 2);
+            page.getContent().forEach(view -> listed.add(view.getId()));
+            pageToken = page.getNextPageToken();
+        } while (pageToken != null);
+
+        Set<Long> unique = new HashSet<>(listed);
+        Assertions.assertEquals(listed.size(), unique.size());
+        Long withAuctionEnd = em.createQuery("select count(i) from Item i where i.auctionEnd is not null", Long.class)
+                .getSingleResult();
+        Assertions.assertEquals(withAuctionEnd.intValue(), listed.size());
+        Assertions.assertEquals(inOrder, listed.stream().filter(expected::contains).collect(Collectors.toList()));
+    }
+
+    @Test
+    @Transactional
+    public void testBidPages() throws Exception {
+        Item item = new Item("Item with bids", "Some description");
+        em.persist(item);
+        for (String amount : new String[]{"5", "3", "3", "7", "1"}) {
+            Bid bid = new Bid();
+            bid.setAmount(new BigDecimal(amount));
+            item.addBid(bid);
+            em.persist(bid);
+        }
+
+        KeysetPage<Bid> first = itemListingService.findBids(item.getId(), null, 2);
+        KeysetPage<Bid> second = itemListingService.findBids(item.getId(), first.getNextPageToken(), 2);
+        KeysetPage<Bid> third = itemListingService.findBids(item.getId(), second.getNextPageToken(), 2);
+
+        Assertions.assertEquals(List.of("1", "3"), amounts(first));
+        Assertions.assertEquals(List.of("3", "5"), amounts(second));
+        Assertions.assertTrue(first.getContent().get(1).getId() < second.getContent().get(0).getId());
+        Assertions.assertEquals(List.of("7"), amounts(third));
+        Assertions.assertFalse(third.hasNext());
+    }
+
+    @Test
+    public void testInvalidPageToken() throws Exception {
+        Assertions.assertThrows(InvalidPageTokenException.class,
+                () -> itemListingService.findListingByAuctionEnd("not a token", 2));
+
+        String bidsOfFirstItem = itemListingService.findBids(1L, null, 1).getNextPageToken();
+        Assertions.assertThrows(InvalidPageTokenException.class,
+                () -> itemListingService.findBids(2L, bidsOfFirstItem, 1));
+        Assertions.assertThrows(InvalidPageTokenException.class,
+                () -> itemListingService.findListingByAuctionEnd(bidsOfFirstItem, 1));
+    }
+
+    private Item listedItem(AuctionType auctionType, String... bids) {
+        Item item = new Item("Priced item", "Some description");
+        item.setAuctionType(auctionType);
+        item.setInitialPrice(new MonetaryAmount(BigDecimal.TEN, Currency.getInstance("USD")));
+        em.persist(item);
+        for (String amount : bids) {
+            em.persist(item.placeBid(new BigDecimal(amount)));
+        }
+        return item;
+    }
+
+    private List<String> amounts(KeysetPage<Bid> page) {
+        return page.getContent().stream()
+                .map(bid -> bid.getAmount().stripTrailingZeros().toPlainString())
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,151 @@
+package com.ico.ltd.hibernateinaction2nd.service;
+
+import com.ico.ltd.hibernateinaction2nd.domain.Item;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+@SpringBootTest(properties = {
+        "auction.search.enabled=true",
+        "auction.search.index-dir=target/item-index-test",
+        "auction.search.reindex-on-start=true",
+        "auction.search.reindex-chunk-size=10",
+        // an own database, its schema is recreated on startup and the sequences restart
+        "spring.datasource.generate-unique-name=true"
+})
+class ItemSearchIndexTest {
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Autowired
+    ItemSearchIndex index;
+
+    @Test
+    public void testIndexedOnCommit() throws Exception {
+        Long itemId = transactionTemplate.execute(status -> {
+            Item item = new Item();
+            item.setName("Vintage Camera");
+            item.setDescription("A rangefinder from 1950, with leather case");
+            em.persist(item);
+            Assertions.assertTrue(index.search("rangefinder", 10).isEmpty());
+            return item.getId();
+        });
+
+        Assertions.assertEquals(List.of(itemId), index.search("vintage", 10));
+        Assertions.assertEquals(List.of(itemId), index.search("Leather CAMERA", 10));
+        Assertions.assertEquals(List.of(itemId), index.searchPrefix("leather ran", 10));
+        Assertions.assertFalse(index.search("auction", 10).contains(itemId));
+        Assertions.assertTrue(index.search("vintage bicycle", 10).isEmpty());
+    }
+
+    @Test
+    public void testUpdateAndDelete() throws Exception {
+        Long itemId = transactionTemplate.execute(status -> {
+            Item item = new Item("Typewriter", "Portable mechanical typewriter");
+            em.persist(item);
+            return item.getId();
+        });
+
+        // the lazy description isn't loaded, it's read for the index
+        transactionTemplate.execute(status -> {
+            em.find(Item.class, itemId).setName("Olivetti");
+            return null;
+        });
+        Assertions.assertEquals(List.of(itemId), index.search("olivetti portable", 10));
+        Assertions.assertTrue(index.search("typewriter olivetti", 10).contains(itemId));
+
+        transactionTemplate.execute(status -> {
+            em.find(Item.class, itemId).setDescription("Electric");
+            return null;
+        });
+        Assertions.assertEquals(List.of(itemId), index.search("olivetti electric", 10));
+        Assertions.assertTrue(index.search("portable", 10).isEmpty());
+
+        transactionTemplate.execute(status -> {
+            em.remove(em.find(Item.class, itemId));
+            return null;
+        });
+        Assertions.assertTrue(index.search("olivetti", 10).isEmpty());
+    }
+
+    @Test
+    public void testRankingAndReindex() throws Exception {
+        Long[] itemIds = transactionTemplate.execute(status -> {
+            Item inDescription = new Item("Gramophone", "Horn gramophone, plays shellac records");
+            Item inName = new Item("Shellac records", "Twelve records of the twenties");
+            em.persist(inDescription);
+            em.persist(inName);
+            return new Long[]{inDescription.getId(), inName.getId()};
+        });
+        Assertions.assertEquals(List.of(itemIds[1], itemIds[0]), index.search("shellac", 10));
+
+        // not seen by Hibernate, only found after reindexing
+        transactionTemplate.execute(status -> em.createNativeQuery(
+                "insert into ITEM (ID, VERSION, NAME, DESCRIPTION, WEIGHT_GRAMS, BID_COUNT, BID_SUM, CLOSED) " +
+                        "values (9999999, 0, 'Shellac cleaner', 'For records', 0, 0, 0, false)")
+                .executeUpdate());
+        Assertions.assertFalse(index.search("cleaner", 10).contains(9999999L));
+
+        Assertions.assertTrue(index.reindex() >= 4);
+        Assertions.assertEquals(List.of(9999999L), index.search("cleaner", 10));
+        Assertions.assertEquals(3, index.searchPrefix("shel", 10).size());
+    }
+
+    @Test
+    public void testReindexWhileUpdating() throws Exception {
+        List<Long> itemIds = transactionTemplate.execute(status -> {
+            List<Long> ids = new ArrayList<>();
+            for (int i = 0; i < 2000; i++) {
+                // no number in the name, "revision 2" would find "Pocket watch 2" too
+                Item item = new Item("Pocket watch", "Revision 0");
+                em.persist(item);
+                ids.add(item.getId());
+            }
+            return ids;
+        });
+        // deleted bypassing Hibernate, its document goes with the reindex
+        transactionTemplate.execute(status -> em.createNativeQuery("delete from ITEM_BID_SUMMARY where ITEM_ID = :id")
+                .setParameter("id", itemIds.get(0))
+                .executeUpdate() + em.createNativeQuery("delete from ITEM where ID = :id")
+                .setParameter("id", itemIds.get(0))
+                .executeUpdate());
+        List<Long> updated = new ArrayList<>();
+        for (int i = 1; i < itemIds.size(); i += 20) {
+            updated.add(itemIds.get(i));
+        }
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<Long> reindex = executor.submit(index::reindex);
+        int revision = 0;
+        do {
+            int current = ++revision;
+            transactionTemplate.execute(status -> {
+                for (Long itemId : updated) {
+                    em.find(Item.class, itemId).setDescription("Revision " + current);
+                }
+                return null;
+            });
+            // neither overwritten by the reindex nor missing meanwhile
+            Assertions.assertEquals(updated.size(), index.search("revision " + current, 5000).size());
+            Assertions.assertTrue(index.search("pocket watch", 5000).size() >= itemIds.size() - 1);
+        } while (!reindex.isDone());
+        Assertions.assertTrue(reindex.get() >= itemIds.size() - 1);
+        executor.shutdown();
+
+        Assertions.assertEquals(updated.size(), index.search("revision " + revision, 5000).size());
+        Assertions.assertEquals(itemIds.size() - 1, index.search("pocket watch", 5000).size());
+    }
+}
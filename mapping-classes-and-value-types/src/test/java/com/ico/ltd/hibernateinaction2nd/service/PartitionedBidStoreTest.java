@@ -0,0 +1,303 @@
+package com.ico.ltd.hibernateinaction2nd.service;
+
+import com.ico.ltd.hibernateinaction2nd.domain.AuctionType;
+import com.ico.ltd.hibernateinaction2nd.domain.Bid;
+import com.ico.ltd.hibernateinaction2nd.domain.BidStatistics;
+import com.ico.ltd.hibernateinaction2nd.domain.Item;
+import com.ico.ltd.hibernateinaction2nd.domain.ItemBidSummary;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TemporalType;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+@SpringBootTest(properties = {
+        "auction.bid-partitions.enabled=true",
+        "auction.bid-partitions.count=3",
+        "auction.bid-partitions.url=jdbc:h2:mem:test-bids-%d;DB_CLOSE_DELAY=-1",
+        "auction.close.interval-ms=0",
+        "auction.write-behind.enabled=true",
+        "auction.write-behind.journal=target/partitioned-bids-test/bids.journal"
+})
+class PartitionedBidStoreTest {
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Autowired
+    PartitionedBidStore store;
+
+    @Autowired
+    BidService bidService;
+
+    @Autowired
+    BidIngestionService bidIngestionService;
+
+    @Autowired
+    WriteBehindBidQueue writeBehindBidQueue;
+
+    @Autowired
+    ItemListingService itemListingService;
+
+    @Autowired
+    AuctionCloseService auctionCloseService;
+
+    @Autowired
+    BidStatisticsService bidStatisticsService;
+
+    @AfterEach
+    public void deleteBids() {
+        for (int partition = 0; partition < store.getPartitionCount(); partition++) {
+            store.getJdbcOperations(partition).update("delete from BID");
+        }
+    }
+
+    @Test
+    public void testBidsStoredInPartitionOfItem() throws Exception {
+        Long[] items = newItems(AuctionType.HIGHEST_BID, 4);
+        store.insertAll(Arrays.asList(
+                new IncomingBid(items[0], new BigDecimal("1.00")),
+                new IncomingBid(items[1], new BigDecimal("2.00")),
+                new IncomingBid(items[2], new BigDecimal("3.00")),
+                new IncomingBid(items[3], new BigDecimal("4.00"))));
+        store.insert(items[3], new BigDecimal("5.00"));
+
+        for (int partition = 0; partition < store.getPartitionCount(); partition++) {
+            List<Long> itemIds = store.getJdbcOperations(partition)
+                    .queryForList("select ITEM_ID from BID", Long.class);
+            for (Long itemId : itemIds) {
+                Assertions.assertEquals(partition, store.partitionOf(itemId));
+            }
+        }
+        // the first and the last item share a partition
+        Assertions.assertEquals(3L, store.getJdbcOperations(store.partitionOf(items[3]))
+                .queryForObject("select count(*) from BID", Long.class));
+        Assertions.assertEquals(0L, countMainBids(items));
+    }
+
+    @Test
+    public void testStatisticsAndSummaryOfItemUpdated() throws Exception {
+        Long itemId = newItems(AuctionType.HIGHEST_BID, 1)[0];
+        long version = item(itemId).getVersion();
+
+        store.insert(itemId, new BigDecimal("10.00"));
+        store.insertAll(Arrays.asList(
+                new IncomingBid(itemId, new BigDecimal("30.00")),
+                new IncomingBid(itemId, new BigDecimal("20.00"))));
+
+        Item item = item(itemId);
+        Assertions.assertEquals(3, item.getBidStatistics().getCount());
+        Assertions.assertEquals(new BigDecimal("30.00"), item.getBidStatistics().getMaximum());
+        Assertions.assertEquals(version + 2, item.getVersion());
+        Assertions.assertEquals(3L, (long) transactionTemplate.execute(status ->
+                em.find(ItemBidSummary.class, itemId).getNumberOfBids()));
+
+        // nothing is stored for a missing item
+        Assertions.assertThrows(DataIntegrityViolationException.class, () -> store.insertAll(Arrays.asList(
+                new IncomingBid(itemId, new BigDecimal("40.00")),
+                new IncomingBid(Long.MAX_VALUE, new BigDecimal("40.00")))));
+        Assertions.assertEquals(3, store.getStatistics(itemId).getCount());
+        Assertions.assertEquals(3, item(itemId).getBidStatistics().getCount());
+    }
+
+    @Test
+    public void testFindByItem() throws Exception {
+        Long[] items = newItems(AuctionType.HIGHEST_BID, 2);
+        long first = store.insert(items[0], new BigDecimal("10.00"));
+        long second = store.insert(items[0], new BigDecimal("30.00"));
+        store.insert(items[1], new BigDecimal("20.00"));
+
+        List<Bid> bids = store.findByItem(items[0]);
+
+        Assertions.assertEquals(2, bids.size());
+        Assertions.assertNotEquals(first, second);
+        Assertions.assertEquals(second, bids.get(0).getId().longValue());
+        Assertions.assertEquals(new BigDecimal("30.00"), bids.get(0).getAmount());
+        Assertions.assertEquals(first, bids.get(1).getId().longValue());
+        Assertions.assertEquals("Partitioned item", bids.get(1).getItem().getName());
+    }
+
+    @Test
+    public void testStatisticsAcrossPartitions() throws Exception {
+        Long[] items = newItems(AuctionType.HIGHEST_BID, 4);
+        store.insertAll(Arrays.asList(
+                new IncomingBid(items[0], new BigDecimal("1.00")),
+                new IncomingBid(items[0], new BigDecimal("3.00")),
+                new IncomingBid(items[1], new BigDecimal("10.00")),
+                new IncomingBid(items[2], new BigDecimal("7.00"))));
+
+        Map<Long, BidStatistics> statistics = store.getStatistics(Arrays.asList(items));
+
+        Assertions.assertEquals(2, statistics.get(items[0]).getCount());
+        Assertions.assertEquals(new BigDecimal("2.00"), statistics.get(items[0]).getAverage());
+        Assertions.assertEquals(new BigDecimal("10.00"), statistics.get(items[1]).getMaximum());
+        Assertions.assertEquals(1, statistics.get(items[2]).getCount());
+        Assertions.assertEquals(0, statistics.get(items[3]).getCount());
+
+        BidStatistics total = store.getTotalStatistics();
+        Assertions.assertEquals(4, total.getCount());
+        Assertions.assertEquals(new BigDecimal("21.00"), total.getSum());
+        Assertions.assertEquals(new BigDecimal("1.00"), total.getMinimum());
+        Assertions.assertEquals(new BigDecimal("10.00"), total.getMaximum());
+        Assertions.assertEquals(store.getStatistics(items[0]).getSum(), statistics.get(items[0]).getSum());
+    }
+
+    @Test
+    public void testServicesUsePartitions() throws Exception {
+        Long itemId = newItems(AuctionType.HIGHEST_BID, 1)[0];
+
+        Bid placed = bidService.placeBid(itemId, new BigDecimal("15.00"));
+        Assertions.assertThrows(InvalidBidException.class, () -> bidService.placeBid(itemId, new BigDecimal("15.00")));
+        bidIngestionService.ingest(Stream.of("11.00", "12.00", "13.00")
+                .map(amount -> new IncomingBid(itemId, new BigDecimal(amount))));
+        writeBehindBidQueue.placeBid(itemId, new BigDecimal("16.00"));
+        Assertions.assertTrue(writeBehindBidQueue.awaitStored(10, TimeUnit.SECONDS));
+
+        Assertions.assertEquals(0L, countMainBids(itemId));
+        Assertions.assertEquals(5, store.getStatistics(itemId).getCount());
+        Assertions.assertEquals(5, item(itemId).getBidStatistics().getCount());
+        Assertions.assertEquals(new BigDecimal("16.00"), item(itemId).getBidStatistics().getMaximum());
+        Assertions.assertEquals(5L, (long) transactionTemplate.execute(status ->
+                em.find(ItemBidSummary.class, itemId).getNumberOfBids()));
+
+        KeysetPage<Bid> page = itemListingService.findBids(itemId, null, 3);
+        Assertions.assertEquals(Arrays.asList(new BigDecimal("11.00"), new BigDecimal("12.00"), new BigDecimal("13.00")),
+                page.getContent().stream().map(Bid::getAmount).collect(Collectors.toList()));
+        page = itemListingService.findBids(itemId, page.getNextPageToken(), 3);
+        Assertions.assertEquals(Arrays.asList(placed.getId(), null),
+                Arrays.asList(page.getContent().get(0).getId(), page.getNextPageToken()));
+        Assertions.assertEquals(2, page.getContent().size());
+    }
+
+    @Test
+    public void testRebuildFromPartitions() throws Exception {
+        Long itemId = newItems(AuctionType.HIGHEST_BID, 1)[0];
+        // loaded bypassing the store
+        store.getJdbcOperations(store.partitionOf(itemId)).update(
+                "insert into BID (ID, ITEM_ID, AMOUNT) values (?, ?, 5), (?, ?, 8)",
+                Long.MAX_VALUE - 1, itemId, Long.MAX_VALUE - 2, itemId);
+
+        Assertions.assertEquals(1, bidStatisticsService.rebuild(itemId));
+
+        BidStatistics statistics = item(itemId).getBidStatistics();
+        Assertions.assertEquals(2, statistics.getCount());
+        Assertions.assertEquals(new BigDecimal("5.00"), statistics.getMinimum());
+        Assertions.assertEquals(new BigDecimal("13.00"), statistics.getSum());
+    }
+
+    @Test
+    public void testWinnersFromPartitions() throws Exception {
+        Long highest = newItems(AuctionType.HIGHEST_BID, 1)[0];
+        Long lowest = newItems(AuctionType.LOWEST_BID, 1)[0];
+        Long fixed = newItems(AuctionType.FIXED_PRICE, 1)[0];
+        Long noBids = newItems(AuctionType.HIGHEST_BID, 1)[0];
+        store.insert(highest, new BigDecimal("10"));
+        long highestWinner = store.insert(highest, new BigDecimal("30"));
+        store.insert(highest, new BigDecimal("30"));
+        store.insert(lowest, new BigDecimal("20"));
+        long lowestWinner = store.insert(lowest, new BigDecimal("5"));
+        long fixedWinner = store.insert(fixed, new BigDecimal("50"));
+        store.insert(fixed, new BigDecimal("50"));
+        transactionTemplate.execute(status -> em.createNativeQuery(
+                "update ITEM set AUCTION_END = :auctionEnd where ID in (:itemIds)")
+                .setParameter("auctionEnd", new Date(System.currentTimeMillis() - 1000), TemporalType.TIMESTAMP)
+                .setParameter("itemIds", Arrays.asList(highest, lowest, fixed, noBids))
+                .executeUpdate());
+
+        Assertions.assertTrue(auctionCloseService.closeExpired() >= 4);
+
+        Assertions.assertEquals(highestWinner, (long) winningBidOf(highest));
+        Assertions.assertEquals(lowestWinner, (long) winningBidOf(lowest));
+        Assertions.assertEquals(fixedWinner, (long) winningBidOf(fixed));
+        Assertions.assertNull(winningBidOf(noBids));
+        Assertions.assertTrue(item(noBids).isClosed());
+        Assertions.assertEquals(new BigDecimal("30.00"), transactionTemplate.execute(status ->
+                em.find(Item.class, highest).getWinningBid().getAmount()));
+        Assertions.assertEquals(highestWinner, (long) store.findWinners(
+                Collections.singletonMap(highest, AuctionType.HIGHEST_BID)).get(highest).getId());
+    }
+
+    @Test
+    public void testEntityBidsRejected() throws Exception {
+        Long itemId = newItems(AuctionType.HIGHEST_BID, 1)[0];
+
+        transactionTemplate.execute(status -> {
+            assertRejected(() -> em.find(Item.class, itemId).getBids().size());
+            status.setRollbackOnly();
+            return null;
+        });
+        transactionTemplate.execute(status -> {
+            Bid bid = new Bid();
+            bid.setAmount(BigDecimal.TEN);
+            assertRejected(() -> em.find(Item.class, itemId).addBid(bid));
+            assertRejected(() -> em
+                    .createNamedQuery("Bid.findByItem", Bid.class)
+                    .setParameter("itemId", itemId)
+                    .getResultList());
+            status.setRollbackOnly();
+            return null;
+        });
+        transactionTemplate.execute(status -> {
+            em.persist(em.find(Item.class, itemId).placeBid(BigDecimal.TEN));
+            assertRejected(em::flush);
+            status.setRollbackOnly();
+            return null;
+        });
+        Assertions.assertEquals(0, item(itemId).getBidStatistics().getCount());
+    }
+
+    private static void assertRejected(Executable executable) {
+        IllegalStateException ex = Assertions.assertThrows(IllegalStateException.class, executable);
+        Assertions.assertTrue(ex.getMessage().startsWith("Bids are stored in partitions"), ex.getMessage());
+    }
+
+    private Long[] newItems(AuctionType auctionType, int count) {
+        return transactionTemplate.execute(status -> {
+            Long[] ids = new Long[count];
+            for (int i = 0; i < count; i++) {
+                Item item = new Item("Partitioned item", "Some description");
+                item.setAuctionType(auctionType);
+                item.setAuctionEnd(new Date(System.currentTimeMillis() + 60000));
+                em.persist(item);
+                ids[i] = item.getId();
+            }
+            return ids;
+        });
+    }
+
+    private Item item(Long itemId) {
+        return transactionTemplate.execute(status -> em.find(Item.class, itemId));
+    }
+
+    private Long winningBidOf(Long itemId) {
+        return transactionTemplate.execute(status -> {
+            Bid winningBid = em.find(Item.class, itemId).getWinningBid();
+            return winningBid != null ? winningBid.getId() : null;
+        });
+    }
+
+    private long countMainBids(Long... itemIds) {
+        return transactionTemplate.execute(status -> em.createQuery(
+                "select count(b) from Bid b where b.item.id in :itemIds", Long.class)
+                .setParameter("itemIds", Arrays.asList(itemIds))
+                .getSingleResult());
+    }
+}
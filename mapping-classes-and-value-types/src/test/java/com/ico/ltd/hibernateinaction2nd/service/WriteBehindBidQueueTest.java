@@ -0,0 +1,220 @@
+package com.ico.ltd.hibernateinaction2nd.service;
+
+import com.ico.ltd.hibernateinaction2nd.domain.AuctionType;
+import com.ico.ltd.hibernateinaction2nd.domain.BidStatistics;
+import com.ico.ltd.hibernateinaction2nd.domain.Item;
+import com.ico.ltd.hibernateinaction2nd.domain.ItemBidSummary;
+import com.ico.ltd.hibernateinaction2nd.domain.MonetaryAmount;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityNotFoundException;
+import javax.sql.DataSource;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+@SpringBootTest(properties = {
+        "auction.write-behind.enabled=true",
+        "auction.write-behind.journal=target/write-behind-test/bids.journal",
+        // an own database, its schema is recreated on startup and the sequences restart
+        "spring.datasource.generate-unique-name=true"
+})
+class WriteBehindBidQueueTest {
+
+    @Autowired
+    EntityManager em;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Autowired
+    WriteBehindBidQueue queue;
+
+    @Autowired
+    DataSource dataSource;
+
+    @Test
+    public void testBidsAreStoredInTheBackground() throws Exception {
+        Long itemId = persistItem("Write-behind item");
+
+        long firstBid = 0;
+        for (int i = 1; i <= 1200; i++) {
+            long id = queue.placeBid(itemId, BigDecimal.valueOf(i));
+            if (i == 1) {
+                firstBid = id;
+            }
+        }
+        Assertions.assertTrue(queue.awaitStored(10, TimeUnit.SECONDS));
+        Assertions.assertEquals(0, queue.getPendingCount());
+
+        long firstBidId = firstBid;
+        transactionTemplate.execute(status -> {
+            Assertions.assertEquals(new BigDecimal("1.00"), em.createQuery(
+                    "select b.amount from Bid b where b.id = :id", BigDecimal.class)
+                    .setParameter("id", firstBidId)
+                    .getSingleResult());
+
+            BidStatistics statistics = em.find(Item.class, itemId).getBidStatistics();
+            Assertions.assertEquals(1200, statistics.getCount());
+            Assertions.assertEquals(new BigDecimal("1200.00"), statistics.getMaximum());
+            Assertions.assertEquals(1200, em.find(ItemBidSummary.class, itemId).getNumberOfBids());
+            return null;
+        });
+    }
+
+    @Test
+    public void testBidsOnClosedAuctionsAreRejected() throws Exception {
+        Long ended = persistItem("Ended item");
+        transactionTemplate.execute(status -> em
+                .createQuery("update Item i set i.auctionEnd = :auctionEnd where i.id = :id")
+                .setParameter("auctionEnd", new Date(System.currentTimeMillis() - 1000))
+                .setParameter("id", ended)
+                .executeUpdate());
+
+        Assertions.assertThrows(InvalidBidException.class, () -> queue.placeBid(ended, BigDecimal.ONE));
+        Assertions.assertThrows(EntityNotFoundException.class, () -> queue.placeBid(Long.MAX_VALUE, BigDecimal.ONE));
+        Assertions.assertThrows(InvalidBidException.class, () -> queue.placeBid(ended, BigDecimal.ZERO));
+    }
+
+    @Test
+    public void testAuctionRulesAreChecked() throws Exception {
+        Long highest = persistItem("Highest bid item", AuctionType.HIGHEST_BID, null);
+        Long lowest = persistItem("Lowest bid item", AuctionType.LOWEST_BID, null);
+        Long fixed = persistItem("Fixed price item", AuctionType.FIXED_PRICE,
+                new MonetaryAmount(new BigDecimal("50"), Currency.getInstance("EUR")));
+
+        Assertions.assertThrows(InvalidBidException.class, () -> queue.placeBid(highest, BigDecimal.ONE));
+        queue.placeBid(highest, new BigDecimal("20"));
+        queue.placeBid(lowest, new BigDecimal("30"));
+        Assertions.assertThrows(InvalidBidException.class, () -> queue.placeBid(fixed, new BigDecimal("40")));
+        queue.placeBid(fixed, new BigDecimal("50"));
+        Assertions.assertTrue(queue.awaitStored(10, TimeUnit.SECONDS));
+
+        Assertions.assertThrows(InvalidBidException.class, () -> queue.placeBid(highest, new BigDecimal("20")));
+        queue.placeBid(highest, new BigDecimal("21"));
+        Assertions.assertThrows(InvalidBidException.class, () -> queue.placeBid(lowest, new BigDecimal("30")));
+        queue.placeBid(lowest, new BigDecimal("25"));
+        Assertions.assertThrows(InvalidBidException.class, () -> queue.placeBid(fixed, new BigDecimal("50")));
+        Assertions.assertTrue(queue.awaitStored(10, TimeUnit.SECONDS));
+
+        Assertions.assertEquals(2, countBids(highest));
+        Assertions.assertEquals(2, countBids(lowest));
+        Assertions.assertEquals(1, countBids(fixed));
+    }
+
+    @Test
+    public void testDroppedBidsAreReported() throws Exception {
+        Long itemId = persistItem("Write-behind item");
+        Long deletedId = persistItem("Deleted item");
+        transactionTemplate.execute(status -> em.find(Item.class, deletedId));
+        // deleted behind the back of Hibernate, the second-level cache still has the item
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("delete from ITEM_BID_SUMMARY where ITEM_ID = " + deletedId);
+            statement.executeUpdate("delete from ITEM where ID = " + deletedId);
+        }
+        long dropped = queue.getDroppedCount();
+
+        long first = queue.placeBid(itemId, BigDecimal.ONE);
+        long onDeleted = queue.placeBid(deletedId, BigDecimal.ONE);
+        queue.placeBid(itemId, BigDecimal.TEN);
+
+        Assertions.assertTrue(queue.awaitStored(10, TimeUnit.SECONDS));
+        Assertions.assertEquals(dropped + 1, queue.getDroppedCount());
+        Assertions.assertEquals(2, countBids(itemId));
+        Assertions.assertNull(queue.getDropReason(first));
+        Assertions.assertNotNull(queue.getDropReason(onDeleted));
+    }
+
+    @Test
+    public void testRecoverFromJournal() throws Exception {
+        Long itemId = persistItem("Recovered item");
+        long storedBid = queue.placeBid(itemId, BigDecimal.ONE);
+        Assertions.assertTrue(queue.awaitStored(10, TimeUnit.SECONDS));
+
+        // a journal left behind by a crash: a stored bid, one that wasn't and a torn record
+        Path path = Files.createTempDirectory("bids").resolve("bids.journal");
+        BidJournal journal = new BidJournal(path, true, Long.MAX_VALUE);
+        journal.append(new JournaledBid(storedBid, itemId, BigDecimal.ONE));
+        journal.append(new JournaledBid(storedBid + 1_000_000, itemId, BigDecimal.TEN));
+        journal.append(new JournaledBid(storedBid + 1_000_001, itemId, new BigDecimal("100")));
+        journal.close();
+        Path segment = BidJournal.segments(path).get(0);
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.setLength(file.length() - 1);
+        }
+
+        Assertions.assertEquals(2, BidJournal.read(path).size());
+        Assertions.assertEquals(1, queue.recover(path));
+        Assertions.assertEquals(2, countBids(itemId));
+        Files.delete(segment);
+    }
+
+    @Test
+    public void testStoredSegmentsAreDeleted() throws Exception {
+        Path path = Files.createTempDirectory("bids").resolve("bids.journal");
+        List<JournaledBid> bids = new ArrayList<>();
+        // a record takes about 32 bytes, a segment holds four
+        try (BidJournal journal = new BidJournal(path, false, 100)) {
+            for (int i = 1; i <= 30; i++) {
+                JournaledBid bid = new JournaledBid(i, 1L, BigDecimal.valueOf(i));
+                journal.append(bid);
+                bids.add(bid);
+            }
+            Assertions.assertEquals(8, journal.getSegmentCount());
+            Assertions.assertEquals(8, BidJournal.segments(path).size());
+
+            // stored out of order, a segment stays until its last bid is stored
+            journal.stored(bids.subList(1, 27));
+            Assertions.assertEquals(3, journal.getSegmentCount());
+            Assertions.assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 25L, 26L, 27L, 28L, 29L, 30L),
+                    BidJournal.read(path).stream().map(JournaledBid::getId).collect(Collectors.toList()));
+
+            journal.stored(bids.subList(0, 1));
+            journal.stored(bids.subList(27, 30));
+            Assertions.assertEquals(1, journal.getSegmentCount());
+        }
+        Assertions.assertTrue(BidJournal.segments(path).isEmpty());
+    }
+
+    private Long persistItem(String name) {
+        return transactionTemplate.execute(status -> {
+            Item item = new Item(name, "Some description");
+            em.persist(item);
+            return item.getId();
+        });
+    }
+
+    private Long persistItem(String name, AuctionType auctionType, MonetaryAmount buyNowPrice) {
+        return transactionTemplate.execute(status -> {
+            Item item = new Item(name, "Some description");
+            item.setInitialPrice(new MonetaryAmount(BigDecimal.TEN, Currency.getInstance("EUR")));
+            item.setAuctionType(auctionType);
+            item.setBuyNowPrice(buyNowPrice);
+            em.persist(item);
+            return item.getId();
+        });
+    }
+
+    private long countBids(Long itemId) {
+        return transactionTemplate.execute(status -> em.createQuery(
+                "select count(b) from Bid b where b.item.id = :itemId", Long.class)
+                .setParameter("itemId", itemId)
+                .getSingleResult());
+    }
+}
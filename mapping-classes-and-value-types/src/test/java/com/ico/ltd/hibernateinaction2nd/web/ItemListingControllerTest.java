@@ -0,0 +1,66 @@
+package com.ico.ltd.hibernateinaction2nd.web;
+
+import com.ico.ltd.hibernateinaction2nd.config.ConnectionLimitingDataSource;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.Map;
+
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "auction.virtual-threads.enabled=true"
+)
+class ItemListingControllerTest {
+
+    @Autowired
+    TestRestTemplate restTemplate;
+
+    @Autowired
+    DataSource dataSource;
+
+    @Test
+    public void testListItems() throws Exception {
+        ResponseEntity<List> response = restTemplate.getForEntity("/items?first=0&max=1", List.class);
+
+        Assertions.assertEquals(HttpStatus.OK, response.getStatusCode());
+        Assertions.assertEquals(1, response.getBody().size());
+        Map<?, ?> item = (Map<?, ?>) response.getBody().get(0);
+        Assertions.assertEquals(1, item.get("id"));
+        Assertions.assertEquals(3, item.get("bidCount"));
+    }
+
+    @Test
+    public void testListItemsByAuctionEnd() throws Exception {
+        ResponseEntity<Map> first = restTemplate.getForEntity("/items/by-auction-end?max=1", Map.class);
+
+        Assertions.assertEquals(HttpStatus.OK, first.getStatusCode());
+        Assertions.assertEquals(1, ((List<?>) first.getBody().get("content")).size());
+        Object token = first.getBody().get("nextPageToken");
+        if (token != null) {
+            ResponseEntity<Map> next = restTemplate.getForEntity("/items/by-auction-end?max=1&page=" + token, Map.class);
+            Assertions.assertEquals(HttpStatus.OK, next.getStatusCode());
+        }
+
+        ResponseEntity<String> invalid = restTemplate.getForEntity("/items/by-auction-end?page=invalid", String.class);
+        Assertions.assertEquals(HttpStatus.BAD_REQUEST, invalid.getStatusCode());
+    }
+
+    @Test
+    public void testConnectionsAreLimited() throws Exception {
+        Assertions.assertTrue(dataSource instanceof ConnectionLimitingDataSource);
+        ConnectionLimitingDataSource limiting = (ConnectionLimitingDataSource) dataSource;
+
+        int available = limiting.getAvailablePermits();
+        try (java.sql.Connection connection = dataSource.getConnection()) {
+            Assertions.assertEquals(available - 1, limiting.getAvailablePermits());
+        }
+        Assertions.assertEquals(available, limiting.getAvailablePermits());
+    }
+}